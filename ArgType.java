@@ -0,0 +1,29 @@
+/**
+ * Types of the arguments of a command registered with a SqlCommandHandler,
+ * converting a CSV field to the value bound to the SQL template.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import common.*;
+
+public enum ArgType{
+	//a decimal int, bound with setInt
+	INT{
+		@Override
+		Object parse(CSVTokenizer fields, int field) throws TranslatorException{
+			return fields.fieldInt(field);
+		}
+	},
+	//any text, bound with setString
+	STRING{
+		@Override
+		Object parse(CSVTokenizer fields, int field){
+			return fields.field(field);
+		}
+	};
+
+	abstract Object parse(CSVTokenizer fields, int field) throws TranslatorException;
+}
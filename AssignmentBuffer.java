@@ -0,0 +1,248 @@
+/**
+ * Write-behind buffer of the ASSIGN_DRIVER commands of execute, keyed by
+ * trip_id (see SQLTranslator.setAssignmentBuffer).
+ *
+ * Dispatchers often reassign a trip several times within seconds; only the
+ * latest driver of every trip is kept, and the buffer is written as one JDBC
+ * batch in one transaction every flush interval, or as soon as it holds
+ * maxPending trips. The trips mapped from the database while an assignment
+ * is pending carry the pending driver_id, so VIEW_TRIP sees the assignment at
+ * once; which trips a driver's VIEW_TRIP lists is decided by the database,
+ * so it follows after the flush.
+ *
+ * A direct ASSIGN_DRIVER or CANCEL_TRIP of a trip drops its pending
+ * assignment, so a later flush does not write over it. A flush checks its
+ * assignments are still pending before it commits them, so one that was
+ * already under way when the direct write landed does not write over it
+ * either.
+ *
+ * A failed flush keeps the assignments, which are written by the next one.
+ * A buffer whose last flush fails on close keeps flushing on its interval.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class AssignmentBuffer{
+	private final static Logger LOG = Logger.getLogger(AssignmentBuffer.class.getName());
+
+	private final long flushIntervalMillis;
+	private final int maxPending;
+	//the latest DRIVER_ID assigned to every trip not written yet, by TRIP_ID
+	private final ConcurrentHashMap<Integer, Integer> pending = new ConcurrentHashMap<Integer, Integer>();
+	private volatile ScheduledExecutorService flusher;
+
+	//metrics
+	private final LongAdder assignments = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder written = new LongAdder();
+
+	/**
+	 * Creates a buffer and starts flushing it on its interval.
+	 * @param flushIntervalMillis How long an assignment may wait before it is written.
+	 * @param maxPending Number of trips with a pending assignment that triggers a flush at once.
+	 */
+	public AssignmentBuffer(long flushIntervalMillis, int maxPending){
+		if (flushIntervalMillis < 1 || maxPending < 1) {
+			throw new IllegalArgumentException("Invalid assignment buffer: interval=" + flushIntervalMillis
+					+ " maxPending=" + maxPending);
+		}
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.maxPending = maxPending;
+		startFlusher();
+	}
+
+	private void startFlusher(){
+		flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "AssignmentBuffer-flusher");
+			t.setDaemon(true);
+			return t;
+		});
+		flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Buffers an assignment, replacing the pending one of the trip.
+	 */
+	void assign(int tripId, int driverId){
+		assignments.increment();
+		if (pending.put(tripId, driverId) != null) {
+			coalesced.increment();
+		}
+		if (pending.size() >= maxPending) {
+			try {
+				flusher.execute(this::flush);
+			} catch (RejectedExecutionException e) {
+				//closing, the last flush writes it
+			}
+		}
+	}
+
+	/**
+	 * Drops the pending assignment of a trip whose driver was written directly, or which
+	 * was cancelled.
+	 */
+	void superseded(int tripId){
+		pending.remove(tripId);
+	}
+
+	/**
+	 * Moves the pending assignments to another buffer, which writes them unless it has a
+	 * newer one of the same trip.
+	 */
+	synchronized void handOver(AssignmentBuffer next){
+		for (Map.Entry<Integer, Integer> assignment : pending.entrySet()) {
+			next.pending.putIfAbsent(assignment.getKey(), assignment.getValue());
+			pending.remove(assignment.getKey(), assignment.getValue());
+		}
+	}
+
+	/**
+	 * @return the pending driver of a trip, or the one read from the database if there is none.
+	 */
+	int driverOf(int tripId, int driverId){
+		Integer pendingDriver = pending.get(tripId);
+		return pendingDriver == null ? driverId : pendingDriver;
+	}
+
+	/**
+	 * @return true if no assignment is waiting to be written.
+	 */
+	boolean isEmpty(){
+		return pending.isEmpty();
+	}
+
+	/**
+	 * Writes the pending assignments in one transaction, or to the write journal when
+	 * the SQLTranslator has one. Called on the flush interval, and may be called to
+	 * write them at once.
+	 * @return true if every assignment pending at the call has been written.
+	 */
+	public synchronized boolean flush(){
+		if (pending.isEmpty()) {
+			return true;
+		}
+		ArrayList<PreparedQuery> queries = new ArrayList<PreparedQuery>(pending.size());
+		for (Map.Entry<Integer, Integer> assignment : pending.entrySet()) {
+			queries.add(new PreparedQuery(Command.ASSIGN_DRIVER, SQLTranslator.ASSIGN_DRIVER_SQL,
+					assignment.getValue(), assignment.getKey()));
+		}
+		try {
+			WriteJournal journal = SQLTranslator.getWriteJournal();
+			if (journal != null) {
+				for (PreparedQuery query : queries) {
+					//not journaled after a direct write of the trip
+					if (pending.containsKey(query.getParams()[1])) {
+						journal.append(Command.ASSIGN_DRIVER + "," + query.getParams()[1] + "," + query.getParams()[0]);
+					}
+				}
+			} else {
+				write(queries);
+				//the replay of the journal publishes the others
+				for (PreparedQuery query : queries) {
+					SQLTranslator.afterQueuedWrite(query, 0);
+				}
+			}
+		} catch (Exception e) {
+			LOG.warning("Error: cannot write the buffered assignments, retrying on the next flush : " + e.getMessage());
+			return false;
+		}
+		//an assignment replaced meanwhile is written by the next flush
+		for (PreparedQuery query : queries) {
+			pending.remove(query.getParams()[1], query.getParams()[0]);
+		}
+		written.add(queries.size());
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Buffered assignments written : " + queries.size());
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the assignments in one transaction, leaving out the trips written directly
+	 * (superseded) since the list was built; those are removed from the list.
+	 */
+	private void write(ArrayList<PreparedQuery> queries) throws SQLException{
+		ConnectionPool connectionPool = SQLTranslator.getRouter().getPrimary();
+		PooledConnection dbConnection = connectionPool.borrow();
+		Connection connection = dbConnection.getConnection();
+		try {
+			connection.setAutoCommit(false);
+			PreparedStatement statement = dbConnection.prepare(SQLTranslator.ASSIGN_DRIVER_SQL);
+			while (!queries.isEmpty()) {
+				for (PreparedQuery query : queries) {
+					query.bind(statement);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				//a direct write committed before the batch would be overwritten: write the others again
+				if (!queries.removeIf(query -> !pending.containsKey(query.getParams()[1]))) {
+					connection.commit();
+					return;
+				}
+				connection.rollback();
+			}
+		} catch (SQLException e) {
+			try {
+				connection.rollback();
+			} catch (SQLException re) {
+				dbConnection.markBroken();
+			}
+			throw e;
+		} finally {
+			try {
+				connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				dbConnection.markBroken();
+			}
+			connectionPool.release(dbConnection);
+		}
+	}
+
+	/**
+	 * Stops the flushing, writing the pending assignments a last time. If they cannot be
+	 * written, the buffer keeps them and goes on flushing on its interval.
+	 * @return true if no assignment was left unwritten.
+	 */
+	public boolean close(){
+		ScheduledExecutorService stopped = flusher;
+		stopped.shutdown();
+		try {
+			stopped.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (flush()) {
+			return true;
+		}
+		startFlusher();
+		return false;
+	}
+
+	/** @return the number of trips with an assignment waiting to be written. */
+	public int getPending(){ return pending.size(); }
+
+	/** @return the number of ASSIGN_DRIVER commands buffered. */
+	public long getAssignments(){ return assignments.sum(); }
+
+	/** @return the number of assignments replaced by a later one of the same trip before being written. */
+	public long getCoalesced(){ return coalesced.sum(); }
+
+	/** @return the number of assignments written to the database. */
+	public long getWritten(){ return written.sum(); }
+}
@@ -0,0 +1,116 @@
+/**
+ * Runs execute calls asynchronously, one virtual thread per call where the JVM
+ * supports them (a cached thread pool otherwise).
+ *
+ * At most maxConcurrent calls run at the same time, normally the size of the
+ * connection pool, so waiting happens here rather than in the pool. At most
+ * maxPending calls may be waiting or running; further calls are rejected
+ * straight away, which pushes back on the caller instead of piling up threads.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+class AsyncExecutor{
+	private final ExecutorService executor = newExecutor();
+	private final Semaphore running;
+	private final Semaphore pending;
+
+	/**
+	 * Future of an asynchronous execute call; cancelling it cancels the running statement.
+	 */
+	private static class QueryFuture extends CompletableFuture<List<?>>{
+		final QueryHandle handle = new QueryHandle();
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning){
+			handle.cancel();
+			return super.cancel(mayInterruptIfRunning);
+		}
+	}
+
+	/**
+	 * @param maxConcurrent Maximum number of calls executing at the same time.
+	 * @param maxPending Maximum number of calls waiting or executing.
+	 */
+	AsyncExecutor(int maxConcurrent, int maxPending){
+		if (maxConcurrent < 1 || maxPending < maxConcurrent) {
+			throw new IllegalArgumentException("Invalid limits: concurrent=" + maxConcurrent + " pending=" + maxPending);
+		}
+		this.running = new Semaphore(maxConcurrent, true);
+		this.pending = new Semaphore(maxPending);
+	}
+
+	/**
+	 * Starts executing a command.
+	 * @param CSV The comma separated command.
+	 * @return future of the result of execute. It fails with a RejectedExecutionException
+	 *         if maxPending calls are already in flight, or with the error of execute.
+	 */
+	CompletableFuture<List<?>> submit(String CSV){
+		QueryFuture future = new QueryFuture();
+		if (!pending.tryAcquire()) {
+			future.completeExceptionally(new RejectedExecutionException("Too many queries in flight"));
+			return future;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					running.acquire();
+					try {
+						if (!future.handle.isCancelled()) {
+							List<?> result = SQLTranslator.execute(CSV, future.handle);
+							//execute logs the error and returns an empty list, the future fails with it
+							Exception failure = future.handle.getFailure();
+							if (failure != null) {
+								future.completeExceptionally(failure);
+							} else {
+								future.complete(result);
+							}
+						}
+					} finally {
+						running.release();
+					}
+				} catch (InterruptedException e) {
+					future.completeExceptionally(e);
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				} finally {
+					pending.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pending.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Stops accepting calls; calls already submitted still complete.
+	 */
+	void shutdown(){
+		executor.shutdown();
+	}
+
+	private static ExecutorService newExecutor(){
+		try {
+			//Executors.newVirtualThreadPerTaskExecutor() is only there from Java 21
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "SQLTranslator-async");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ * Fast path of the LOGIN command.
+ *
+ * The user is looked up by exact match on the ID or email with a single
+ * prepared join of the user's table and the password table, and the password
+ * is checked in Java against the stored value:
+ *   - pbkdf2$iterations$salt$hash : salted PBKDF2-HMAC-SHA256 (Base64 salt and hash), see hash()
+ *   - anything else is a legacy plaintext password, compared in constant time
+ *
+ * The user (Customer, Driver or Staff) and the stored password are cached for a
+ * short time, so repeated logins, e.g. at shift change, skip the database. The
+ * password is still checked on every login; once it has been verified, repeats
+ * are checked with a single salted SHA-256 instead of the full PBKDF2.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+public class Authenticator{
+	private final static Logger LOG = Logger.getLogger(Authenticator.class.getName());
+
+	//exact-match lookups of the user with the stored password
+	final static String CUSTOMER_BY_ID_SQL = "SELECT customer.*, password.pw FROM customer"
+			+ " JOIN password ON password.ID = customer.CUSTOMER_ID WHERE customer.CUSTOMER_ID=?";
+	final static String CUSTOMER_BY_EMAIL_SQL = "SELECT customer.*, password.pw FROM customer"
+			+ " JOIN password ON password.ID = customer.CUSTOMER_ID WHERE customer.email=?";
+	final static String DRIVER_BY_ID_SQL = "SELECT driver.*, password.pw FROM driver"
+			+ " JOIN password ON password.ID = driver.DRIVER_ID WHERE driver.DRIVER_ID=?";
+	final static String STAFF_BY_ID_SQL = "SELECT company_staff.*, password.pw FROM company_staff"
+			+ " JOIN password ON password.ID = company_staff.STAFF_ID WHERE company_staff.STAFF_ID=?";
+
+	private final static String PBKDF2 = "PBKDF2WithHmacSHA256";
+	private final static String PBKDF2_PREFIX = "pbkdf2$";
+	private final static int PBKDF2_ITERATIONS = 10000;
+	private final static int SALT_BYTES = 16;
+	private final static int HASH_BITS = 256;
+	private final static SecureRandom RANDOM = new SecureRandom();
+	//1/n of the cache evicted at once when it is full of unexpired users
+	private final static int EVICTED_FRACTION = 10;
+
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * A cached user: the principal, its stored password, and a fast digest of the
+	 * password once it has been verified.
+	 */
+	private static class Entry{
+		final Object principal;
+		final String storedPassword;
+		final long expiresAt;
+		final byte[] salt = new byte[SALT_BYTES];
+		volatile byte[] verifiedDigest;
+
+		Entry(Object principal, String storedPassword, long expiresAt){
+			this.principal = principal;
+			this.storedPassword = storedPassword;
+			this.expiresAt = expiresAt;
+			RANDOM.nextBytes(salt);
+		}
+	}
+
+	/**
+	 * @param maxEntries Maximum number of users cached.
+	 * @param ttlMillis How long a user is served from the cache.
+	 */
+	public Authenticator(int maxEntries, long ttlMillis){
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Logs in from the cache.
+	 * @param query The translated LOGIN: the lookup template, the ID or email, and the password.
+	 * @return a list with the user if the password matches, an empty list if it does not,
+	 *         or null if the user is not cached.
+	 */
+	ArrayList<Object> loginFromCache(PreparedQuery query){
+		Entry entry = cache.get(keyOf(query));
+		if (entry == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() >= entry.expiresAt) {
+			cache.remove(keyOf(query), entry);
+			return null;
+		}
+		return check(entry, query.getPassword());
+	}
+
+	/**
+	 * Logs in from the database, caching the user found.
+	 * @param dbConnection Connection to read with.
+	 * @param query The translated LOGIN.
+	 * @return a list with the user if the password matches, an empty list otherwise.
+	 */
+	ArrayList<Object> login(PooledConnection dbConnection, PreparedQuery query) throws SQLException{
+		PreparedStatement statement = dbConnection.prepare(query.getSql());
+		query.bind(statement);
+		Entry entry;
+		try (ResultSet rSet = statement.executeQuery()) {
+			if (!rSet.next()) {
+				return new ArrayList<Object>();
+			}
+			Object principal = RowMappers.forShape(query.getResultType(), rSet.getMetaData()).mapRow(rSet);
+			entry = new Entry(principal, rSet.getString("pw"), System.currentTimeMillis() + ttlMillis);
+		}
+		if (cache.size() >= maxEntries) {
+			evict();
+		}
+		cache.put(keyOf(query), entry);
+		return check(entry, query.getPassword());
+	}
+
+	/**
+	 * Drops every cached user, e.g. after passwords were changed.
+	 */
+	public void clear(){
+		cache.clear();
+	}
+
+	/**
+	 * Hashes a password into the stored form checked by LOGIN, for migrating the
+	 * password table off plaintext.
+	 * @param password The plaintext password.
+	 * @return pbkdf2$iterations$salt$hash
+	 */
+	public static String hash(String password){
+		byte[] salt = new byte[SALT_BYTES];
+		RANDOM.nextBytes(salt);
+		Base64.Encoder base64 = Base64.getEncoder();
+		return PBKDF2_PREFIX + PBKDF2_ITERATIONS + "$" + base64.encodeToString(salt) + "$"
+				+ base64.encodeToString(pbkdf2(password, salt, PBKDF2_ITERATIONS));
+	}
+
+	/**
+	 * @return true if the password matches the stored password.
+	 */
+	static boolean verify(String password, String storedPassword){
+		if (storedPassword == null || password == null) {
+			return false;
+		}
+		if (!storedPassword.startsWith(PBKDF2_PREFIX)) {
+			return MessageDigest.isEqual(storedPassword.getBytes(StandardCharsets.UTF_8),
+					password.getBytes(StandardCharsets.UTF_8));
+		}
+		String[] parts = storedPassword.split("\\$");
+		if (parts.length != 4) {
+			LOG.warning("Error: malformed stored password hash");
+			return false;
+		}
+		try {
+			Base64.Decoder base64 = Base64.getDecoder();
+			byte[] expected = base64.decode(parts[3]);
+			return MessageDigest.isEqual(expected, pbkdf2(password, base64.decode(parts[2]), Integer.parseInt(parts[1])));
+		} catch (IllegalArgumentException e) {
+			LOG.warning("Error: malformed stored password hash : " + e.getMessage());
+			return false;
+		}
+	}
+
+	private ArrayList<Object> check(Entry entry, String password){
+		ArrayList<Object> principal = new ArrayList<Object>(1);
+		byte[] verified = entry.verifiedDigest;
+		if (verified != null && MessageDigest.isEqual(verified, digest(entry.salt, password))) {
+			principal.add(entry.principal);
+		} else if (verify(password, entry.storedPassword)) {
+			entry.verifiedDigest = digest(entry.salt, password);
+			principal.add(entry.principal);
+		}
+		return principal;
+	}
+
+	/**
+	 * Makes room in the cache: drops the expired users, and if it is still full the oldest
+	 * tenth of them, so the users logged in lately stay cached.
+	 */
+	private void evict(){
+		long now = System.currentTimeMillis();
+		cache.values().removeIf(entry -> now >= entry.expiresAt);
+		int excess = cache.size() - maxEntries;
+		if (excess < 0) {
+			return;
+		}
+		//every entry lives for the same TTL, the oldest expire first
+		long[] expiries = cache.values().stream().mapToLong(entry -> entry.expiresAt).sorted().toArray();
+		int evicted = Math.min(expiries.length, excess + Math.max(1, maxEntries / EVICTED_FRACTION));
+		if (evicted > 0) {
+			long newestEvicted = expiries[evicted - 1];
+			cache.values().removeIf(entry -> entry.expiresAt <= newestEvicted);
+		}
+	}
+
+	private static String keyOf(PreparedQuery query){
+		Object login = query.getParams()[0];
+		return query.getSql() + '\u0000' + (login instanceof String ? ((String) login).toLowerCase() : login);
+	}
+
+	private static byte[] digest(byte[] salt, String password){
+		try {
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			sha256.update(salt);
+			return sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	private static byte[] pbkdf2(String password, byte[] salt, int iterations){
+		try {
+			PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+			return SecretKeyFactory.getInstance(PBKDF2).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(PBKDF2 + " is not available", e);
+		}
+	}
+}
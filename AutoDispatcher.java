@@ -0,0 +1,270 @@
+/**
+ * Assigns drivers to every unassigned trip of a date window in one pass
+ * (the AUTO_DISPATCH command).
+ *
+ * The unassigned trips and the drivers already booked in the window are read
+ * with two queries, the trips are grouped by time slot and the slots are
+ * matched with free drivers in parallel on the fork-join pool (a driver is only
+ * ever busy within one slot, so the slots are independent). The assignments are
+ * then written as one JDBC batch in one transaction, each guarded by
+ * driver_id IS NULL and by the driver having no other trip in the slot, so a
+ * trip or driver booked by a dispatcher meanwhile is left alone. With the
+ * driver index loaded, the drivers are also claimed through it while matching,
+ * like ASSIGN_DRIVER does.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+class AutoDispatcher{
+	private final static Logger LOG = Logger.getLogger(AutoDispatcher.class.getName());
+
+	//CSV command:
+	//AUTO_DISPATCH,from_date,to_date
+	final static String UNASSIGNED_TRIPS_SQL = "SELECT TRIP_ID, trip_date, trip_time FROM trip"
+			+ " WHERE driver_id IS NULL AND trip_date BETWEEN ? AND ? ORDER BY trip_date, trip_time, TRIP_ID";
+	private final static String BUSY_DRIVERS_SQL = "SELECT driver_id, trip_date, trip_time FROM trip"
+			+ " WHERE driver_id IS NOT NULL AND trip_date BETWEEN ? AND ?";
+	private final static String DRIVERS_SQL = "SELECT DRIVER_ID FROM driver ORDER BY DRIVER_ID";
+	//the driver's trips are read through a derived table, as MySQL refuses a subquery on the updated table
+	private final static String ASSIGN_SQL = "UPDATE trip SET driver_id=? WHERE trip_id=? AND driver_id IS NULL"
+			+ " AND NOT EXISTS (SELECT 1 FROM (SELECT DISTINCT trip_date, trip_time FROM trip WHERE driver_id=?) busy"
+			+ " WHERE busy.trip_date=trip.trip_date AND busy.trip_time=trip.trip_time)";
+	private final static String DRIVER_OF_TRIP_SQL = "SELECT driver_id FROM trip WHERE TRIP_ID=?";
+	//slots matched by one fork-join task without splitting further
+	private final static int SLOTS_PER_TASK = 16;
+
+	/**
+	 * The unassigned trips of one time slot, and the drivers matched to them.
+	 */
+	private static class Slot{
+		final String date;
+		final String time;
+		final List<Integer> trips = new ArrayList<Integer>();
+		final Set<Integer> busyDrivers = new HashSet<Integer>();
+		int[] drivers;
+
+		Slot(String date, String time){
+			this.date = date;
+			this.time = time;
+		}
+	}
+
+	//null if the driver index is not loaded
+	private final DriverAvailability index;
+
+	/**
+	 * @param index The driver index to claim the matched drivers through, null if it is not loaded.
+	 */
+	AutoDispatcher(DriverAvailability index){
+		this.index = index;
+	}
+
+	/**
+	 * Matches the trips of a range of slots with the drivers free in them.
+	 */
+	private static class MatchTask extends RecursiveTask<Void>{
+		private static final long serialVersionUID = 1L;
+
+		private final List<Slot> slots;
+		private final int[] allDrivers;
+		private final transient DriverAvailability index;
+		private final int from;
+		private final int to;
+
+		MatchTask(List<Slot> slots, int[] allDrivers, DriverAvailability index, int from, int to){
+			this.slots = slots;
+			this.allDrivers = allDrivers;
+			this.index = index;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Void compute(){
+			if (to - from > SLOTS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new MatchTask(slots, allDrivers, index, from, middle),
+						new MatchTask(slots, allDrivers, index, middle, to));
+				return null;
+			}
+			for (int i = from; i < to; i++) {
+				Slot slot = slots.get(i);
+				slot.drivers = new int[slot.trips.size()];
+				int next = 0;
+				//the free drivers in DRIVER_ID order take the trips in TRIP_ID order
+				for (int d = 0; d < allDrivers.length && next < slot.drivers.length; d++) {
+					if (!slot.busyDrivers.contains(allDrivers[d]) && (index == null
+							|| index.reserve(slot.trips.get(next), allDrivers[d], slot.date, slot.time))) {
+						slot.drivers[next++] = allDrivers[d];
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the dispatch.
+	 * @param dbConnection Connection to read and write with.
+	 * @param fromDate First trip_date of the window.
+	 * @param toDate Last trip_date of the window.
+	 * @return the assignments committed and the trips left unassigned.
+	 */
+	DispatchResult dispatch(PooledConnection dbConnection, String fromDate, String toDate) throws SQLException{
+		//unassigned trips by slot, in date and time order
+		LinkedHashMap<String, Slot> slots = new LinkedHashMap<String, Slot>();
+		PreparedStatement statement = dbConnection.prepare(UNASSIGNED_TRIPS_SQL);
+		statement.setString(1, fromDate);
+		statement.setString(2, toDate);
+		try (ResultSet rSet = statement.executeQuery()) {
+			while (rSet.next()) {
+				String key = rSet.getString(2) + '|' + rSet.getString(3);
+				Slot slot = slots.get(key);
+				if (slot == null) {
+					slot = new Slot(rSet.getString(2), rSet.getString(3));
+					slots.put(key, slot);
+				}
+				slot.trips.add(rSet.getInt(1));
+			}
+		}
+		if (slots.isEmpty()) {
+			return new DispatchResult(new LinkedHashMap<Integer, Integer>(), new ArrayList<Integer>());
+		}
+		statement = dbConnection.prepare(BUSY_DRIVERS_SQL);
+		statement.setString(1, fromDate);
+		statement.setString(2, toDate);
+		try (ResultSet rSet = statement.executeQuery()) {
+			while (rSet.next()) {
+				Slot slot = slots.get(rSet.getString(2) + '|' + rSet.getString(3));
+				if (slot != null) {
+					slot.busyDrivers.add(rSet.getInt(1));
+				}
+			}
+		}
+		ArrayList<Integer> driverIds = new ArrayList<Integer>();
+		statement = dbConnection.prepare(DRIVERS_SQL);
+		try (ResultSet rSet = statement.executeQuery()) {
+			while (rSet.next()) {
+				driverIds.add(rSet.getInt(1));
+			}
+		}
+		int[] allDrivers = new int[driverIds.size()];
+		for (int i = 0; i < allDrivers.length; i++) {
+			allDrivers[i] = driverIds.get(i);
+		}
+
+		List<Slot> slotList = new ArrayList<Slot>(slots.values());
+		ForkJoinPool.commonPool().invoke(new MatchTask(slotList, allDrivers, index, 0, slotList.size()));
+
+		return apply(dbConnection, slotList);
+	}
+
+	/**
+	 * Writes the matched assignments as one batch in one transaction. A trip whose guarded
+	 * update changed no row is left unassigned.
+	 */
+	private DispatchResult apply(PooledConnection dbConnection, List<Slot> slots) throws SQLException{
+		LinkedHashMap<Integer, Integer> planned = new LinkedHashMap<Integer, Integer>();
+		//the slot of every planned trip, to free its index claim if the write is refused
+		HashMap<Integer, Slot> slotOfTrip = new HashMap<Integer, Slot>();
+		List<Integer> unassigned = new ArrayList<Integer>();
+		for (Slot slot : slots) {
+			for (int i = 0; i < slot.trips.size(); i++) {
+				if (slot.drivers[i] != 0) {
+					planned.put(slot.trips.get(i), slot.drivers[i]);
+					slotOfTrip.put(slot.trips.get(i), slot);
+				} else {
+					unassigned.add(slot.trips.get(i));
+				}
+			}
+		}
+		LinkedHashMap<Integer, Integer> assigned = new LinkedHashMap<Integer, Integer>();
+		if (planned.isEmpty()) {
+			return new DispatchResult(assigned, unassigned);
+		}
+
+		Connection connection = dbConnection.getConnection();
+		int[] counts;
+		connection.setAutoCommit(false);
+		try {
+			PreparedStatement statement = dbConnection.prepare(ASSIGN_SQL);
+			for (Map.Entry<Integer, Integer> assignment : planned.entrySet()) {
+				statement.setInt(1, assignment.getValue());
+				statement.setInt(2, assignment.getKey());
+				statement.setInt(3, assignment.getValue());
+				statement.addBatch();
+			}
+			counts = statement.executeBatch();
+			connection.commit();
+		} catch (SQLException e) {
+			try {
+				connection.rollback();
+			} catch (SQLException rollbackError) {
+				LOG.warning("Error: cannot roll back the dispatch : " + rollbackError.getMessage());
+				dbConnection.markBroken();
+			}
+			if (index != null) {
+				for (Map.Entry<Integer, Integer> assignment : planned.entrySet()) {
+					Slot slot = slotOfTrip.get(assignment.getKey());
+					index.unreserve(assignment.getKey(), assignment.getValue(), slot.date, slot.time);
+				}
+			}
+			throw e;
+		} finally {
+			try {
+				connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				dbConnection.markBroken();
+			}
+		}
+		int i = 0;
+		for (Map.Entry<Integer, Integer> assignment : planned.entrySet()) {
+			int count = counts[i++];
+			//the driver does not tell whether the row changed, the committed trip does
+			if (count == Statement.SUCCESS_NO_INFO) {
+				count = driverOf(dbConnection, assignment.getKey()) == assignment.getValue() ? 1 : 0;
+			}
+			if (count > 0) {
+				assigned.put(assignment.getKey(), assignment.getValue());
+				continue;
+			}
+			//0 rows: a dispatcher assigned the trip or booked the driver in the slot after they were read
+			unassigned.add(assignment.getKey());
+			if (index != null) {
+				Slot slot = slotOfTrip.get(assignment.getKey());
+				index.refused(dbConnection, assignment.getKey(), assignment.getValue(), slot.date, slot.time);
+			}
+		}
+		LOG.info("Auto dispatch assigned " + assigned.size() + " trips, " + unassigned.size() + " left unassigned");
+		return new DispatchResult(assigned, unassigned);
+	}
+
+	/**
+	 * @return the driver of the trip, 0 if it is unassigned or does not exist.
+	 */
+	private static int driverOf(PooledConnection dbConnection, int tripId) throws SQLException{
+		PreparedStatement statement = dbConnection.prepare(DRIVER_OF_TRIP_SQL);
+		statement.setInt(1, tripId);
+		try (ResultSet rSet = statement.executeQuery()) {
+			return rSet.next() ? rSet.getInt(1) : 0;
+		}
+	}
+}
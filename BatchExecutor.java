@@ -0,0 +1,251 @@
+/**
+ * Executes lists of write commands (BOOK_TRIP, SIGN_UP, CANCEL_TRIP, ASSIGN_DRIVER)
+ * with JDBC batching, for bulk imports.
+ *
+ * Consecutive commands of the same type are grouped into batches of at most
+ * batchSize commands, and every batch runs in its own transaction on one pooled
+ * connection. BOOK_TRIP and SIGN_UP batches can be rewritten into a single
+ * multi-row INSERT instead.
+ *
+ * The commands the embedded store, the assignment buffer or the write journal
+ * take in execute go there one at a time instead, and while the driver index is
+ * loaded ASSIGN_DRIVER is written one at a time through its guard.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import common.*;
+
+class BatchExecutor{
+	private final static Logger LOG = Logger.getLogger(BatchExecutor.class.getName());
+	private final ConnectionPool pool;
+	private final int batchSize;
+	private final boolean multiRowInserts;
+
+	/**
+	 * @param pool The pool to borrow the connection from.
+	 * @param batchSize Maximum number of commands sent in one batch (and committed in one transaction).
+	 * @param multiRowInserts true to send BOOK_TRIP and SIGN_UP batches as one multi-row INSERT.
+	 */
+	BatchExecutor(ConnectionPool pool, int batchSize, boolean multiRowInserts){
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		}
+		this.pool = pool;
+		this.batchSize = batchSize;
+		this.multiRowInserts = multiRowInserts;
+	}
+
+	/**
+	 * Translates and executes the commands in order.
+	 * @param csvCommands The comma separated commands.
+	 * @return one BatchResult for every command, in the same order.
+	 */
+	List<BatchResult> execute(List<String> csvCommands){
+		BatchResult[] results = new BatchResult[csvCommands.size()];
+		//translate everything first, so a bad line only fails itself
+		PreparedQuery[] queries = new PreparedQuery[csvCommands.size()];
+		for (int i = 0; i < queries.length; i++) {
+			try {
+				queries[i] = SQLTranslator.translateCSV(csvCommands.get(i));
+				if (queries[i].isQuery()) {
+					results[i] = BatchResult.failure(i, "Only write commands can be batched: " + queries[i].getCommand());
+					queries[i] = null;
+				}
+			} catch (TranslatorException e) {
+				results[i] = BatchResult.failure(i, e.getMessage());
+			}
+		}
+
+		PooledConnection dbConnection = null;
+		try {
+			int start = 0;
+			while (start < queries.length) {
+				if (queries[start] == null) {
+					start++;
+					continue;
+				}
+				//extend the group while the next command uses the same template
+				int end = start + 1;
+				while (end < queries.length && end - start < batchSize && queries[end] != null
+						&& queries[end].getSql().equals(queries[start].getSql())) {
+					end++;
+				}
+				if (SQLTranslator.isRedirected(queries[start])) {
+					executeRedirected(csvCommands, queries, start, end, results);
+					start = end;
+					continue;
+				}
+				//borrowed once the first command needs the database
+				if (dbConnection == null) {
+					dbConnection = pool.borrow();
+				}
+				DriverAvailability index = SQLTranslator.getDriverIndex();
+				if (index != null && queries[start].getCommand() == Command.ASSIGN_DRIVER) {
+					executeGuarded(dbConnection, index, queries, start, end, results);
+				} else {
+					executeGroup(dbConnection, queries, start, end, results);
+				}
+				start = end;
+			}
+		} catch (SQLException e) {
+			LOG.warning("There was an error during the SQL query : " + e.getMessage());
+		} finally {
+			if (dbConnection != null) {
+				pool.release(dbConnection);
+			}
+		}
+
+		//commands never reached because no connection could be borrowed
+		ArrayList<BatchResult> resultList = new ArrayList<BatchResult>(results.length);
+		for (int i = 0; i < results.length; i++) {
+			resultList.add(results[i] != null ? results[i] : BatchResult.failure(i, "Not executed: no database connection"));
+		}
+		return resultList;
+	}
+
+	/**
+	 * Executes queries[start..end), which share the same template, in one transaction.
+	 */
+	private void executeGroup(PooledConnection dbConnection, PreparedQuery[] queries, int start, int end,
+			BatchResult[] results) throws SQLException{
+		Connection connection = dbConnection.getConnection();
+		PreparedQuery first = queries[start];
+		connection.setAutoCommit(false);
+		try {
+			String multiRowSql = null;
+			if (multiRowInserts && end - start > 1
+					&& (first.getCommand() == Command.BOOK_TRIP || first.getCommand() == Command.SIGN_UP)) {
+				multiRowSql = first.multiRowSql(end - start);
+			}
+			if (multiRowSql != null) {
+				PreparedStatement statement = dbConnection.prepare(multiRowSql);
+				int offset = 0;
+				for (int i = start; i < end; i++) {
+					queries[i].bind(statement, offset);
+					offset += queries[i].getParams().length;
+				}
+				statement.executeUpdate();
+				int[] ids = generatedIds(statement, first.getCommand(), end - start);
+				connection.commit();
+				for (int i = start; i < end; i++) {
+					results[i] = BatchResult.success(i, 1);
+					SQLTranslator.afterWrite(queries[i], ids[i - start]);
+				}
+			} else {
+				PreparedStatement statement = dbConnection.prepare(first.getSql());
+				for (int i = start; i < end; i++) {
+					queries[i].bind(statement);
+					statement.addBatch();
+				}
+				int[] counts = statement.executeBatch();
+				int[] ids = generatedIds(statement, first.getCommand(), end - start);
+				connection.commit();
+				for (int i = start; i < end; i++) {
+					results[i] = BatchResult.success(i, counts[i - start]);
+					SQLTranslator.afterWrite(queries[i], ids[i - start]);
+				}
+			}
+		} catch (SQLException e) {
+			rollback(dbConnection);
+			//the whole transaction is rolled back, point out the command that broke it if the driver tells
+			int failed = -1;
+			if (e instanceof BatchUpdateException) {
+				int[] counts = ((BatchUpdateException) e).getUpdateCounts();
+				for (int i = 0; counts != null && i < counts.length; i++) {
+					if (counts[i] == Statement.EXECUTE_FAILED) {
+						failed = start + i;
+						break;
+					}
+				}
+				if (failed < 0 && counts != null && counts.length < end - start) {
+					failed = start + counts.length;
+				}
+			}
+			for (int i = start; i < end; i++) {
+				results[i] = BatchResult.failure(i, i == failed || failed < 0 ? e.getMessage()
+						: "Rolled back with the batch : " + e.getMessage());
+			}
+		} finally {
+			try {
+				connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				dbConnection.markBroken();
+			}
+		}
+	}
+
+	/**
+	 * Executes queries[start..end) one at a time where execute would, instead of the database.
+	 */
+	private void executeRedirected(List<String> csvCommands, PreparedQuery[] queries, int start, int end,
+			BatchResult[] results){
+		for (int i = start; i < end; i++) {
+			try {
+				if (SQLTranslator.executeRedirected(csvCommands.get(i), queries[i]) != null) {
+					results[i] = BatchResult.success(i, Statement.SUCCESS_NO_INFO);
+				} else {
+					results[i] = BatchResult.failure(i, "Not executed: the write path changed during the batch");
+				}
+			} catch (Exception e) {
+				results[i] = BatchResult.failure(i, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Executes the ASSIGN_DRIVER queries[start..end) one at a time through the driver index,
+	 * which refuses to double-book a driver; each commits on its own.
+	 */
+	private void executeGuarded(PooledConnection dbConnection, DriverAvailability index, PreparedQuery[] queries,
+			int start, int end, BatchResult[] results){
+		for (int i = start; i < end; i++) {
+			Object[] params = queries[i].getParams();
+			try {
+				if (index.assign(dbConnection, (Integer) params[1], (Integer) params[0])) {
+					results[i] = BatchResult.success(i, 1);
+					SQLTranslator.afterWrite(queries[i], 0);
+				} else {
+					results[i] = BatchResult.failure(i, "Driver assignment refused");
+				}
+			} catch (SQLException e) {
+				results[i] = BatchResult.failure(i, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return the IDs generated by a BOOK_TRIP or SIGN_UP batch in order, 0 where the driver does not tell.
+	 */
+	private static int[] generatedIds(PreparedStatement statement, Command command, int count) throws SQLException{
+		int[] ids = new int[count];
+		if (command == Command.BOOK_TRIP || command == Command.SIGN_UP) {
+			try (ResultSet keys = statement.getGeneratedKeys()) {
+				for (int i = 0; i < count && keys.next(); i++) {
+					ids[i] = keys.getInt(1);
+				}
+			}
+		}
+		return ids;
+	}
+
+	private static void rollback(PooledConnection dbConnection){
+		try {
+			dbConnection.getConnection().rollback();
+		} catch (SQLException e) {
+			LOG.warning("Error: cannot roll back the batch : " + e.getMessage());
+			dbConnection.markBroken();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Outcome of one command of SQLTranslator.executeBatch.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+
+public class BatchResult{
+	private final int index;
+	private final boolean success;
+	private final int updateCount;
+	private final String error;
+
+	private BatchResult(int index, boolean success, int updateCount, String error){
+		this.index = index;
+		this.success = success;
+		this.updateCount = updateCount;
+		this.error = error;
+	}
+
+	static BatchResult success(int index, int updateCount){
+		return new BatchResult(index, true, updateCount, null);
+	}
+
+	static BatchResult failure(int index, String error){
+		return new BatchResult(index, false, 0, error);
+	}
+
+	/** @return position of the command in the list passed to executeBatch. */
+	public int getIndex(){ return index; }
+
+	/** @return true if the command was executed and committed. */
+	public boolean isSuccess(){ return success; }
+
+	/** @return number of rows changed by the command, or Statement.SUCCESS_NO_INFO if the driver does not tell. */
+	public int getUpdateCount(){ return updateCount; }
+
+	/** @return why the command failed, null if it succeeded. */
+	public String getError(){ return error; }
+
+	@Override
+	public String toString(){
+		return "#" + index + (success ? " OK (" + updateCount + ")" : " FAILED : " + error);
+	}
+}
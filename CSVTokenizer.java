@@ -0,0 +1,222 @@
+/**
+ * Reusable tokenizer for the comma separated commands of the clients.
+ *
+ * The input is scanned once and only the offsets of the fields are recorded,
+ * so no array or String is created per field unless a field is asked for as a
+ * String. Fields may be wrapped in double quotes to hold commas, e.g.
+ *   BOOK_TRIP,1001,"12, High Street",...
+ * and a double quote inside a quoted field is written twice.
+ *
+ * An instance is not thread safe, every thread should use its own.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.Arrays;
+import common.*;
+
+public class CSVTokenizer{
+	private CharSequence input;
+	private int count;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	//true for quoted fields containing an escaped ("") quote
+	private boolean[] escaped = new boolean[16];
+
+	/**
+	 * Splits a new command into fields, replacing the previous one.
+	 * Trailing empty fields are ignored, like String.split does.
+	 * @param input The comma separated command.
+	 * @return this tokenizer.
+	 * @throws TranslatorException if a quoted field is not closed.
+	 */
+	public CSVTokenizer reset(CharSequence input) throws TranslatorException{
+		this.input = input;
+		this.count = 0;
+		int length = input.length();
+		int pos = 0;
+		while (true) {
+			if (count == starts.length) {
+				grow();
+			}
+			if (pos < length && input.charAt(pos) == '"') {
+				//quoted field: runs to the next quote that is not doubled
+				int start = pos + 1;
+				boolean hasEscape = false;
+				pos = start;
+				while (true) {
+					if (pos >= length) {
+						throw new TranslatorException("Unterminated quoted field in command!");
+					}
+					if (input.charAt(pos) == '"') {
+						if (pos + 1 < length && input.charAt(pos + 1) == '"') {
+							hasEscape = true;
+							pos += 2;
+							continue;
+						}
+						break;
+					}
+					pos++;
+				}
+				starts[count] = start;
+				ends[count] = pos;
+				escaped[count] = hasEscape;
+				count++;
+				//skip the closing quote, anything up to the next comma is ignored
+				pos++;
+				while (pos < length && input.charAt(pos) != ',') {
+					pos++;
+				}
+			} else {
+				int start = pos;
+				while (pos < length && input.charAt(pos) != ',') {
+					pos++;
+				}
+				starts[count] = start;
+				ends[count] = pos;
+				escaped[count] = false;
+				count++;
+			}
+			if (pos >= length) {
+				break;
+			}
+			//skip the comma
+			pos++;
+		}
+		//drop trailing empty fields, but keep the command itself
+		while (count > 1 && starts[count - 1] == ends[count - 1] && !isQuoted(count - 1)) {
+			count--;
+		}
+		return this;
+	}
+
+	/**
+	 * @return the number of fields, including the command verb.
+	 */
+	public int fieldCount(){
+		return count;
+	}
+
+	/**
+	 * @return index of the first character of the field in the input.
+	 */
+	public int start(int field){
+		checkField(field);
+		return starts[field];
+	}
+
+	/**
+	 * @return index after the last character of the field in the input.
+	 */
+	public int end(int field){
+		checkField(field);
+		return ends[field];
+	}
+
+	/**
+	 * @return the Command named by the first field, or null if it is not recognised.
+	 */
+	public Command command(){
+		return Command.lookup(input, starts[0], ends[0]);
+	}
+
+	/**
+	 * @return the field as a String, with the quotes removed.
+	 */
+	public String field(int field){
+		checkField(field);
+		String value = input.subSequence(starts[field], ends[field]).toString();
+		return escaped[field] ? value.replace("\"\"", "\"") : value;
+	}
+
+	/**
+	 * @return true if the field equals the text, ignoring case.
+	 */
+	public boolean fieldEqualsIgnoreCase(int field, String text){
+		checkField(field);
+		int start = starts[field];
+		if (ends[field] - start != text.length()) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			char a = input.charAt(start + i);
+			char b = text.charAt(i);
+			if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the field contains the character.
+	 */
+	public boolean fieldContains(int field, char c){
+		checkField(field);
+		for (int i = starts[field]; i < ends[field]; i++) {
+			if (input.charAt(i) == c) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the field as a decimal int, straight from the input characters.
+	 * Leading and trailing spaces are ignored.
+	 * @throws TranslatorException if the field is not a valid int.
+	 */
+	public int fieldInt(int field) throws TranslatorException{
+		checkField(field);
+		int pos = starts[field];
+		int end = ends[field];
+		while (pos < end && input.charAt(pos) == ' ') {
+			pos++;
+		}
+		while (end > pos && input.charAt(end - 1) == ' ') {
+			end--;
+		}
+		boolean negative = pos < end && input.charAt(pos) == '-';
+		if (negative) {
+			pos++;
+		}
+		if (pos == end) {
+			throw new TranslatorException("Invalid ID: " + field(field));
+		}
+		//accumulate negatively, so Integer.MIN_VALUE does not overflow
+		int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		int multiplyLimit = limit / 10;
+		int result = 0;
+		for (; pos < end; pos++) {
+			int digit = input.charAt(pos) - '0';
+			if (digit < 0 || digit > 9 || result < multiplyLimit) {
+				throw new TranslatorException("Invalid ID: " + field(field));
+			}
+			result *= 10;
+			if (result < limit + digit) {
+				throw new TranslatorException("Invalid ID: " + field(field));
+			}
+			result -= digit;
+		}
+		return negative ? result : -result;
+	}
+
+	private boolean isQuoted(int field){
+		return starts[field] > 0 && input.charAt(starts[field] - 1) == '"';
+	}
+
+	private void checkField(int field){
+		if (field < 0 || field >= count) {
+			throw new IndexOutOfBoundsException("Field " + field + " of " + count);
+		}
+	}
+
+	private void grow(){
+		int size = starts.length * 2;
+		starts = Arrays.copyOf(starts, size);
+		ends = Arrays.copyOf(ends, size);
+		escaped = Arrays.copyOf(escaped, size);
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Immutable snapshot of the QueryCache metrics.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+
+public class CacheStats{
+	private final int size;
+	private final int maxSize;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long invalidations;
+
+	CacheStats(int size, int maxSize, long hits, long misses, long evictions, long invalidations){
+		this.size = size;
+		this.maxSize = maxSize;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.invalidations = invalidations;
+	}
+
+	/** @return number of results currently cached. */
+	public int getSize(){ return size; }
+
+	/** @return maximum number of results the cache keeps. */
+	public int getMaxSize(){ return maxSize; }
+
+	/** @return number of lookups answered from the cache. */
+	public long getHits(){ return hits; }
+
+	/** @return number of lookups that went to the database. */
+	public long getMisses(){ return misses; }
+
+	/** @return number of results dropped because the cache was full or they expired. */
+	public long getEvictions(){ return evictions; }
+
+	/** @return number of results dropped because a write made them stale. */
+	public long getInvalidations(){ return invalidations; }
+
+	/** @return hits / (hits + misses), 0 before the first lookup. */
+	public double getHitRate(){
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public String toString(){
+		return "size=" + size + "/" + maxSize + " hits=" + hits + " misses=" + misses
+				+ " evictions=" + evictions + " invalidations=" + invalidations;
+	}
+}
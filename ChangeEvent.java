@@ -0,0 +1,89 @@
+/**
+ * A committed write published on the ChangeFeed: a BOOK_TRIP, CANCEL_TRIP,
+ * ASSIGN_DRIVER or SIGN_UP.
+ *
+ * The payload is the booked Trip of a BOOK_TRIP and the new Customer of a
+ * SIGN_UP; a CANCEL_TRIP or ASSIGN_DRIVER only carries the TRIP_ID (and the
+ * DRIVER_ID assigned), which is what a driver app needs to fetch the trip.
+ * The ID is 0 when the database did not return the generated one, e.g. for
+ * a multi-row insert of executeBatch.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import common.*;
+
+public class ChangeEvent{
+	private final long sequence;
+	private final Command command;
+	private final int id;
+	private final int driverId;
+	private final Object payload;
+
+	private ChangeEvent(long sequence, Command command, int id, int driverId, Object payload){
+		this.sequence = sequence;
+		this.command = command;
+		this.id = id;
+		this.driverId = driverId;
+		this.payload = payload;
+	}
+
+	/**
+	 * @return true if the writes of the command are published.
+	 */
+	static boolean isPublished(Command command){
+		return command == Command.BOOK_TRIP || command == Command.CANCEL_TRIP || command == Command.ASSIGN_DRIVER
+				|| command == Command.SIGN_UP;
+	}
+
+	/**
+	 * Creates the event of a committed write.
+	 * @param sequence The position of the event in the feed.
+	 * @param query The executed write query.
+	 * @param generatedId The ID the database generated for an insert, 0 if not known.
+	 * @return the event, null for a command that is not published.
+	 */
+	static ChangeEvent of(long sequence, PreparedQuery query, int generatedId){
+		Command command = query.getCommand();
+		Object[] p = query.getParams();
+		if (command == Command.BOOK_TRIP) {
+			return new ChangeEvent(sequence, command, generatedId, 0, new Trip(generatedId, (Integer) p[0], 0,
+					(String) p[1], (String) p[2], (String) p[3], (String) p[4], (String) p[5], (String) p[6],
+					(String) p[7], (String) p[8], (String) p[9], (String) p[10]));
+		}
+		if (command == Command.SIGN_UP) {
+			//SIGN_UP lists county before city
+			return new ChangeEvent(sequence, command, generatedId, 0, new Customer(generatedId, (String) p[0],
+					(String) p[1], (String) p[2], (String) p[4], (String) p[3], (String) p[5], (String) p[6], (String) p[7]));
+		}
+		if (command == Command.CANCEL_TRIP) {
+			return new ChangeEvent(sequence, command, (Integer) p[0], 0, null);
+		}
+		if (command == Command.ASSIGN_DRIVER) {
+			return new ChangeEvent(sequence, command, (Integer) p[1], (Integer) p[0], null);
+		}
+		return null;
+	}
+
+	/** @return the position of the event in the feed, increasing by one per event. */
+	public long getSequence(){ return sequence; }
+
+	/** @return BOOK_TRIP, CANCEL_TRIP, ASSIGN_DRIVER or SIGN_UP. */
+	public Command getCommand(){ return command; }
+
+	/** @return the TRIP_ID, or the CUSTOMER_ID of a SIGN_UP; 0 if not known. */
+	public int getId(){ return id; }
+
+	/** @return the DRIVER_ID assigned by an ASSIGN_DRIVER, 0 for the other commands. */
+	public int getDriverId(){ return driverId; }
+
+	/** @return the Trip of a BOOK_TRIP, the Customer of a SIGN_UP, null for the other commands. */
+	public Object getPayload(){ return payload; }
+
+	@Override
+	public String toString(){
+		return sequence + ":" + command + "," + id + (driverId == 0 ? "" : "," + driverId);
+	}
+}
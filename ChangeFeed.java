@@ -0,0 +1,220 @@
+/**
+ * In-process feed of the writes committed through the SQLTranslator (BOOK_TRIP,
+ * CANCEL_TRIP, ASSIGN_DRIVER and SIGN_UP), so the server can push updates to
+ * the clients instead of having them poll, e.g. a driver's new assignments:
+ *
+ *   FeedSubscription subscription = SQLTranslator.getChangeFeed().subscribe();
+ *   List<ChangeEvent> events;
+ *   while ((events = subscription.poll(100, 5000)) != null) {
+ *       for (ChangeEvent event : events) {
+ *           if (event.getCommand() == Command.ASSIGN_DRIVER) { ...push to event.getDriverId()... }
+ *       }
+ *   }
+ *
+ * The events are held in a bounded ring buffer, every subscription reading it
+ * with a cursor of its own. When the slowest subscription is a whole ring
+ * behind, the writer publishing the next event waits for it, at most maxBlock
+ * milliseconds; after that the subscriptions still a whole ring behind are
+ * dropped (their poll returns null), so a stuck consumer cannot hold up the
+ * bookings. Nothing is kept while there are no subscriptions.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+public class ChangeFeed{
+	private final static Logger LOG = Logger.getLogger(ChangeFeed.class.getName());
+
+	private final ChangeEvent[] ring;
+	private final int mask;
+	private final long maxBlockNanos;
+	private final CopyOnWriteArrayList<FeedSubscription> subscriptions = new CopyOnWriteArrayList<FeedSubscription>();
+
+	//guards the ring, the sequence and the cursors
+	private final ReentrantLock lock = new ReentrantLock();
+	//signalled when an event is published, for the waiting subscriptions
+	private final Condition published = lock.newCondition();
+	//signalled when a subscription moves its cursor, for a waiting publisher
+	private final Condition consumed = lock.newCondition();
+	//sequence of the next event
+	private long nextSequence;
+
+	//metrics
+	private long publishedCount;
+	private long droppedCount;
+
+	/**
+	 * Creates a feed.
+	 * @param capacity Number of events held for the subscriptions, rounded up to a power of two.
+	 * @param maxBlockMillis How long a writer waits for a lagging subscription before dropping it.
+	 */
+	public ChangeFeed(int capacity, long maxBlockMillis){
+		if (capacity < 1 || capacity > 1 << 30 || maxBlockMillis < 0) {
+			throw new IllegalArgumentException("Invalid change feed: capacity=" + capacity + " maxBlock=" + maxBlockMillis);
+		}
+		int size = Integer.highestOneBit(capacity);
+		ring = new ChangeEvent[size < capacity ? size << 1 : size];
+		mask = ring.length - 1;
+		maxBlockNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockMillis);
+	}
+
+	/**
+	 * Subscribes to the events published from now on.
+	 * @return the subscription, to be closed when no longer read.
+	 */
+	public FeedSubscription subscribe(){
+		lock.lock();
+		try {
+			FeedSubscription subscription = new FeedSubscription(this, nextSequence);
+			subscriptions.add(subscription);
+			return subscription;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Publishes the event of a committed write, waiting for a lagging subscription if the ring is full.
+	 * @param query The executed write query.
+	 * @param generatedId The ID the database generated for an insert, 0 if not known.
+	 */
+	void publish(PreparedQuery query, int generatedId){
+		if (subscriptions.isEmpty() || !ChangeEvent.isPublished(query.getCommand())) {
+			return;
+		}
+		boolean interrupted = false;
+		lock.lock();
+		try {
+			long waitNanos = maxBlockNanos;
+			while (nextSequence - slowestCursor() >= ring.length) {
+				if (waitNanos <= 0 || interrupted) {
+					dropLagging();
+					break;
+				}
+				try {
+					waitNanos = consumed.awaitNanos(waitNanos);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			ring[(int) (nextSequence & mask)] = ChangeEvent.of(nextSequence, query, generatedId);
+			nextSequence++;
+			publishedCount++;
+			published.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads the next events of a subscription, waiting for one at most timeoutMillis.
+	 * @return the events, empty on timeout, null if the subscription is closed or dropped.
+	 */
+	List<ChangeEvent> poll(FeedSubscription subscription, int maxEvents, long timeoutMillis) throws InterruptedException{
+		lock.lock();
+		try {
+			long waitNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			while (subscription.cursor == nextSequence && !subscription.closed) {
+				if (waitNanos <= 0) {
+					return new ArrayList<ChangeEvent>(0);
+				}
+				waitNanos = published.awaitNanos(waitNanos);
+			}
+			if (subscription.closed) {
+				return null;
+			}
+			int count = (int) Math.min(maxEvents, nextSequence - subscription.cursor);
+			ArrayList<ChangeEvent> events = new ArrayList<ChangeEvent>(count);
+			for (int i = 0; i < count; i++) {
+				events.add(ring[(int) ((subscription.cursor + i) & mask)]);
+			}
+			subscription.cursor += count;
+			consumed.signalAll();
+			return events;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Ends a subscription, waking its waiting poll and a publisher waiting for it.
+	 */
+	void unsubscribe(FeedSubscription subscription){
+		lock.lock();
+		try {
+			subscription.closed = true;
+			subscriptions.remove(subscription);
+			published.signalAll();
+			consumed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of events the subscription has not read yet.
+	 */
+	long lag(FeedSubscription subscription){
+		lock.lock();
+		try {
+			return subscription.closed ? 0 : nextSequence - subscription.cursor;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private long slowestCursor(){
+		long slowest = nextSequence;
+		for (FeedSubscription subscription : subscriptions) {
+			slowest = Math.min(slowest, subscription.cursor);
+		}
+		return slowest;
+	}
+
+	private void dropLagging(){
+		for (FeedSubscription subscription : subscriptions) {
+			if (nextSequence - subscription.cursor >= ring.length) {
+				LOG.warning("Error: dropping a change feed subscription " + ring.length + " events behind");
+				subscription.closed = true;
+				subscriptions.remove(subscription);
+				droppedCount++;
+			}
+		}
+		published.signalAll();
+	}
+
+	/** @return the number of open subscriptions. */
+	public int getSubscriptionCount(){ return subscriptions.size(); }
+
+	/** @return the number of events published. */
+	public long getPublished(){
+		lock.lock();
+		try {
+			return publishedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return the number of subscriptions dropped for lagging a whole ring behind. */
+	public long getDropped(){
+		lock.lock();
+		try {
+			return droppedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
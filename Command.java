@@ -0,0 +1,203 @@
+/**
+ * The commands recognised by the SQLTranslator.
+ *
+ * The built-in commands are the constants below; more can be registered at
+ * startup through SQLTranslator.registerCommand. Every command has a
+ * CommandHandler translating its CSV into a PreparedQuery.
+ *
+ * The command verb is looked up straight from the characters of the CSV
+ * through a hash table of the verbs, so no upper-cased copy of the verb is
+ * created. The table is replaced as a whole when a command is registered,
+ * so lookups need no locking.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.Arrays;
+
+public final class Command{
+	//commands by the hash of their verb, open addressing with linear probing; size is a power of two
+	private static volatile Command[] table = new Command[32];
+	//every command, in the order they were created
+	private static volatile Command[] commands = new Command[0];
+
+	public final static Command LOGIN = new Command("LOGIN", true);
+	public final static Command BOOK_TRIP = new Command("BOOK_TRIP", true);
+	public final static Command VIEW_TRIP = new Command("VIEW_TRIP", true);
+	public final static Command CANCEL_TRIP = new Command("CANCEL_TRIP", true);
+	public final static Command ASSIGN_DRIVER = new Command("ASSIGN_DRIVER", true);
+	public final static Command SIGN_UP = new Command("SIGN_UP", true);
+	public final static Command AVAILABLE_DRIVERS = new Command("AVAILABLE_DRIVERS", true);
+	public final static Command GET_CARDS = new Command("GET_CARDS", true);
+	public final static Command AUTO_DISPATCH = new Command("AUTO_DISPATCH", true);
+
+	private final String name;
+	private final boolean builtIn;
+	//range of the number of arguments after the verb, and the handler translating them; set on registration
+	private volatile int minArity;
+	private volatile int maxArity;
+	private volatile CommandHandler handler;
+
+	private Command(String name, boolean builtIn){
+		this.name = name;
+		this.builtIn = builtIn;
+		add(this);
+	}
+
+	/**
+	 * Sets the handler of a command, creating the command if its verb is new.
+	 * Meant to be called at startup, before the command is executed.
+	 * @param name The verb, upper case letters, digits and underscores.
+	 * @param minArity The least number of arguments after the verb.
+	 * @param maxArity The most number of arguments after the verb.
+	 * @param handler Translates the command to a PreparedQuery.
+	 * @return the Command.
+	 */
+	static synchronized Command register(String name, int minArity, int maxArity, CommandHandler handler){
+		if (name == null || !name.matches("[A-Z][A-Z0-9_]*")) {
+			throw new IllegalArgumentException("Invalid command verb: " + name);
+		}
+		if (minArity < 0 || maxArity < minArity || handler == null) {
+			throw new IllegalArgumentException("Invalid handler of " + name);
+		}
+		Command command = lookup(name, 0, name.length());
+		if (command == null) {
+			command = new Command(name, false);
+		}
+		command.minArity = minArity;
+		command.maxArity = maxArity;
+		command.handler = handler;
+		return command;
+	}
+
+	/**
+	 * Finds the command named by a range of characters, ignoring case.
+	 * @param chars The characters holding the verb.
+	 * @param start Index of the first character of the verb.
+	 * @param end Index after the last character of the verb.
+	 * @return the Command, or null if the verb is not recognised.
+	 */
+	public static Command lookup(CharSequence chars, int start, int end){
+		if (end <= start) {
+			return null;
+		}
+		Command[] slots = table;
+		int mask = slots.length - 1;
+		for (int slot = hash(chars, start, end) & mask; ; slot = (slot + 1) & mask) {
+			Command candidate = slots[slot];
+			if (candidate == null) {
+				return null;
+			}
+			if (candidate.matches(chars, start, end)) {
+				return candidate;
+			}
+		}
+	}
+
+	/**
+	 * @return the command with the verb.
+	 * @throws IllegalArgumentException if no such command exists.
+	 */
+	public static Command valueOf(String name){
+		Command command = lookup(name, 0, name.length());
+		if (command == null) {
+			throw new IllegalArgumentException("No command " + name);
+		}
+		return command;
+	}
+
+	/**
+	 * @return every command, built-in ones first.
+	 */
+	public static Command[] values(){
+		Command[] all = commands;
+		return Arrays.copyOf(all, all.length);
+	}
+
+	/**
+	 * @return the verb of the command.
+	 */
+	public String name(){
+		return name;
+	}
+
+	/**
+	 * @return true for the commands the SQLTranslator has always recognised, false for registered ones.
+	 */
+	public boolean isBuiltIn(){
+		return builtIn;
+	}
+
+	/**
+	 * @return the least number of arguments after the verb.
+	 */
+	public int getMinArity(){
+		return minArity;
+	}
+
+	/**
+	 * @return the most number of arguments after the verb.
+	 */
+	public int getMaxArity(){
+		return maxArity;
+	}
+
+	/**
+	 * @return the handler of the command, or null if none has been registered.
+	 */
+	public CommandHandler getHandler(){
+		return handler;
+	}
+
+	@Override
+	public String toString(){
+		return name;
+	}
+
+	private static synchronized void add(Command command){
+		Command[] all = Arrays.copyOf(commands, commands.length + 1);
+		all[all.length - 1] = command;
+		//keep the table at most half full, so probe sequences stay short
+		int size = table.length;
+		while (all.length * 2 > size) {
+			size *= 2;
+		}
+		Command[] slots = new Command[size];
+		for (Command c : all) {
+			int slot = hash(c.name, 0, c.name.length()) & (size - 1);
+			while (slots[slot] != null) {
+				slot = (slot + 1) & (size - 1);
+			}
+			slots[slot] = c;
+		}
+		table = slots;
+		commands = all;
+	}
+
+	private boolean matches(CharSequence chars, int start, int end){
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (upper(chars.charAt(start + i)) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(CharSequence chars, int start, int end){
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + upper(chars.charAt(i));
+		}
+		//spread the high bits into the masked low bits
+		return h ^ (h >>> 16);
+	}
+
+	private static char upper(char c){
+		return (c >= 'a' && c <= 'z') ? (char) (c - ('a' - 'A')) : c;
+	}
+}
@@ -0,0 +1,26 @@
+/**
+ * Translates a command's CSV into the PreparedQuery executed for it.
+ *
+ * Registered with SQLTranslator.registerCommand. Most commands are a single
+ * SQL template whose parameters are the CSV fields in order; those are
+ * registered with SqlCommandHandler, this interface is for commands picking
+ * the template from the arguments.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import common.*;
+
+@FunctionalInterface
+public interface CommandHandler{
+	/**
+	 * Called once the number of fields has been checked against the arity of the command.
+	 * @param command The command being translated.
+	 * @param fields The fields of the CSV, field 0 being the verb.
+	 * @return PreparedQuery holding the SQL template and its parameters.
+	 * @throws TranslatorException if an argument is not valid.
+	 */
+	PreparedQuery translate(Command command, CSVTokenizer fields) throws TranslatorException;
+}
@@ -0,0 +1,115 @@
+/**
+ * Metrics of one command verb: latency histograms of every phase of execute
+ * and the number of calls, cache hits, errors and rows returned.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CommandMetrics{
+	/**
+	 * The phases of execute that are timed.
+	 */
+	public enum Phase{
+		//translating the CSV to a PreparedQuery
+		TRANSLATE,
+		//borrowing the connection from the pool
+		CONNECT,
+		//running the statement on the database
+		EXECUTE,
+		//mapping the rows to objects
+		MAP,
+		//the whole call
+		TOTAL
+	}
+
+	private final Command command;
+	private final EnumMap<Phase, Histogram> latencies = new EnumMap<Phase, Histogram>(Phase.class);
+	private final Histogram rowCounts = new Histogram();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	CommandMetrics(Command command){
+		this.command = command;
+		for (Phase phase : Phase.values()) {
+			latencies.put(phase, new Histogram());
+		}
+	}
+
+	/** @return the command these metrics belong to. */
+	public Command getCommand(){
+		return command;
+	}
+
+	/** @return the latency histogram of a phase. */
+	public Histogram getLatency(Phase phase){
+		return latencies.get(phase);
+	}
+
+	/** @return the histogram of the number of rows returned per call. */
+	public Histogram getRowCounts(){
+		return rowCounts;
+	}
+
+	/** @return number of calls completed, including cache hits. */
+	public long getCount(){
+		return latencies.get(Phase.TOTAL).getCount();
+	}
+
+	/** @return number of calls answered from memory (query cache or driver index). */
+	public long getCacheHits(){
+		return cacheHits.get();
+	}
+
+	/** @return number of calls given the result of an identical call in flight. */
+	public long getCoalesced(){
+		return coalesced.get();
+	}
+
+	/** @return number of calls that failed on the database. */
+	public long getErrors(){
+		return errors.get();
+	}
+
+	void record(long translateNanos, long connectNanos, long executeNanos, long mapNanos, long totalNanos, int rows){
+		latencies.get(Phase.TRANSLATE).record(translateNanos);
+		latencies.get(Phase.CONNECT).record(connectNanos);
+		latencies.get(Phase.EXECUTE).record(executeNanos);
+		latencies.get(Phase.MAP).record(mapNanos);
+		latencies.get(Phase.TOTAL).record(totalNanos);
+		rowCounts.record(rows);
+	}
+
+	void recordCacheHit(long translateNanos, long totalNanos, int rows){
+		cacheHits.incrementAndGet();
+		latencies.get(Phase.TRANSLATE).record(translateNanos);
+		latencies.get(Phase.TOTAL).record(totalNanos);
+		rowCounts.record(rows);
+	}
+
+	void recordCoalesced(long translateNanos, long totalNanos, int rows){
+		coalesced.incrementAndGet();
+		latencies.get(Phase.TRANSLATE).record(translateNanos);
+		latencies.get(Phase.TOTAL).record(totalNanos);
+		rowCounts.record(rows);
+	}
+
+	void recordError(){
+		errors.incrementAndGet();
+	}
+
+	void reset(){
+		for (Histogram histogram : latencies.values()) {
+			histogram.reset();
+		}
+		rowCounts.reset();
+		cacheHits.set(0);
+		coalesced.set(0);
+		errors.set(0);
+	}
+}
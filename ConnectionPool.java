@@ -0,0 +1,249 @@
+/**
+ * Bounded pool of JDBC connections used by the SQLTranslator, so the
+ * TCP/authentication handshake to the database is paid once per physical
+ * connection instead of once per command.
+ *
+ *  - keeps at least minSize connections open, never more than maxSize
+ *  - borrowers wait at most borrowTimeout for a free connection
+ *  - connections are validated when they are borrowed
+ *  - connections idle for longer than idleTimeout are closed (down to minSize)
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+public class ConnectionPool{
+	private final static Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+	//SQLState of a closed pool, which has no connection to give
+	private final static String CONNECTION_DOES_NOT_EXIST = "08003";
+	//seconds to wait for Connection.isValid() when validating on borrow
+	private final static int VALIDATION_TIMEOUT = 2;
+
+	private final String dataBase;
+	private final String userName;
+	private final String passWord;
+	private final int minSize;
+	private final int maxSize;
+	private final long borrowTimeoutMillis;
+	private final long idleTimeoutMillis;
+
+	//idle connections, most recently used first
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+	//one permit for every connection that may be handed out
+	private final Semaphore permits;
+	private final ScheduledExecutorService evictor;
+	private volatile boolean closed = false;
+
+	//metrics
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger open = new AtomicInteger();
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong borrowFailures = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * Creates a pool and opens its first minSize connections.
+	 * @param dataBase URL of the database to connect.
+	 * @param driver The database driver.
+	 * @param userName The username to connect to the database.
+	 * @param passWord The password to connect to the database.
+	 * @param minSize Number of connections kept open even when idle.
+	 * @param maxSize Maximum number of connections open at the same time.
+	 * @param borrowTimeoutMillis How long borrow() waits for a free connection.
+	 * @param idleTimeoutMillis How long a connection may stay idle before it is closed.
+	 */
+	public ConnectionPool(String dataBase, String driver, String userName, String passWord,
+			int minSize, int maxSize, long borrowTimeoutMillis, long idleTimeoutMillis){
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+		}
+		this.dataBase = dataBase;
+		this.userName = userName;
+		this.passWord = passWord;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.permits = new Semaphore(maxSize, true);
+
+		//Register jdbc driver, once for the whole pool
+		try {
+			Class.forName(driver);
+		} catch (ClassNotFoundException e) {
+			LOG.severe("Error: cannot load database driver : " + e.getMessage());
+		}
+
+		for (int i = 0; i < minSize; i++) {
+			try {
+				idle.offerFirst(openConnection());
+			} catch (SQLException e) {
+				LOG.warning("Error: cannot connect to database : " + e.getMessage());
+				break;
+			}
+		}
+
+		evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ConnectionPool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a validated connection, waiting at most the borrow timeout for one.
+	 * @return PooledConnection, to be given back with release().
+	 * @throws PoolTimeoutException if no connection became free within the borrow timeout.
+	 * @throws SQLException if the pool is closed or no valid connection can be opened.
+	 */
+	public PooledConnection borrow() throws SQLException{
+		long start = System.nanoTime();
+		try {
+			if (closed) {
+				throw new SQLException("Connection pool is closed", CONNECTION_DOES_NOT_EXIST);
+			}
+			if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new PoolTimeoutException("Timed out after " + borrowTimeoutMillis + "ms waiting for a database connection");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			borrowFailures.incrementAndGet();
+			throw new SQLException("Interrupted while waiting for a database connection", e);
+		} catch (SQLException e) {
+			borrowFailures.incrementAndGet();
+			throw e;
+		}
+
+		try {
+			PooledConnection pooled;
+			//validation on borrow: drop every idle connection the server has closed on us
+			while ((pooled = idle.pollFirst()) != null) {
+				if (isValid(pooled)) {
+					break;
+				}
+				discard(pooled);
+			}
+			if (pooled == null) {
+				pooled = openConnection();
+			}
+			active.incrementAndGet();
+			borrowCount.incrementAndGet();
+			recordWait(System.nanoTime() - start);
+			return pooled;
+		} catch (SQLException e) {
+			permits.release();
+			borrowFailures.incrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives a borrowed connection back to the pool.
+	 * @param pooled The connection returned by borrow().
+	 */
+	public void release(PooledConnection pooled){
+		if (pooled == null) {
+			return;
+		}
+		active.decrementAndGet();
+		try {
+			if (closed || pooled.isBroken()) {
+				discard(pooled);
+			} else {
+				pooled.touch();
+				idle.offerFirst(pooled);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Closes every idle connection and stops the pool from handing out new ones.
+	 * Borrowed connections are closed when they are released.
+	 */
+	public void close(){
+		closed = true;
+		evictor.shutdownNow();
+		PooledConnection pooled;
+		while ((pooled = idle.pollFirst()) != null) {
+			discard(pooled);
+		}
+	}
+
+	/**
+	 * @return snapshot of the pool metrics.
+	 */
+	public PoolStats getStats(){
+		long borrows = borrowCount.get();
+		return new PoolStats(active.get(), idle.size(), open.get(), maxSize, borrows, borrowFailures.get(),
+				borrows == 0 ? 0 : totalWaitNanos.get() / borrows, maxWaitNanos.get());
+	}
+
+	/**
+	 * @return the maximum number of connections the pool will open.
+	 */
+	public int getMaxSize(){
+		return maxSize;
+	}
+
+	private PooledConnection openConnection() throws SQLException{
+		Connection dbConnection = DriverManager.getConnection(dataBase, userName, passWord);
+		open.incrementAndGet();
+		return new PooledConnection(dbConnection);
+	}
+
+	private boolean isValid(PooledConnection pooled){
+		try {
+			return pooled.getConnection().isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void discard(PooledConnection pooled){
+		open.decrementAndGet();
+		pooled.closeQuietly();
+	}
+
+	/**
+	 * Closes connections that have been idle for longer than the idle timeout,
+	 * oldest first, keeping at least minSize connections open.
+	 */
+	private void evictIdle(){
+		long now = System.currentTimeMillis();
+		PooledConnection oldest;
+		while (open.get() > minSize && (oldest = idle.peekLast()) != null
+				&& now - oldest.getLastUsed() > idleTimeoutMillis) {
+			//removeLastOccurrence fails if a borrower took it in the meantime
+			if (idle.removeLastOccurrence(oldest)) {
+				discard(oldest);
+			}
+		}
+	}
+
+	private void recordWait(long waitNanos){
+		totalWaitNanos.addAndGet(waitNanos);
+		long max;
+		while (waitNanos > (max = maxWaitNanos.get())) {
+			if (maxWaitNanos.compareAndSet(max, waitNanos)) {
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ * Outcome of an AUTO_DISPATCH run: the drivers assigned to trips, and the
+ * trips no driver was free for.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DispatchResult{
+	private final Map<Integer, Integer> assignments;
+	private final List<Integer> unassigned;
+
+	DispatchResult(LinkedHashMap<Integer, Integer> assignments, List<Integer> unassigned){
+		this.assignments = Collections.unmodifiableMap(assignments);
+		this.unassigned = Collections.unmodifiableList(unassigned);
+	}
+
+	/** @return DRIVER_ID assigned by TRIP_ID, in trip date and time order. */
+	public Map<Integer, Integer> getAssignments(){ return assignments; }
+
+	/** @return TRIP_IDs of the trips left without a driver. */
+	public List<Integer> getUnassigned(){ return unassigned; }
+
+	@Override
+	public String toString(){
+		return "assigned=" + assignments + " unassigned=" + unassigned;
+	}
+}
@@ -0,0 +1,317 @@
+/**
+ * In-memory index of which driver is booked in which time slot (trip_date and
+ * trip_time), used to answer AVAILABLE_DRIVERS without scanning the trip table
+ * and to keep ASSIGN_DRIVER from double-booking a driver.
+ *
+ * A driver is claimed for a slot atomically (putIfAbsent on the slot's map), so of
+ * two dispatchers assigning the same driver to different trips of one slot only
+ * one wins. The assignment is then written with an optimistic guard on the
+ * trip's previous driver, so two dispatchers assigning the same trip cannot both
+ * succeed either.
+ *
+ * The index is loaded from the database and kept current by the commands
+ * going through the SQLTranslator.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+import common.*;
+
+public class DriverAvailability{
+	private final static Logger LOG = Logger.getLogger(DriverAvailability.class.getName());
+
+	private final static String LOAD_DRIVERS_SQL = "SELECT * FROM driver";
+	private final static String LOAD_TRIPS_SQL = "SELECT TRIP_ID, driver_id, trip_date, trip_time FROM trip";
+	private final static String LOAD_TRIP_SQL = "SELECT TRIP_ID, driver_id, trip_date, trip_time FROM trip WHERE TRIP_ID=?";
+	//the guard makes the update fail if someone else assigned the trip in the meantime
+	private final static String ASSIGN_UNASSIGNED_SQL = "UPDATE trip SET driver_id=? WHERE trip_id=? AND driver_id IS NULL";
+	private final static String REASSIGN_SQL = "UPDATE trip SET driver_id=? WHERE trip_id=? AND driver_id=?";
+
+	/**
+	 * The slot of a trip and its driver (0 if unassigned). Immutable, replaced on change.
+	 */
+	private static class TripSlot{
+		final String slot;
+		final int driverId;
+
+		TripSlot(String slot, int driverId){
+			this.slot = slot;
+			this.driverId = driverId;
+		}
+	}
+
+	//every driver, by DRIVER_ID
+	private final ConcurrentSkipListMap<Integer, Driver> drivers = new ConcurrentSkipListMap<Integer, Driver>();
+	//trips by TRIP_ID
+	private final ConcurrentHashMap<Integer, TripSlot> trips = new ConcurrentHashMap<Integer, TripSlot>();
+	//per slot: the trip every claimed driver is booked for, by DRIVER_ID
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Integer>> slots =
+			new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Integer>>();
+
+	/**
+	 * Loads every driver and trip from the database.
+	 * @param dbConnection Connection to read from.
+	 */
+	void load(PooledConnection dbConnection) throws SQLException{
+		PreparedStatement statement = dbConnection.prepare(LOAD_DRIVERS_SQL);
+		try (ResultSet rSet = statement.executeQuery()) {
+			RowMapper<Driver> mapper = RowMappers.forShape(Driver.class, rSet.getMetaData());
+			int id = rSet.findColumn("DRIVER_ID");
+			while (rSet.next()) {
+				drivers.put(rSet.getInt(id), mapper.mapRow(rSet));
+			}
+		}
+		statement = dbConnection.prepare(LOAD_TRIPS_SQL);
+		try (ResultSet rSet = statement.executeQuery()) {
+			while (rSet.next()) {
+				put(rSet.getInt(1), rSet.getInt(2), rSet.getString(3), rSet.getString(4));
+			}
+		}
+		LOG.info("Driver index loaded: " + drivers.size() + " drivers, " + trips.size() + " trips");
+	}
+
+	/**
+	 * @return the drivers without a trip in the slot, ordered by DRIVER_ID.
+	 */
+	public ArrayList<Driver> available(String tripDate, String tripTime){
+		Map<Integer, Integer> claimed = slots.get(slotOf(tripDate, tripTime));
+		ArrayList<Driver> available = new ArrayList<Driver>();
+		for (Map.Entry<Integer, Driver> driver : drivers.entrySet()) {
+			if (claimed == null || !claimed.containsKey(driver.getKey())) {
+				available.add(driver.getValue());
+			}
+		}
+		return available;
+	}
+
+	/**
+	 * @return true if the driver has no trip in the slot.
+	 */
+	public boolean isAvailable(int driverId, String tripDate, String tripTime){
+		Map<Integer, Integer> claimed = slots.get(slotOf(tripDate, tripTime));
+		return drivers.containsKey(driverId) && (claimed == null || !claimed.containsKey(driverId));
+	}
+
+	/**
+	 * Assigns a driver to a trip: claims the driver's slot in the index, then writes the
+	 * assignment with an optimistic guard on the trip's previous driver.
+	 * @param dbConnection Connection to write with.
+	 * @param tripId The trip to assign.
+	 * @param driverId The driver to assign.
+	 * @return true if the assignment was committed, false if the driver is busy in the
+	 *         trip's slot, the trip does not exist, or another dispatcher changed the trip first.
+	 */
+	boolean assign(PooledConnection dbConnection, int tripId, int driverId) throws SQLException{
+		TripSlot trip = trips.get(tripId);
+		if (trip == null) {
+			//booked outside the translator since the index was loaded
+			trip = reload(dbConnection, tripId);
+			if (trip == null) {
+				return false;
+			}
+		}
+		if (trip.driverId == driverId) {
+			return true;
+		}
+		if (!drivers.containsKey(driverId)) {
+			return false;
+		}
+		if (!claim(trip.slot, driverId, tripId)) {
+			LOG.info("Driver " + driverId + " is not available for trip " + tripId);
+			return false;
+		}
+		PreparedStatement statement;
+		if (trip.driverId == 0) {
+			statement = dbConnection.prepare(ASSIGN_UNASSIGNED_SQL);
+			statement.setInt(1, driverId);
+			statement.setInt(2, tripId);
+		} else {
+			statement = dbConnection.prepare(REASSIGN_SQL);
+			statement.setInt(1, driverId);
+			statement.setInt(2, tripId);
+			statement.setInt(3, trip.driverId);
+		}
+		boolean updated = false;
+		try {
+			updated = statement.executeUpdate() == 1;
+		} finally {
+			if (!updated) {
+				release(trip.slot, driverId, tripId);
+			}
+		}
+		if (!updated) {
+			//the index was stale: someone else assigned or cancelled the trip
+			reload(dbConnection, tripId);
+			return false;
+		}
+		if (!trips.replace(tripId, trip, new TripSlot(trip.slot, driverId))) {
+			//the trip changed in the index meanwhile, take the committed state from the database
+			release(trip.slot, driverId, tripId);
+			reload(dbConnection, tripId);
+		} else if (trip.driverId != 0) {
+			release(trip.slot, trip.driverId, tripId);
+		}
+		return true;
+	}
+
+	/**
+	 * Records a trip booked through the translator.
+	 */
+	void booked(int tripId, String tripDate, String tripTime){
+		put(tripId, 0, tripDate, tripTime);
+	}
+
+	/**
+	 * Records a cancelled trip, freeing its driver's slot.
+	 */
+	void cancelled(int tripId){
+		TripSlot trip = trips.remove(tripId);
+		if (trip != null && trip.driverId != 0) {
+			release(trip.slot, trip.driverId, tripId);
+		}
+	}
+
+	/**
+	 * Records an assignment written without the guard (e.g. by the write journal). If the
+	 * driver is booked for another trip of the slot, that claim is kept and the trip is
+	 * dropped from the index, to be reloaded from the database by its next assignment.
+	 */
+	void assigned(int tripId, int driverId){
+		TripSlot trip = trips.get(tripId);
+		if (trip == null || trip.driverId == driverId) {
+			return;
+		}
+		int holder = claimOrHolder(trip.slot, driverId, tripId);
+		if (holder != tripId) {
+			LOG.warning("Error: driver " + driverId + " assigned to trip " + tripId
+					+ " is already booked for trip " + holder + " in the same slot");
+			cancelled(tripId);
+			return;
+		}
+		if (!trips.replace(tripId, trip, new TripSlot(trip.slot, driverId))) {
+			//the trip changed in the index meanwhile, it is reloaded by its next assignment
+			release(trip.slot, driverId, tripId);
+			cancelled(tripId);
+		} else if (trip.driverId != 0) {
+			release(trip.slot, trip.driverId, tripId);
+		}
+	}
+
+	/**
+	 * Claims the driver's slot for a trip the AutoDispatcher is about to assign, recording
+	 * the trip if it was booked outside the translator. Once the assignment is committed
+	 * assigned() finds the claim held for the trip; if it is not, refused() or unreserve()
+	 * frees it.
+	 * @return true if the driver is free in the slot.
+	 */
+	boolean reserve(int tripId, int driverId, String tripDate, String tripTime){
+		if (!drivers.containsKey(driverId)) {
+			return false;
+		}
+		String slot = slotOf(tripDate, tripTime);
+		trips.putIfAbsent(tripId, new TripSlot(slot, 0));
+		return claim(slot, driverId, tripId);
+	}
+
+	/**
+	 * Frees the claim of reserve() for an assignment the database refused, and reloads
+	 * the trip, which someone else assigned or cancelled meanwhile.
+	 */
+	void refused(PooledConnection dbConnection, int tripId, int driverId, String tripDate, String tripTime)
+			throws SQLException{
+		release(slotOf(tripDate, tripTime), driverId, tripId);
+		reload(dbConnection, tripId);
+	}
+
+	/**
+	 * Frees the claim of reserve() for an assignment that was rolled back.
+	 */
+	void unreserve(int tripId, int driverId, String tripDate, String tripTime){
+		release(slotOf(tripDate, tripTime), driverId, tripId);
+	}
+
+	private TripSlot reload(PooledConnection dbConnection, int tripId) throws SQLException{
+		PreparedStatement statement = dbConnection.prepare(LOAD_TRIP_SQL);
+		statement.setInt(1, tripId);
+		try (ResultSet rSet = statement.executeQuery()) {
+			if (!rSet.next()) {
+				cancelled(tripId);
+				return null;
+			}
+			cancelled(tripId);
+			return put(tripId, rSet.getInt(2), rSet.getString(3), rSet.getString(4));
+		}
+	}
+
+	private TripSlot put(int tripId, int driverId, String tripDate, String tripTime){
+		TripSlot trip = new TripSlot(slotOf(tripDate, tripTime), driverId);
+		trips.put(tripId, trip);
+		if (driverId != 0) {
+			//a driver double-booked in the database keeps the claim of the trip read first
+			slots.computeIfAbsent(trip.slot, key -> new ConcurrentHashMap<Integer, Integer>()).putIfAbsent(driverId, tripId);
+		}
+		return trip;
+	}
+
+	/**
+	 * Claims the driver for the slot. Runs under the lock of the slot's hash bin, so
+	 * it cannot interleave with a release emptying and dropping the slot's map.
+	 * @return true if the driver was free in the slot.
+	 */
+	private boolean claim(String slot, int driverId, int tripId){
+		boolean[] claimed = { false };
+		slots.compute(slot, (key, claims) -> {
+			if (claims == null) {
+				claims = new ConcurrentHashMap<Integer, Integer>();
+			}
+			claimed[0] = claims.putIfAbsent(driverId, tripId) == null;
+			return claims;
+		});
+		return claimed[0];
+	}
+
+	/**
+	 * Claims the driver for the slot like claim(), for an assignment already written.
+	 * @return the trip the driver is booked for in the slot: tripId if the claim is held
+	 *         for it now, or the other trip holding it.
+	 */
+	private int claimOrHolder(String slot, int driverId, int tripId){
+		int[] holder = { tripId };
+		slots.compute(slot, (key, claims) -> {
+			if (claims == null) {
+				claims = new ConcurrentHashMap<Integer, Integer>();
+			}
+			Integer held = claims.putIfAbsent(driverId, tripId);
+			if (held != null) {
+				holder[0] = held;
+			}
+			return claims;
+		});
+		return holder[0];
+	}
+
+	/**
+	 * Frees the driver's claim on the slot if it is held for the trip, dropping empty slots.
+	 */
+	private void release(String slot, int driverId, int tripId){
+		slots.computeIfPresent(slot, (key, claims) -> {
+			claims.remove(driverId, tripId);
+			return claims.isEmpty() ? null : claims;
+		});
+	}
+
+	private static String slotOf(String tripDate, String tripTime){
+		return tripDate + '|' + tripTime;
+	}
+}
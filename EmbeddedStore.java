@@ -0,0 +1,780 @@
+/**
+ * In-process data store answering the commands of the SQLTranslator from memory,
+ * with no round trip to the database, for edge depots and load tests
+ * (see SQLTranslator.setEmbeddedStore).
+ *
+ * The trip, driver, customer, card_info, company_staff and password tables are
+ * held in hash maps by their ID, with secondary indexes on the trips' cust_id,
+ * driver_id and (trip_date, trip_time). The trips of a customer or a driver are
+ * kept in trip_date, TRIP_ID order, so a VIEW_TRIP page is read straight off
+ * the index, starting after the key of its continuation token.
+ *
+ * The changes of a command are staged as records (length, CRC32, payload)
+ * and appended to a write-ahead log on local disk in one write; they are
+ * applied to the tables only once the write has succeeded, and a failed
+ * write is cut off the log again. The log is replayed when the store is
+ * opened; a record torn by a crash, failing its CRC or malformed ends the
+ * log, which is truncated there. compact() rewrites the log with one record
+ * per row.
+ *
+ * The built-in commands are answered; the commands registered with a SQL
+ * template of their own fail, as there is no SQL engine behind the store.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import common.*;
+
+public class EmbeddedStore{
+	private final static Logger LOG = Logger.getLogger(EmbeddedStore.class.getName());
+
+	//the first bytes of a log
+	private final static int MAGIC = 0x45535432;
+	//record: payload length, CRC32 of the payload, then the payload
+	private final static int RECORD_HEADER = 8;
+	//types of the log records, one per row written or changed
+	private final static byte TRIP = 1;
+	private final static byte TRIP_CANCELLED = 2;
+	private final static byte TRIP_ASSIGNED = 3;
+	private final static byte CUSTOMER = 4;
+	private final static byte DRIVER = 5;
+	private final static byte CARD = 6;
+	private final static byte STAFF = 7;
+	private final static byte PASSWORD = 8;
+	//per record type: the number of fields, and of the leading int columns among them
+	private final static int[][] RECORD_SHAPES = { null, { 13, 3 }, { 1, 1 }, { 2, 2 }, { 9, 1 }, { 5, 1 }, { 5, 2 },
+			{ 3, 1 }, { 2, 1 } };
+	//tags of the fields of a record
+	private final static byte NULL_FIELD = 0;
+	private final static byte INT_FIELD = 1;
+	private final static byte STRING_FIELD = 2;
+	//a longer record length can only be a torn write
+	private final static int MAX_RECORD = 1 << 20;
+	//first IDs generated, as the AUTO_INCREMENT columns of the tables
+	private final static int FIRST_TRIP_ID = 1;
+	private final static int FIRST_CUSTOMER_ID = 1000;
+
+	//the columns of every table, in the order of their records' fields; the leading ints are the int columns
+	private final static String[] TRIP_COLUMNS = { "TRIP_ID", "cust_id", "driver_id", "from_address", "from_city",
+			"from_county", "from_postcode", "to_address", "to_city", "to_county", "to_postcode", "trip_date", "trip_time" };
+	private final static String[] CUSTOMER_COLUMNS = { "CUSTOMER_ID", "first_name", "last_name", "address", "city",
+			"county", "postcode", "email", "phone_number" };
+	private final static String[] DRIVER_COLUMNS = { "DRIVER_ID", "first_name", "last_name", "licence_plate", "phone_no" };
+	private final static String[] CARD_COLUMNS = { "cust_id", "cust_no", "CARD_NO", "start_date", "exp_date" };
+	private final static String[] STAFF_COLUMNS = { "STAFF_ID", "first_name", "last_name" };
+	private final static String[] PASSWORD_COLUMNS = { "ID", "pw" };
+
+	//trips of a customer or driver in the order of VIEW_TRIP
+	private final static Comparator<TripRow> BY_DATE = Comparator
+			.comparing((TripRow row) -> row.tripDate, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+			.thenComparingInt(row -> row.tripId);
+
+	/**
+	 * A change staged by a command, applied to the tables once its record is in the log.
+	 */
+	private static class Change{
+		final byte type;
+		final Object[] fields;
+
+		Change(byte type, Object[] fields){
+			this.type = type;
+			this.fields = fields;
+		}
+	}
+
+	/**
+	 * A row of the trip table and its Trip. Immutable, replaced when the trip is assigned.
+	 */
+	private static class TripRow{
+		final int tripId;
+		final int custId;
+		final int driverId;
+		final String tripDate;
+		final String tripTime;
+		final Object[] fields;
+		final Trip trip;
+
+		TripRow(Object[] fields){
+			this.fields = fields;
+			tripId = (Integer) fields[0];
+			custId = (Integer) fields[1];
+			driverId = fields[2] == null ? 0 : (Integer) fields[2];
+			tripDate = (String) fields[11];
+			tripTime = (String) fields[12];
+			trip = new Trip(tripId, custId, driverId, (String) fields[3], (String) fields[4], (String) fields[5],
+					(String) fields[6], (String) fields[7], (String) fields[8], (String) fields[9], (String) fields[10],
+					tripDate, tripTime);
+		}
+
+		//the key of a position in the BY_DATE order
+		TripRow(String tripDate, int tripId){
+			this.tripId = tripId;
+			this.tripDate = tripDate;
+			custId = 0;
+			driverId = 0;
+			tripTime = null;
+			fields = null;
+			trip = null;
+		}
+	}
+
+	//trips by TRIP_ID, and their secondary indexes
+	private final HashMap<Integer, TripRow> trips = new HashMap<Integer, TripRow>();
+	private final HashMap<Integer, TreeSet<TripRow>> tripsByCustomer = new HashMap<Integer, TreeSet<TripRow>>();
+	//by driver_id, the unassigned trips under 0
+	private final HashMap<Integer, TreeSet<TripRow>> tripsByDriver = new HashMap<Integer, TreeSet<TripRow>>();
+	//by trip_date|trip_time
+	private final TreeMap<String, HashSet<TripRow>> tripsBySlot = new TreeMap<String, HashSet<TripRow>>();
+	private final HashMap<Integer, Object[]> customerRows = new HashMap<Integer, Object[]>();
+	private final HashMap<Integer, Customer> customers = new HashMap<Integer, Customer>();
+	//CUSTOMER_ID by lower-case email
+	private final HashMap<String, Integer> customersByEmail = new HashMap<String, Integer>();
+	private final TreeMap<Integer, Object[]> driverRows = new TreeMap<Integer, Object[]>();
+	private final TreeMap<Integer, Driver> drivers = new TreeMap<Integer, Driver>();
+	private final ArrayList<Object[]> cardRows = new ArrayList<Object[]>();
+	//cards by the cust_id GET_CARDS filters on
+	private final HashMap<Integer, ArrayList<CreditCard>> cardsByCustomer = new HashMap<Integer, ArrayList<CreditCard>>();
+	private final HashMap<Integer, Object[]> staffRows = new HashMap<Integer, Object[]>();
+	private final HashMap<Integer, Staff> staff = new HashMap<Integer, Staff>();
+	private final HashMap<Integer, String> passwords = new HashMap<Integer, String>();
+	private int nextTripId = FIRST_TRIP_ID;
+	private int nextCustomerId = FIRST_CUSTOMER_ID;
+
+	//readers share the tables, a writer logs and applies its change alone
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Path logFile;
+	private final boolean syncEveryWrite;
+	private FileChannel logChannel;
+	//the end of the last record written to the log
+	private long logEnd;
+	//set when a failed write could not be cut off the log, which must not be appended to then
+	private boolean logBroken;
+	//the record being written, reused under the write lock
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	//the records and changes of the command being executed, until commit()
+	private final ByteArrayOutputStream staged = new ByteArrayOutputStream(256);
+	private final DataOutputStream stagedOut = new DataOutputStream(staged);
+	private final ArrayList<Change> changes = new ArrayList<Change>();
+
+	/**
+	 * Opens a store, replaying its write-ahead log.
+	 * @param logFile The write-ahead log, created if it does not exist.
+	 * @param syncEveryWrite true to fsync the log before a write command returns, false to
+	 *        leave it in the OS page cache (a crash of the machine may lose the last writes).
+	 * @throws IOException if the log cannot be read or opened for writing.
+	 */
+	public EmbeddedStore(Path logFile, boolean syncEveryWrite) throws IOException{
+		this.logFile = logFile;
+		this.syncEveryWrite = syncEveryWrite;
+		openLog();
+		LOG.info("Embedded store opened: " + trips.size() + " trips, " + customers.size() + " customers, "
+				+ drivers.size() + " drivers");
+	}
+
+	/**
+	 * Copies every row of the six tables from a database into the store, e.g. to seed an edge depot.
+	 * @param dbConnection Connection to read from.
+	 * @throws SQLException if a table cannot be read or the log cannot be written.
+	 */
+	public void importFrom(PooledConnection dbConnection) throws SQLException{
+		lock.writeLock().lock();
+		try {
+			importTable(dbConnection, "trip", TRIP, TRIP_COLUMNS, 3);
+			importTable(dbConnection, "customer", CUSTOMER, CUSTOMER_COLUMNS, 1);
+			importTable(dbConnection, "driver", DRIVER, DRIVER_COLUMNS, 1);
+			importTable(dbConnection, "card_info", CARD, CARD_COLUMNS, 2);
+			importTable(dbConnection, "company_staff", STAFF, STAFF_COLUMNS, 1);
+			importTable(dbConnection, "password", PASSWORD, PASSWORD_COLUMNS, 1);
+			commit();
+		} finally {
+			discard();
+			lock.writeLock().unlock();
+		}
+		LOG.info("Embedded store imported: " + trips.size() + " trips, " + customers.size() + " customers, "
+				+ drivers.size() + " drivers");
+	}
+
+	/**
+	 * Executes a translated command.
+	 * @param query The command, translated by the SQLTranslator.
+	 * @return the result, as execute returns it from the database.
+	 * @throws SQLException if the command is not a built-in one or the log cannot be written.
+	 */
+	ArrayList execute(PreparedQuery query) throws SQLException{
+		Command command = query.getCommand();
+		Object[] params = query.getParams();
+		if (!query.isQuery()) {
+			executeWrite(query);
+			return new ArrayList();
+		}
+		if (command == Command.AUTO_DISPATCH) {
+			lock.writeLock().lock();
+			try {
+				ArrayList<DispatchResult> result = new ArrayList<DispatchResult>(1);
+				result.add(dispatch((String) params[0], (String) params[1]));
+				return result;
+			} finally {
+				discard();
+				lock.writeLock().unlock();
+			}
+		}
+		lock.readLock().lock();
+		try {
+			if (command == Command.VIEW_TRIP) {
+				return viewTrip(query);
+			}
+			if (command == Command.GET_CARDS) {
+				ArrayList<CreditCard> cards = cardsByCustomer.get(params[0]);
+				return cards == null ? new ArrayList<CreditCard>() : new ArrayList<CreditCard>(cards);
+			}
+			if (command == Command.AVAILABLE_DRIVERS) {
+				HashSet<TripRow> slot = tripsBySlot.get(slotOf((String) params[0], (String) params[1]));
+				HashSet<Integer> busy = new HashSet<Integer>();
+				if (slot != null) {
+					for (TripRow row : slot) {
+						busy.add(row.driverId);
+					}
+				}
+				ArrayList<Driver> available = new ArrayList<Driver>();
+				for (Map.Entry<Integer, Driver> driver : drivers.entrySet()) {
+					if (!busy.contains(driver.getKey())) {
+						available.add(driver.getValue());
+					}
+				}
+				return available;
+			}
+			if (command == Command.LOGIN) {
+				return login(query);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		throw new SQLException("Not supported by the embedded store : " + command);
+	}
+
+	/**
+	 * Executes a translated BOOK_TRIP, CANCEL_TRIP, ASSIGN_DRIVER or SIGN_UP.
+	 * @param query The command, translated by the SQLTranslator.
+	 * @return the TRIP_ID of a BOOK_TRIP or the CUSTOMER_ID of a SIGN_UP, 0 for the other commands.
+	 * @throws SQLException if the command is not one of these or the log cannot be written.
+	 */
+	int executeWrite(PreparedQuery query) throws SQLException{
+		Command command = query.getCommand();
+		Object[] params = query.getParams();
+		lock.writeLock().lock();
+		try {
+			int generatedId = 0;
+			if (command == Command.BOOK_TRIP) {
+				Object[] fields = new Object[TRIP_COLUMNS.length];
+				fields[0] = generatedId = nextTripId;
+				fields[1] = params[0];
+				System.arraycopy(params, 1, fields, 3, 10);
+				write(TRIP, fields);
+			} else if (command == Command.CANCEL_TRIP) {
+				if (trips.containsKey(params[0])) {
+					write(TRIP_CANCELLED, params[0]);
+				}
+			} else if (command == Command.ASSIGN_DRIVER) {
+				if (trips.containsKey(params[1])) {
+					write(TRIP_ASSIGNED, params[1], params[0]);
+				}
+			} else if (command == Command.SIGN_UP) {
+				//SIGN_UP lists county before city
+				generatedId = nextCustomerId;
+				write(CUSTOMER, generatedId, params[0], params[1], params[2], params[4], params[3], params[5],
+						params[6], params[7]);
+			} else {
+				throw new SQLException("Not supported by the embedded store : " + command);
+			}
+			commit();
+			return generatedId;
+		} finally {
+			discard();
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Rewrites the log with one record per row, dropping the records of cancelled
+	 * trips and earlier assignments. Writers wait while the log is rewritten.
+	 * @throws IOException if the new log cannot be written; the old one is then kept.
+	 */
+	public void compact() throws IOException{
+		lock.writeLock().lock();
+		try {
+			Path compacted = logFile.resolveSibling(logFile.getFileName() + ".compact");
+			try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+				out.writeInt(MAGIC);
+				for (TripRow row : trips.values()) {
+					writeRecord(out, TRIP, row.fields);
+				}
+				for (Object[] fields : customerRows.values()) {
+					writeRecord(out, CUSTOMER, fields);
+				}
+				for (Object[] fields : driverRows.values()) {
+					writeRecord(out, DRIVER, fields);
+				}
+				for (Object[] fields : cardRows) {
+					writeRecord(out, CARD, fields);
+				}
+				for (Object[] fields : staffRows.values()) {
+					writeRecord(out, STAFF, fields);
+				}
+				for (Map.Entry<Integer, String> password : passwords.entrySet()) {
+					writeRecord(out, PASSWORD, password.getKey(), password.getValue());
+				}
+				out.flush();
+				channel.force(false);
+			}
+			Files.move(compacted, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			logChannel.close();
+			logChannel = FileChannel.open(logFile, StandardOpenOption.WRITE);
+			logEnd = logChannel.size();
+			logBroken = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Closes the log. The store must not be used afterwards.
+	 */
+	public void close(){
+		lock.writeLock().lock();
+		try {
+			logChannel.close();
+		} catch (IOException e) {
+			LOG.warning("Error: cannot close the embedded store's log : " + e.getMessage());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of trips in the store.
+	 */
+	public int getTripCount(){
+		lock.readLock().lock();
+		try {
+			return trips.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Replays the log, truncating it at the first record that is torn, fails its CRC
+	 * or is malformed, and opens it for appending.
+	 */
+	private void openLog() throws IOException{
+		logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (logChannel.size() < 4) {
+			//new, or torn before its first record
+			logChannel.truncate(0);
+			logChannel.write(ByteBuffer.allocate(4).putInt(0, MAGIC), 0);
+			logChannel.force(false);
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(logChannel.position(0))));
+		if (in.readInt() != MAGIC) {
+			logChannel.close();
+			throw new IOException("Not an embedded store log : " + logFile);
+		}
+		long valid = 4;
+		int records = 0;
+		byte[] payload = new byte[256];
+		CRC32 crc = new CRC32();
+		while (true) {
+			try {
+				int length = in.readInt();
+				int checksum = in.readInt();
+				if (length <= 0 || length > MAX_RECORD) {
+					break;
+				}
+				if (length > payload.length) {
+					payload = new byte[length];
+				}
+				in.readFully(payload, 0, length);
+				crc.reset();
+				crc.update(payload, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				Change change = decode(payload, length);
+				apply(change.type, change.fields);
+				valid += RECORD_HEADER + length;
+				records++;
+			} catch (IOException e) {
+				//the end of the file, or of the records that can be read
+				break;
+			}
+		}
+		if (valid < logChannel.size()) {
+			LOG.warning("Error: dropping a torn record at the end of the log : " + (logChannel.size() - valid) + " bytes");
+			logChannel.truncate(valid);
+			logChannel.force(false);
+		}
+		logEnd = valid;
+		LOG.info("Replayed " + records + " log records");
+	}
+
+	/**
+	 * Reads the payload of a record, checking its type and fields against the shape of its table.
+	 * @throws IOException if the record is malformed.
+	 */
+	private static Change decode(byte[] payload, int length) throws IOException{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+		byte type = in.readByte();
+		if (type < TRIP || type > PASSWORD || in.readShort() != RECORD_SHAPES[type][0]) {
+			throw new IOException("Malformed log record of type " + type);
+		}
+		Object[] fields = new Object[RECORD_SHAPES[type][0]];
+		for (int i = 0; i < fields.length; i++) {
+			byte tag = in.readByte();
+			if (tag == INT_FIELD) {
+				fields[i] = in.readInt();
+			} else if (tag == STRING_FIELD) {
+				fields[i] = in.readUTF();
+			} else if (tag != NULL_FIELD) {
+				throw new IOException("Malformed log record field of type " + tag);
+			}
+			//the int columns are set, but for the driver_id of an unassigned trip; the others are strings
+			boolean intColumn = i < RECORD_SHAPES[type][1];
+			boolean optional = type == TRIP && i == 2;
+			if (intColumn ? !(fields[i] instanceof Integer) && !(optional && fields[i] == null)
+					: fields[i] instanceof Integer) {
+				throw new IOException("Malformed log record field " + i + " of type " + type);
+			}
+		}
+		if (in.available() > 0) {
+			throw new IOException("Malformed log record of type " + type);
+		}
+		return new Change(type, fields);
+	}
+
+	private void importTable(PooledConnection dbConnection, String table, byte type, String[] columns, int intColumns)
+			throws SQLException{
+		PreparedStatement statement = dbConnection.prepare("SELECT * FROM " + table);
+		try (ResultSet rSet = statement.executeQuery()) {
+			int[] c = RowMappers.indexes(rSet.getMetaData(), columns);
+			while (rSet.next()) {
+				Object[] fields = new Object[columns.length];
+				for (int i = 0; i < fields.length; i++) {
+					fields[i] = i < intColumns ? (Object) rSet.getInt(c[i]) : rSet.getString(c[i]);
+				}
+				write(type, fields);
+			}
+		}
+	}
+
+	/**
+	 * Stages a change, under the write lock. commit() logs and applies it.
+	 */
+	private void write(byte type, Object... fields) throws SQLException{
+		try {
+			writeRecord(stagedOut, type, fields);
+			changes.add(new Change(type, fields));
+		} catch (IOException e) {
+			throw new SQLException("Cannot stage the embedded store's log record : " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Appends the staged records to the log in one write, then applies their changes to the tables.
+	 * A failed write is cut off the log, and the tables are left as they were.
+	 */
+	private void commit() throws SQLException{
+		if (logBroken) {
+			throw new SQLException("The embedded store's log is broken, the store must be opened again");
+		}
+		ByteBuffer bytes = ByteBuffer.wrap(staged.toByteArray());
+		try {
+			long position = logEnd;
+			while (bytes.hasRemaining()) {
+				position += logChannel.write(bytes, position);
+			}
+			if (syncEveryWrite) {
+				logChannel.force(false);
+			}
+		} catch (IOException e) {
+			try {
+				logChannel.truncate(logEnd);
+			} catch (IOException te) {
+				logBroken = true;
+			}
+			throw new SQLException("Cannot write the embedded store's log : " + e.getMessage(), e);
+		}
+		logEnd += bytes.limit();
+		for (Change change : changes) {
+			apply(change.type, change.fields);
+		}
+	}
+
+	/**
+	 * Drops the changes staged and not committed, e.g. by a command that failed.
+	 */
+	private void discard(){
+		staged.reset();
+		changes.clear();
+	}
+
+	/**
+	 * Writes a record: its length, the CRC32 of its payload and the payload.
+	 */
+	private void writeRecord(DataOutputStream out, byte type, Object... fields) throws IOException{
+		record.reset();
+		recordOut.writeByte(type);
+		recordOut.writeShort(fields.length);
+		for (Object field : fields) {
+			if (field instanceof Integer) {
+				recordOut.writeByte(INT_FIELD);
+				recordOut.writeInt((Integer) field);
+			} else if (field != null) {
+				recordOut.writeByte(STRING_FIELD);
+				recordOut.writeUTF((String) field);
+			} else {
+				recordOut.writeByte(NULL_FIELD);
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(record.toByteArray());
+		out.writeInt(record.size());
+		out.writeInt((int) crc.getValue());
+		record.writeTo(out);
+	}
+
+	/**
+	 * Applies a change to the tables and indexes, on commit and on replay.
+	 */
+	private void apply(byte type, Object[] fields){
+		if (type == TRIP) {
+			TripRow row = new TripRow(fields);
+			index(row);
+			nextTripId = Math.max(nextTripId, row.tripId + 1);
+		} else if (type == TRIP_CANCELLED) {
+			TripRow row = trips.get(fields[0]);
+			if (row != null) {
+				unindex(row);
+			}
+		} else if (type == TRIP_ASSIGNED) {
+			TripRow row = trips.get(fields[0]);
+			if (row != null) {
+				unindex(row);
+				Object[] assigned = row.fields.clone();
+				assigned[2] = fields[1];
+				index(new TripRow(assigned));
+			}
+		} else if (type == CUSTOMER) {
+			int id = (Integer) fields[0];
+			Object[] previous = customerRows.put(id, fields);
+			if (previous != null && previous[7] != null) {
+				customersByEmail.remove(((String) previous[7]).toLowerCase());
+			}
+			customers.put(id, new Customer(id, (String) fields[1], (String) fields[2], (String) fields[3],
+					(String) fields[4], (String) fields[5], (String) fields[6], (String) fields[7], (String) fields[8]));
+			if (fields[7] != null) {
+				customersByEmail.put(((String) fields[7]).toLowerCase(), id);
+			}
+			nextCustomerId = Math.max(nextCustomerId, id + 1);
+		} else if (type == DRIVER) {
+			int id = (Integer) fields[0];
+			driverRows.put(id, fields);
+			drivers.put(id, new Driver(id, (String) fields[1], (String) fields[2], (String) fields[3], (String) fields[4]));
+		} else if (type == CARD) {
+			cardRows.add(fields);
+			ArrayList<CreditCard> cards = cardsByCustomer.get(fields[0]);
+			if (cards == null) {
+				cards = new ArrayList<CreditCard>(1);
+				cardsByCustomer.put((Integer) fields[0], cards);
+			}
+			cards.add(new CreditCard((Integer) fields[1], (String) fields[2], (String) fields[3], (String) fields[4]));
+		} else if (type == STAFF) {
+			int id = (Integer) fields[0];
+			staffRows.put(id, fields);
+			staff.put(id, new Staff(id, (String) fields[1], (String) fields[2]));
+		} else if (type == PASSWORD) {
+			passwords.put((Integer) fields[0], (String) fields[1]);
+		}
+	}
+
+	private void index(TripRow row){
+		trips.put(row.tripId, row);
+		tripsByCustomer.computeIfAbsent(row.custId, id -> new TreeSet<TripRow>(BY_DATE)).add(row);
+		tripsByDriver.computeIfAbsent(row.driverId, id -> new TreeSet<TripRow>(BY_DATE)).add(row);
+		tripsBySlot.computeIfAbsent(slotOf(row.tripDate, row.tripTime), slot -> new HashSet<TripRow>()).add(row);
+	}
+
+	private void unindex(TripRow row){
+		trips.remove(row.tripId);
+		remove(tripsByCustomer, row.custId, row);
+		remove(tripsByDriver, row.driverId, row);
+		String slot = slotOf(row.tripDate, row.tripTime);
+		HashSet<TripRow> slotRows = tripsBySlot.get(slot);
+		if (slotRows != null && slotRows.remove(row) && slotRows.isEmpty()) {
+			tripsBySlot.remove(slot);
+		}
+	}
+
+	private static void remove(HashMap<Integer, TreeSet<TripRow>> index, int id, TripRow row){
+		TreeSet<TripRow> rows = index.get(id);
+		if (rows != null && rows.remove(row) && rows.isEmpty()) {
+			index.remove(id);
+		}
+	}
+
+	/**
+	 * Reads VIEW_TRIP off the index of the customer, driver or the unassigned trips, a page if it has a page size.
+	 */
+	private ArrayList<Trip> viewTrip(PreparedQuery query){
+		Object[] params = query.getParams();
+		int filter = ViewTripHandler.filterOf(query);
+		int conditions = ViewTripHandler.conditionsOf(query);
+		int n = 0;
+		NavigableSet<TripRow> rows;
+		if (filter == ViewTripHandler.UNASSIGNED) {
+			rows = tripsByDriver.get(0);
+		} else {
+			rows = (filter == ViewTripHandler.CUSTOMER ? tripsByCustomer : tripsByDriver).get(params[n++]);
+		}
+		String fromDate = (conditions & ViewTripHandler.FROM_DATE) != 0 ? (String) params[n++] : null;
+		String toDate = (conditions & ViewTripHandler.TO_DATE) != 0 ? (String) params[n++] : null;
+		if (rows == null) {
+			rows = Collections.emptyNavigableSet();
+		}
+		//the keyset condition is a position in the index, like in the database's
+		if ((conditions & ViewTripHandler.CURSOR) != 0) {
+			rows = rows.tailSet(new TripRow((String) params[n], (Integer) params[n + 2]), false);
+			n += 3;
+		} else if (fromDate != null) {
+			rows = rows.tailSet(new TripRow(fromDate, Integer.MIN_VALUE), true);
+		}
+		boolean paged = (conditions & ViewTripHandler.PAGED) != 0;
+		int pageSize = paged ? (Integer) params[n] : Integer.MAX_VALUE;
+		ArrayList<Trip> page = paged ? new TripPage(Math.min(pageSize, 16)) : new ArrayList<Trip>();
+		TripRow last = null;
+		for (TripRow row : rows) {
+			if (page.size() >= pageSize) {
+				break;
+			}
+			//no trip_date compares true in SQL when there is a date condition
+			if (row.tripDate == null && (conditions & ~ViewTripHandler.PAGED) != 0) {
+				continue;
+			}
+			if (fromDate != null && row.tripDate.compareTo(fromDate) < 0) {
+				continue;
+			}
+			if (toDate != null && row.tripDate.compareTo(toDate) > 0) {
+				break;
+			}
+			page.add(row.trip);
+			last = row;
+		}
+		if (paged && last != null) {
+			((TripPage) page).finish(pageSize, last.tripDate, last.tripId);
+		}
+		return page;
+	}
+
+	/**
+	 * Checks a LOGIN against the password table, like the Authenticator does against the database.
+	 */
+	private ArrayList<Object> login(PreparedQuery query){
+		Object login = query.getParams()[0];
+		String sql = query.getSql();
+		Object principal;
+		Integer id;
+		if (sql.equals(Authenticator.CUSTOMER_BY_EMAIL_SQL)) {
+			id = customersByEmail.get(((String) login).toLowerCase());
+			principal = id == null ? null : customers.get(id);
+		} else {
+			id = (Integer) login;
+			principal = sql.equals(Authenticator.CUSTOMER_BY_ID_SQL) ? customers.get(id)
+					: sql.equals(Authenticator.DRIVER_BY_ID_SQL) ? drivers.get(id) : staff.get(id);
+		}
+		ArrayList<Object> result = new ArrayList<Object>(1);
+		if (principal != null && Authenticator.verify(query.getPassword(), passwords.get(id))) {
+			result.add(principal);
+		}
+		return result;
+	}
+
+	/**
+	 * AUTO_DISPATCH: the free drivers in DRIVER_ID order take the unassigned trips of
+	 * every slot in the window in TRIP_ID order, like the AutoDispatcher does in the database.
+	 */
+	private DispatchResult dispatch(String fromDate, String toDate) throws SQLException{
+		LinkedHashMap<Integer, Integer> assignments = new LinkedHashMap<Integer, Integer>();
+		List<Integer> unassigned = new ArrayList<Integer>();
+		//the slots of every date in the window
+		Map<String, HashSet<TripRow>> window = tripsBySlot.subMap(fromDate + '|', true, toDate + '|' + Character.MAX_VALUE, true);
+		for (HashSet<TripRow> slot : window.values()) {
+			HashSet<Integer> busy = new HashSet<Integer>();
+			TreeSet<Integer> waiting = new TreeSet<Integer>();
+			for (TripRow row : slot) {
+				if (row.driverId == 0) {
+					waiting.add(row.tripId);
+				} else {
+					busy.add(row.driverId);
+				}
+			}
+			Iterator<Integer> driverIds = drivers.keySet().iterator();
+			for (Integer tripId : waiting) {
+				Integer driverId = null;
+				while (driverId == null && driverIds.hasNext()) {
+					Integer next = driverIds.next();
+					if (!busy.contains(next)) {
+						driverId = next;
+					}
+				}
+				if (driverId == null) {
+					unassigned.add(tripId);
+				} else {
+					write(TRIP_ASSIGNED, tripId, driverId);
+					assignments.put(tripId, driverId);
+				}
+			}
+		}
+		commit();
+		return new DispatchResult(assignments, unassigned);
+	}
+
+	private static String slotOf(String tripDate, String tripTime){
+		return tripDate + '|' + tripTime;
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * A reader of the ChangeFeed, with a cursor of its own. Every subscription
+ * sees every event published while it is open, in order, unless the feed
+ * drops it for lagging a whole ring behind.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.List;
+
+public class FeedSubscription{
+	private final ChangeFeed feed;
+	//sequence of the next event to read, guarded by the feed
+	long cursor;
+	boolean closed;
+
+	FeedSubscription(ChangeFeed feed, long cursor){
+		this.feed = feed;
+		this.cursor = cursor;
+	}
+
+	/**
+	 * Reads the next events, waiting for one if there are none yet.
+	 * @param maxEvents The most events to return.
+	 * @param timeoutMillis How long to wait for an event.
+	 * @return the events in order, empty if none was published in time, or null if the
+	 *         subscription has been closed or dropped by the feed for lagging behind.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public List<ChangeEvent> poll(int maxEvents, long timeoutMillis) throws InterruptedException{
+		return feed.poll(this, maxEvents, timeoutMillis);
+	}
+
+	/**
+	 * @return the number of events published but not read yet.
+	 */
+	public long getLag(){
+		return feed.lag(this);
+	}
+
+	/**
+	 * Ends the subscription; a poll waiting on another thread returns null.
+	 */
+	public void close(){
+		feed.unsubscribe(this);
+	}
+}
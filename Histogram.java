@@ -0,0 +1,116 @@
+/**
+ * Lock-free histogram of non-negative values (latencies in nanoseconds, row counts),
+ * in the style of HdrHistogram: values are counted in log-linear buckets (16 buckets
+ * per power of two), so any recorded value is reported within about 6% while the
+ * memory stays fixed.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class Histogram{
+	//buckets per power of two
+	private final static int SUB_BUCKETS = 16;
+	//values below this are counted exactly
+	private final static int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+	//enough buckets for any positive long
+	private final static int BUCKETS = 60 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one value.
+	 * @param recorded The value, negative values count as 0.
+	 */
+	public void record(long recorded){
+		long value = Math.max(0, recorded);
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/** @return number of recorded values. */
+	public long getCount(){
+		return count.get();
+	}
+
+	/** @return the sum of the recorded values. */
+	public long getTotal(){
+		return sum.get();
+	}
+
+	/** @return the largest recorded value. */
+	public long getMax(){
+		return max.get();
+	}
+
+	/** @return the mean of the recorded values, */
+	public double getMean(){
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @param percentile Between 0 and 100, e.g. 99 for the p99.
+	 * @return the value at the percentile (upper bound of its bucket).
+	 */
+	public long getPercentile(double percentile){
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Clears the histogram. Values recorded while it runs may be lost.
+	 */
+	public void reset(){
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	private static int indexOf(long value){
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		//keep the 5 highest bits: the leading 1 and 4 bits choosing the sub-bucket
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+		int sub = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBoundOf(int index){
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,24 @@
+/**
+ * Receives the measurements of every execute call, to forward them to an
+ * external metrics registry. Called on the thread of the call, so it must be quick.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+
+public interface MetricsListener{
+	/**
+	 * @param command The command executed.
+	 * @param translateNanos Time spent translating the CSV.
+	 * @param connectNanos Time spent borrowing the connection, 0 for cache hits.
+	 * @param executeNanos Time spent running the statement, 0 for cache hits.
+	 * @param mapNanos Time spent mapping the rows, 0 for cache hits.
+	 * @param totalNanos Time of the whole call.
+	 * @param rows Number of objects returned.
+	 * @param cacheHit true if the result came from memory (query cache, driver index or a coalesced call).
+	 */
+	void onExecute(Command command, long translateNanos, long connectNanos, long executeNanos, long mapNanos,
+			long totalNanos, int rows, boolean cacheHit);
+}
@@ -0,0 +1,62 @@
+/**
+ * Immutable snapshot of the ConnectionPool metrics.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+
+public class PoolStats{
+	private final int active;
+	private final int idle;
+	private final int open;
+	private final int maxSize;
+	private final long borrowCount;
+	private final long borrowFailures;
+	private final long averageWaitNanos;
+	private final long maxWaitNanos;
+
+	PoolStats(int active, int idle, int open, int maxSize, long borrowCount, long borrowFailures,
+			long averageWaitNanos, long maxWaitNanos){
+		this.active = active;
+		this.idle = idle;
+		this.open = open;
+		this.maxSize = maxSize;
+		this.borrowCount = borrowCount;
+		this.borrowFailures = borrowFailures;
+		this.averageWaitNanos = averageWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+	}
+
+	/** @return number of connections currently borrowed. */
+	public int getActive(){ return active; }
+
+	/** @return number of open connections waiting in the pool. */
+	public int getIdle(){ return idle; }
+
+	/** @return number of physical connections currently open. */
+	public int getOpen(){ return open; }
+
+	/** @return the maximum number of connections the pool will open. */
+	public int getMaxSize(){ return maxSize; }
+
+	/** @return number of successful borrows since the pool was created. */
+	public long getBorrowCount(){ return borrowCount; }
+
+	/** @return number of borrows that timed out or could not open a connection. */
+	public long getBorrowFailures(){ return borrowFailures; }
+
+	/** @return average time a successful borrow waited, in nanoseconds. */
+	public long getAverageWaitNanos(){ return averageWaitNanos; }
+
+	/** @return longest time a successful borrow waited, in nanoseconds. */
+	public long getMaxWaitNanos(){ return maxWaitNanos; }
+
+	@Override
+	public String toString(){
+		return "active=" + active + " idle=" + idle + " open=" + open + "/" + maxSize
+				+ " borrows=" + borrowCount + " failures=" + borrowFailures
+				+ " avgWait=" + averageWaitNanos / 1000 + "us maxWait=" + maxWaitNanos / 1000 + "us";
+	}
+}
@@ -0,0 +1,20 @@
+/**
+ * Thrown by ConnectionPool.borrow() when no connection became free within the
+ * borrow timeout: the pool is busy, the database itself may well be healthy.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.SQLException;
+
+public class PoolTimeoutException extends SQLException{
+	private static final long serialVersionUID = 1L;
+	//SQLState of an expired timeout
+	private final static String TIMEOUT_EXPIRED = "HYT00";
+
+	PoolTimeoutException(String message){
+		super(message, TIMEOUT_EXPIRED);
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * A physical database connection owned by a ConnectionPool, with the
+ * statements prepared on it. A connection is used by one borrower at a time,
+ * so the statement cache needs no locking.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+public class PooledConnection{
+	private final static Logger LOG = Logger.getLogger(PooledConnection.class.getName());
+	//number of prepared statements kept open per connection
+	private final static int STATEMENT_CACHE_SIZE = 64;
+
+	private final Connection connection;
+	private volatile long lastUsed;
+	private volatile boolean broken = false;
+	//prepared statements by SQL template, least recently used first
+	private final LinkedHashMap<String, PreparedStatement> statements =
+			new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+			if (size() > STATEMENT_CACHE_SIZE) {
+				closeStatement(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	PooledConnection(Connection connection){
+		this.connection = connection;
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the underlying JDBC connection. It must not be closed by the borrower.
+	 */
+	public Connection getConnection(){
+		return connection;
+	}
+
+	/**
+	 * Returns the statement prepared from the SQL template on this connection, preparing
+	 * it on first use. The statement is owned by the connection and must not be closed.
+	 * @param sql The SQL template.
+	 * @return PreparedStatement for the template.
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException{
+		PreparedStatement statement = statements.get(sql);
+		if (statement == null || statement.isClosed()) {
+			//inserts hand back the generated IDs, e.g. the TRIP_ID of a booking
+			statement = sql.startsWith("INSERT") ? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+					: connection.prepareStatement(sql);
+			statements.put(sql, statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * Marks the connection as unusable, so the pool closes it on release instead of reusing it.
+	 */
+	public void markBroken(){
+		broken = true;
+	}
+
+	boolean isBroken(){
+		try {
+			return broken || connection.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+
+	long getLastUsed(){
+		return lastUsed;
+	}
+
+	void touch(){
+		lastUsed = System.currentTimeMillis();
+	}
+
+	void closeQuietly(){
+		for (PreparedStatement statement : statements.values()) {
+			closeStatement(statement);
+		}
+		statements.clear();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			LOG.warning("Error: no database to close : " + e.getMessage());
+		}
+	}
+
+	private static void closeStatement(PreparedStatement statement){
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			LOG.warning("Error: empty SQL statement : " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * A translated command: one of the fixed, parameterised SQL templates of the
+ * SQLTranslator, together with the typed values to bind to its parameters.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+public class PreparedQuery{
+	private final Command command;
+	//class of the objects the rows are mapped to, null for commands without a ResultSet
+	private final Class<?> resultType;
+	//mapper of the rows of a registered command, null to build one from the column labels
+	private final RowMapper<?> rowMapper;
+	private final String sql;
+	private final Object[] params;
+	//the LIMIT of a keyset paginated query, 0 if it is not paginated
+	private final int pageSize;
+	//the password of a LOGIN, checked in Java and never bound
+	private final String password;
+
+	/**
+	 * @param command The command the query was translated from.
+	 * @param sql The SQL template, with a ? for every parameter.
+	 * @param params The values of the parameters, in order (Integer, String or null).
+	 */
+	PreparedQuery(Command command, String sql, Object... params){
+		this(command, null, sql, params);
+	}
+
+	/**
+	 * @param command The command the query was translated from.
+	 * @param resultType The class of the objects the rows of the query are mapped to.
+	 * @param sql The SQL template, with a ? for every parameter.
+	 * @param params The values of the parameters, in order (Integer, String or null).
+	 */
+	PreparedQuery(Command command, Class<?> resultType, String sql, Object... params){
+		this(command, resultType, 0, sql, params);
+	}
+
+	/**
+	 * @param command The command the query was translated from.
+	 * @param resultType The class of the objects the rows of the query are mapped to.
+	 * @param pageSize The LIMIT of the query, bound as its last parameter.
+	 * @param sql The SQL template, with a ? for every parameter.
+	 * @param params The values of the parameters, in order (Integer, String or null).
+	 */
+	PreparedQuery(Command command, Class<?> resultType, int pageSize, String sql, Object... params){
+		this(command, resultType, null, pageSize, sql, params);
+	}
+
+	/**
+	 * @param command The command the query was translated from.
+	 * @param resultType The class of the objects the rows of the query are mapped to.
+	 * @param rowMapper The mapper of the rows, null to build one from the column labels.
+	 * @param pageSize The LIMIT of the query, bound as its last parameter, 0 if it is not paginated.
+	 * @param sql The SQL template, with a ? for every parameter.
+	 * @param params The values of the parameters, in order (Integer, String or null).
+	 */
+	PreparedQuery(Command command, Class<?> resultType, RowMapper<?> rowMapper, int pageSize, String sql, Object... params){
+		this.command = command;
+		this.resultType = resultType;
+		this.rowMapper = rowMapper;
+		this.pageSize = pageSize;
+		this.sql = sql;
+		this.params = params;
+		this.password = null;
+	}
+
+	private PreparedQuery(Command command, Class<?> resultType, String sql, Object login, String password){
+		this.command = command;
+		this.resultType = resultType;
+		this.rowMapper = null;
+		this.pageSize = 0;
+		this.sql = sql;
+		this.params = new Object[] { login };
+		this.password = password;
+	}
+
+	/**
+	 * Creates the lookup of a LOGIN. The password is kept out of the parameters, so the
+	 * query binds like any other.
+	 * @param command The command the query was translated from.
+	 * @param resultType The class of the user: Customer, Driver or Staff.
+	 * @param sql The lookup template, with a ? for the ID or email.
+	 * @param login The ID (Integer) or email (String) of the user.
+	 * @param password The password to check.
+	 */
+	static PreparedQuery login(Command command, Class<?> resultType, String sql, Object login, String password){
+		return new PreparedQuery(command, resultType, sql, login, password);
+	}
+
+	/**
+	 * @return the command the query was translated from.
+	 */
+	public Command getCommand(){
+		return command;
+	}
+
+	/**
+	 * @return the class of the objects the rows are mapped to, null if the query returns no rows.
+	 */
+	public Class<?> getResultType(){
+		return resultType;
+	}
+
+	/**
+	 * @return the mapper of the rows given at registration, null to build one from the column labels.
+	 */
+	public RowMapper<?> getRowMapper(){
+		return rowMapper;
+	}
+
+	/**
+	 * @return the number of rows of a page, 0 if the query is not paginated.
+	 */
+	public int getPageSize(){
+		return pageSize;
+	}
+
+	/**
+	 * @return the SQL template.
+	 */
+	public String getSql(){
+		return sql;
+	}
+
+	/**
+	 * @return the values bound to the template's parameters.
+	 */
+	public Object[] getParams(){
+		return params;
+	}
+
+	/**
+	 * @return the password of a LOGIN, null for the other commands.
+	 */
+	public String getPassword(){
+		return password;
+	}
+
+	/**
+	 * @return true if the template returns a ResultSet.
+	 */
+	public boolean isQuery(){
+		return sql.startsWith("SELECT");
+	}
+
+	/**
+	 * Binds the parameters to a statement prepared from this template.
+	 * @param statement PreparedStatement created from getSql().
+	 */
+	public void bind(PreparedStatement statement) throws SQLException{
+		bind(statement, 0);
+	}
+
+	/**
+	 * Binds the parameters to a statement, starting after the given parameter index.
+	 * Used to fill one row of a multi-row INSERT.
+	 * @param statement PreparedStatement holding the parameters.
+	 * @param offset Number of parameters of the statement before this query's first one.
+	 */
+	public void bind(PreparedStatement statement, int offset) throws SQLException{
+		for (int i = 0; i < params.length; i++) {
+			Object param = params[i];
+			if (param == null) {
+				statement.setNull(offset + i + 1, Types.VARCHAR);
+			} else if (param instanceof Integer) {
+				statement.setInt(offset + i + 1, (Integer) param);
+			} else {
+				statement.setString(offset + i + 1, param.toString());
+			}
+		}
+	}
+
+	/**
+	 * Builds the SQL of an INSERT of this template with the VALUES group repeated for
+	 * the given number of rows, e.g. INSERT INTO t (a, b) VALUES (?,?),(?,?).
+	 * @param rows Number of rows to insert.
+	 * @return the multi-row SQL, or null if the template is not a single-row INSERT.
+	 */
+	public String multiRowSql(int rows){
+		int values = sql.lastIndexOf(" VALUES (");
+		if (!sql.startsWith("INSERT") || values < 0 || !sql.endsWith(")")) {
+			return null;
+		}
+		String group = sql.substring(values + " VALUES ".length());
+		StringBuilder multiRow = new StringBuilder(values + 8 + rows * (group.length() + 1));
+		multiRow.append(sql, 0, values + " VALUES ".length());
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				multiRow.append(',');
+			}
+			multiRow.append(group);
+		}
+		return multiRow.toString();
+	}
+
+	@Override
+	public String toString(){
+		//the password is not a parameter, it is never logged
+		return sql + " " + Arrays.toString(params);
+	}
+}
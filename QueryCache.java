@@ -0,0 +1,243 @@
+/**
+ * In-process read-through cache of the results of read-mostly commands
+ * (GET_CARDS and AVAILABLE_DRIVERS), in front of the database.
+ *
+ * Entries are keyed by the translated query (SQL template and parameters),
+ * expire after a fixed time to live, and the least recently used entry is
+ * evicted when the cache is full. Every entry carries tags naming the rows it
+ * was read from, and a write command invalidates the entries of the tags it
+ * touches.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class QueryCache{
+	//tag of every AVAILABLE_DRIVERS entry
+	private final static String DRIVERS_TAG = "drivers";
+
+	private final int maxEntries;
+	private final long ttlMillis;
+
+	//entries by key, least recently used first
+	private final LinkedHashMap<String, Entry> entries;
+	//keys of the entries by tag
+	private final HashMap<String, Set<String>> tagIndex = new HashMap<String, Set<String>>();
+	//incremented by every invalidation, so a result read before it is not cached after it
+	private long generation = 0;
+
+	//metrics
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	private static class Entry{
+		final ArrayList<?> value;
+		final String[] tags;
+		final long expiresAt;
+
+		Entry(ArrayList<?> value, String[] tags, long expiresAt){
+			this.value = value;
+			this.tags = tags;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * @param maxEntries Maximum number of results kept.
+	 * @param ttlMillis How long a result is served from the cache.
+	 */
+	public QueryCache(int maxEntries, long ttlMillis){
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest){
+				if (size() > QueryCache.this.maxEntries) {
+					untag(eldest.getKey(), eldest.getValue());
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return true if the results of the query are cached at all.
+	 */
+	static boolean isCacheable(PreparedQuery query){
+		return query.getCommand() == Command.GET_CARDS || query.getCommand() == Command.AVAILABLE_DRIVERS;
+	}
+
+	/**
+	 * @return the cache key of a query.
+	 */
+	static String keyOf(PreparedQuery query){
+		StringBuilder key = new StringBuilder(query.getSql());
+		for (Object param : query.getParams()) {
+			key.append('\u0000').append(param);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the tags of the rows a cacheable query reads.
+	 */
+	private static String[] tagsOf(PreparedQuery query){
+		Object[] params = query.getParams();
+		Command command = query.getCommand();
+		if (command == Command.GET_CARDS) {
+			return new String[] { "cards:" + params[0] };
+		}
+		if (command == Command.AVAILABLE_DRIVERS) {
+			//AVAILABLE_DRIVERS,trip_date,trip_time
+			return new String[] { DRIVERS_TAG, "slot:" + params[0] + "," + params[1] };
+		}
+		return new String[0];
+	}
+
+	/**
+	 * @return the tags of the cached results a write query makes stale, null for all of them.
+	 */
+	private static String[] invalidatedBy(PreparedQuery query){
+		Object[] params = query.getParams();
+		Command command = query.getCommand();
+		if (command == Command.BOOK_TRIP) {
+			//trip_date and trip_time are the last two parameters
+			return new String[] { "slot:" + params[9] + "," + params[10] };
+		}
+		if (command == Command.CANCEL_TRIP || command == Command.ASSIGN_DRIVER) {
+			//only the trip_id is known, not the slot of the trip
+			return new String[] { DRIVERS_TAG };
+		}
+		//a registered command may write any table
+		return command.isBuiltIn() ? new String[0] : null;
+	}
+
+	/**
+	 * @return the generation to pass to put() for a result read from now on.
+	 */
+	public synchronized long generation(){
+		return generation;
+	}
+
+	/**
+	 * Returns the cached result of a query.
+	 * @param key The key from keyOf().
+	 * @return the cached list, or null if it is not cached or has expired. It must not be modified.
+	 */
+	public synchronized ArrayList<?> get(String key){
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (System.currentTimeMillis() >= entry.expiresAt) {
+			entries.remove(key);
+			untag(key, entry);
+			evictions++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	/**
+	 * Caches the result of a query, unless something was invalidated since it was read.
+	 * @param query The query the result was read with.
+	 * @param key The key from keyOf().
+	 * @param value The result. It must not be modified afterwards.
+	 * @param readGeneration The value of generation() before the query was executed.
+	 */
+	public synchronized void put(PreparedQuery query, String key, ArrayList<?> value, long readGeneration){
+		if (readGeneration != generation) {
+			return;
+		}
+		Entry previous = entries.remove(key);
+		if (previous != null) {
+			untag(key, previous);
+		}
+		String[] tags = tagsOf(query);
+		entries.put(key, new Entry(value, tags, System.currentTimeMillis() + ttlMillis));
+		for (String tag : tags) {
+			Set<String> keys = tagIndex.get(tag);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				tagIndex.put(tag, keys);
+			}
+			keys.add(key);
+		}
+	}
+
+	/**
+	 * Drops the cached results made stale by a successful write query.
+	 * @param query The executed write query.
+	 */
+	public synchronized void invalidate(PreparedQuery query){
+		String[] tags = invalidatedBy(query);
+		if (tags == null) {
+			clear();
+			return;
+		}
+		if (tags.length == 0) {
+			return;
+		}
+		generation++;
+		for (String tag : tags) {
+			Set<String> keys = tagIndex.remove(tag);
+			if (keys == null) {
+				continue;
+			}
+			for (String key : keys) {
+				Entry entry = entries.remove(key);
+				if (entry != null) {
+					untag(key, entry);
+					invalidations++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops every cached result.
+	 */
+	public synchronized void clear(){
+		generation++;
+		invalidations += entries.size();
+		entries.clear();
+		tagIndex.clear();
+	}
+
+	/**
+	 * @return snapshot of the cache metrics.
+	 */
+	public synchronized CacheStats getStats(){
+		return new CacheStats(entries.size(), maxEntries, hits, misses, evictions, invalidations);
+	}
+
+	private void untag(String key, Entry entry){
+		for (String tag : entry.tags) {
+			Set<String> keys = tagIndex.get(tag);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					tagIndex.remove(tag);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Links a running execute call to whoever may cancel it, e.g. the future
+ * returned by executeAsync. Cancelling the handle cancels the statement the
+ * query is running on, or stops the query from starting at all. The handle
+ * also keeps the error the call failed with, which execute only logs.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+class QueryHandle{
+	private final static Logger LOG = Logger.getLogger(QueryHandle.class.getName());
+	private Statement running;
+	private boolean cancelled = false;
+	private Exception failure;
+
+	/**
+	 * Called by execute right before the statement is executed.
+	 * @throws SQLException if the query has already been cancelled.
+	 */
+	synchronized void start(Statement statement) throws SQLException{
+		if (cancelled) {
+			throw new SQLException("Query cancelled");
+		}
+		running = statement;
+	}
+
+	/**
+	 * Called by execute when the statement has finished. The statement is cached and
+	 * reused by later queries, so it must not be cancelled after this.
+	 */
+	synchronized void finish(){
+		running = null;
+	}
+
+	/**
+	 * Cancels the query: the running statement is cancelled, a query not started yet never starts.
+	 */
+	synchronized void cancel(){
+		cancelled = true;
+		if (running != null) {
+			try {
+				running.cancel();
+			} catch (SQLException e) {
+				LOG.warning("Error: cannot cancel the SQL query : " + e.getMessage());
+			}
+		}
+	}
+
+	synchronized boolean isCancelled(){
+		return cancelled;
+	}
+
+	/**
+	 * Called by execute when the command cannot be translated or executed.
+	 */
+	synchronized void failed(Exception error){
+		failure = error;
+	}
+
+	/**
+	 * @return the error the call failed with, null if it succeeded.
+	 */
+	synchronized Exception getFailure(){
+		return failure;
+	}
+}
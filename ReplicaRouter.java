@@ -0,0 +1,230 @@
+/**
+ * Routes the commands of the SQLTranslator between a primary database and its
+ * read replicas.
+ *
+ *  - writes, and queries that are part of a write like AUTO_DISPATCH, go to the primary
+ *  - reads are spread round robin over the healthy replicas, or go to the primary if none is
+ *  - every replica is checked periodically by borrowing a validated connection; one that
+ *    cannot be connected to is taken out of the rotation until a check succeeds again. A
+ *    replica whose pool is only busy (PoolTimeoutException) stays in the rotation
+ *  - read-your-writes: for a while after a customer's BOOK_TRIP or SIGN_UP, the reads of
+ *    that customer go to the primary, so the customer does not miss the write on a
+ *    lagging replica
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+public class ReplicaRouter{
+	private final static Logger LOG = Logger.getLogger(ReplicaRouter.class.getName());
+	//entries kept in the read-your-writes map before the expired ones are dropped
+	private final static int RECENT_WRITERS_SWEEP = 10000;
+
+	private final ConnectionPool primary;
+	private final ConnectionPool[] replicas;
+	//replicas out of the rotation
+	private final Set<ConnectionPool> down = ConcurrentHashMap.newKeySet();
+	private final long readYourWritesNanos;
+	private final AtomicInteger next = new AtomicInteger();
+	//customer ID or lower-case email -> System.nanoTime() until which it reads from the primary
+	private final ConcurrentHashMap<Object, Long> recentWriters = new ConcurrentHashMap<Object, Long>();
+	private final ScheduledExecutorService healthCheck;
+
+	/**
+	 * @param primary Pool of the primary database, taking every write.
+	 * @param replicas Pools of the read replicas, may be empty.
+	 * @param healthCheckMillis How often the replicas are checked.
+	 * @param readYourWritesMillis How long a customer reads from the primary after a write, 0 for never.
+	 */
+	public ReplicaRouter(ConnectionPool primary, ConnectionPool[] replicas, long healthCheckMillis,
+			long readYourWritesMillis){
+		this.primary = primary;
+		this.replicas = replicas.clone();
+		this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+		if (replicas.length == 0) {
+			healthCheck = null;
+			return;
+		}
+		healthCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ReplicaRouter-health");
+			t.setDaemon(true);
+			return t;
+		});
+		healthCheck.scheduleWithFixedDelay(this::checkReplicas, healthCheckMillis, healthCheckMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the pool the query is executed on.
+	 */
+	public ConnectionPool route(PreparedQuery query){
+		if (replicas.length == 0 || !isRead(query)) {
+			return primary;
+		}
+		if (readYourWritesNanos > 0 && !recentWriters.isEmpty()) {
+			Object customer = customerOf(query);
+			if (customer != null) {
+				Long until = recentWriters.get(customer);
+				if (until != null && System.nanoTime() - until < 0) {
+					return primary;
+				}
+			}
+		}
+		int start = next.getAndIncrement() & Integer.MAX_VALUE;
+		for (int i = 0; i < replicas.length; i++) {
+			ConnectionPool replica = replicas[(start + i) % replicas.length];
+			if (down.isEmpty() || !down.contains(replica)) {
+				return replica;
+			}
+		}
+		return primary;
+	}
+
+	/**
+	 * @return the pool of the primary database.
+	 */
+	public ConnectionPool getPrimary(){
+		return primary;
+	}
+
+	/**
+	 * Takes a replica out of the rotation until the next successful health check,
+	 * e.g. because a connection could not be borrowed from it.
+	 * @param replica Pool of the replica.
+	 * @param reason The error that showed the replica is down.
+	 */
+	public void markDown(ConnectionPool replica, SQLException reason){
+		for (int i = 0; i < replicas.length; i++) {
+			if (replicas[i] == replica && down.add(replica)) {
+				LOG.warning("Error: replica " + i + " is down : " + reason.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return true if the error shows the database cannot be connected to or the connection is
+	 *         lost (SQLState class 08, or a recoverable error), false for a busy pool or an error
+	 *         of the statement.
+	 */
+	static boolean isConnectionFailure(SQLException e){
+		if (e instanceof PoolTimeoutException) {
+			return false;
+		}
+		String state = e.getSQLState();
+		return (state != null && state.startsWith("08")) || e instanceof SQLRecoverableException
+				|| e instanceof SQLNonTransientConnectionException || e instanceof SQLTransientConnectionException;
+	}
+
+	/**
+	 * @return true if the replica is in the rotation.
+	 */
+	public boolean isHealthy(int replica){
+		return !down.contains(replicas[replica]);
+	}
+
+	/**
+	 * @return the number of replicas, healthy or not.
+	 */
+	public int getReplicaCount(){
+		return replicas.length;
+	}
+
+	/**
+	 * Starts the read-your-writes window of the customer of a committed write.
+	 * @param query The executed write query.
+	 * @param generatedId The ID the database generated for an insert, 0 if not known.
+	 */
+	void afterWrite(PreparedQuery query, int generatedId){
+		if (replicas.length == 0 || readYourWritesNanos <= 0) {
+			return;
+		}
+		Object[] params = query.getParams();
+		long until = System.nanoTime() + readYourWritesNanos;
+		if (query.getCommand() == Command.BOOK_TRIP) {
+			recentWriters.put(params[0], until);
+		} else if (query.getCommand() == Command.SIGN_UP) {
+			//the new customer logs in by ID or by email
+			if (generatedId > 0) {
+				recentWriters.put(generatedId, until);
+			}
+			if (params[6] != null) {
+				recentWriters.put(((String) params[6]).toLowerCase(), until);
+			}
+		} else {
+			return;
+		}
+		if (recentWriters.size() > RECENT_WRITERS_SWEEP) {
+			long now = System.nanoTime();
+			recentWriters.values().removeIf(expiry -> now - expiry >= 0);
+		}
+	}
+
+	/**
+	 * Stops the health checks and closes the replica pools; the primary is closed by its owner.
+	 */
+	public void close(){
+		if (healthCheck != null) {
+			healthCheck.shutdownNow();
+		}
+		for (ConnectionPool replica : replicas) {
+			replica.close();
+		}
+	}
+
+	/**
+	 * @return true if the query only reads and may run on a replica.
+	 */
+	static boolean isRead(PreparedQuery query){
+		//AUTO_DISPATCH reads the trips it then writes
+		return query.isQuery() && query.getCommand() != Command.AUTO_DISPATCH;
+	}
+
+	/**
+	 * @return the customer ID or email whose data the read query returns, null if none.
+	 */
+	private static Object customerOf(PreparedQuery query){
+		Command command = query.getCommand();
+		Object first = query.getParams().length > 0 ? query.getParams()[0] : null;
+		if (command == Command.GET_CARDS) {
+			return first;
+		}
+		if (command == Command.VIEW_TRIP) {
+			return ViewTripHandler.isCustomerQuery(query) ? first : null;
+		}
+		if (command == Command.LOGIN) {
+			if (first instanceof String) {
+				return ((String) first).toLowerCase();
+			}
+			return (Integer) first < 3000 ? first : null;
+		}
+		return null;
+	}
+
+	private void checkReplicas(){
+		for (int i = 0; i < replicas.length; i++) {
+			try {
+				replicas[i].release(replicas[i].borrow());
+				if (down.remove(replicas[i])) {
+					LOG.info("Replica " + i + " is up again");
+				}
+			} catch (SQLException e) {
+				if (isConnectionFailure(e)) {
+					markDown(replicas[i], e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * The merged result of a report fanned out by SQLTranslator.executeReport:
+ * the trips, drivers and customers returned by all of its sub-commands, in
+ * the order of the sub-commands, and the other objects they returned (e.g.
+ * credit cards).
+ *
+ * The lists of the sub-commands are merged with a fork-join reduction: each
+ * half of the sub-commands is sorted into typed lists on its own, and the
+ * halves are concatenated.
+ *
+ * A report is partial when some sub-commands did not finish before the
+ * deadline, failed, or were rejected; their rows are missing.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import common.*;
+
+public class ReportResult{
+	//sub-command results sorted by one fork-join task without splitting further
+	private final static int RESULTS_PER_TASK = 2;
+
+	private final ArrayList<Trip> trips = new ArrayList<Trip>();
+	private final ArrayList<Driver> drivers = new ArrayList<Driver>();
+	private final ArrayList<Customer> customers = new ArrayList<Customer>();
+	private final ArrayList<Object> others = new ArrayList<Object>();
+	private boolean partial;
+	private int completed;
+	private int commands;
+
+	/**
+	 * Sorts the results of a range of sub-commands into typed lists, splitting the range in halves.
+	 */
+	private static class MergeTask extends RecursiveTask<ReportResult>{
+		private static final long serialVersionUID = 1L;
+
+		private final List<List<?>> results;
+		private final int from;
+		private final int to;
+
+		MergeTask(List<List<?>> results, int from, int to){
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected ReportResult compute(){
+			if (to - from > RESULTS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				MergeTask right = new MergeTask(results, middle, to);
+				right.fork();
+				ReportResult merged = new MergeTask(results, from, middle).compute();
+				merged.append(right.join());
+				return merged;
+			}
+			ReportResult merged = new ReportResult();
+			for (int i = from; i < to; i++) {
+				List<?> result = results.get(i);
+				if (result == null) {
+					continue;
+				}
+				merged.completed++;
+				for (Object row : result) {
+					if (row instanceof Trip) {
+						merged.trips.add((Trip) row);
+					} else if (row instanceof Driver) {
+						merged.drivers.add((Driver) row);
+					} else if (row instanceof Customer) {
+						merged.customers.add((Customer) row);
+					} else {
+						merged.others.add(row);
+					}
+				}
+			}
+			return merged;
+		}
+	}
+
+	private ReportResult(){
+	}
+
+	/**
+	 * Merges the results of the sub-commands of a report.
+	 * @param results The result of every sub-command in order, null for the ones that did not complete.
+	 * @return the merged report, partial if any result is missing.
+	 */
+	static ReportResult merge(List<List<?>> results){
+		ReportResult report = ForkJoinPool.commonPool().invoke(new MergeTask(results, 0, results.size()));
+		report.commands = results.size();
+		report.partial = report.completed < report.commands;
+		return report;
+	}
+
+	private void append(ReportResult other){
+		trips.addAll(other.trips);
+		drivers.addAll(other.drivers);
+		customers.addAll(other.customers);
+		others.addAll(other.others);
+		completed += other.completed;
+	}
+
+	/** @return the trips returned by the sub-commands. */
+	public ArrayList<Trip> getTrips(){ return trips; }
+
+	/** @return the drivers returned by the sub-commands. */
+	public ArrayList<Driver> getDrivers(){ return drivers; }
+
+	/** @return the customers returned by the sub-commands. */
+	public ArrayList<Customer> getCustomers(){ return customers; }
+
+	/** @return the other objects returned by the sub-commands, e.g. credit cards. */
+	public ArrayList<Object> getOthers(){ return others; }
+
+	/** @return true if some sub-commands failed or did not complete before the deadline. */
+	public boolean isPartial(){ return partial; }
+
+	/** @return the number of sub-commands whose rows are in the report. */
+	public int getCompleted(){ return completed; }
+
+	/** @return the number of sub-commands of the report. */
+	public int getCommandCount(){ return commands; }
+
+	@Override
+	public String toString(){
+		return "Report: " + trips.size() + " trips, " + drivers.size() + " drivers, " + customers.size()
+				+ " customers, " + others.size() + " others from " + completed + "/" + commands + " commands"
+				+ (partial ? " (partial)" : "");
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Iterator mapping the rows of a ResultSet to objects lazily, one row per next().
+ *
+ * Closing the iterator closes the ResultSet and gives the connection it was read
+ * from back to the pool. It is closed automatically once the last row is read.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ResultSetIterator<T> implements Iterator<T>, AutoCloseable{
+	private final static Logger LOG = Logger.getLogger(ResultSetIterator.class.getName());
+	private final ResultSet rSet;
+	private final RowMapper<T> mapper;
+	private final ConnectionPool pool;
+	private final PooledConnection dbConnection;
+	private final PreparedStatement statement;
+	//true if rSet is positioned on a row not returned yet
+	private boolean hasRow = false;
+	private boolean closed = false;
+
+	ResultSetIterator(ResultSet rSet, RowMapper<T> mapper, ConnectionPool pool, PooledConnection dbConnection,
+			PreparedStatement statement){
+		this.rSet = rSet;
+		this.mapper = mapper;
+		this.pool = pool;
+		this.dbConnection = dbConnection;
+		this.statement = statement;
+	}
+
+	@Override
+	public boolean hasNext(){
+		if (hasRow) {
+			return true;
+		}
+		if (closed) {
+			return false;
+		}
+		try {
+			hasRow = rSet.next();
+		} catch (SQLException e) {
+			dbConnection.markBroken();
+			close();
+			throw new IllegalStateException("Error: problem with SQL resultset : " + e.getMessage(), e);
+		}
+		if (!hasRow) {
+			close();
+		}
+		return hasRow;
+	}
+
+	@Override
+	public T next(){
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		hasRow = false;
+		try {
+			return mapper.mapRow(rSet);
+		} catch (SQLException e) {
+			close();
+			throw new IllegalStateException("Error: problem with SQL resultset : " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Closes the ResultSet and releases the connection. Safe to call more than once.
+	 */
+	@Override
+	public void close(){
+		if (closed) {
+			return;
+		}
+		closed = true;
+		hasRow = false;
+		try {
+			rSet.close();
+		} catch (SQLException e) {
+			LOG.warning("Error during closing the connection to the database : " + e.getMessage());
+			dbConnection.markBroken();
+		}
+		resetFetchSize(statement);
+		pool.release(dbConnection);
+	}
+
+	/**
+	 * Asks the driver to stream the rows of a statement instead of buffering the whole result.
+	 * MySQL only streams a forward-only, read-only result with this fetch size; drivers
+	 * rejecting it keep their default.
+	 */
+	static void streamRows(PreparedStatement statement){
+		try {
+			statement.setFetchSize(Integer.MIN_VALUE);
+		} catch (SQLException e) {
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("The driver does not stream rows : " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Puts a cached statement back to the driver's default fetch size after streaming.
+	 */
+	static void resetFetchSize(PreparedStatement statement){
+		try {
+			statement.setFetchSize(0);
+		} catch (SQLException e) {
+			LOG.warning("Error: empty SQL statement : " + e.getMessage());
+		}
+	}
+}
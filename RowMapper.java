@@ -0,0 +1,19 @@
+/**
+ * Creates one object from the current row of a ResultSet.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface RowMapper<T>{
+	/**
+	 * @param rSet ResultSet positioned on the row to map.
+	 * @return the object built from the row.
+	 */
+	T mapRow(ResultSet rSet) throws SQLException;
+}
@@ -0,0 +1,215 @@
+/**
+ * Builds the RowMappers that turn ResultSet rows into Trip, Driver, Customer,
+ * CreditCard and Staff objects.
+ *
+ * The column labels are resolved to column indexes once per result shape (the
+ * target class and the column labels of the ResultSet), and the resulting mapper
+ * is cached, so mapping a row only uses indexed getters.
+ *
+ * The values of low-cardinality columns (cities, counties, postcodes, trip
+ * dates and times by default) go through a StringDeduplicator, so the objects
+ * of cached results and logged in users share their Strings.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import common.*;
+
+public class RowMappers{
+	//mappers by result shape signature
+	private final static ConcurrentHashMap<String, RowMapper<?>> MAPPERS = new ConcurrentHashMap<String, RowMapper<?>>();
+	//Default number of slots of the String deduplicator
+	private final static int DEDUP_SIZE = 4096;
+	private final static StringDeduplicator DEDUP = new StringDeduplicator(DEDUP_SIZE);
+	//lower-case labels of the columns whose values are deduplicated
+	private static volatile Set<String> dedupColumns = labels("city", "county", "postcode", "from_city",
+			"from_county", "from_postcode", "to_city", "to_county", "to_postcode", "trip_date", "trip_time");
+
+	private RowMappers(){
+	}
+
+	/**
+	 * Returns the mapper of a result shape, creating and caching it on first use.
+	 * @param type The class to map the rows to.
+	 * @param metaData The metadata of the ResultSet.
+	 * @return RowMapper reading the columns by index.
+	 * @throws SQLException if the ResultSet lacks a column the class needs.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> RowMapper<T> forShape(Class<T> type, ResultSetMetaData metaData) throws SQLException{
+		String signature = signature(type, metaData);
+		RowMapper<?> mapper = MAPPERS.get(signature);
+		if (mapper == null) {
+			mapper = create(type, metaData);
+			RowMapper<?> raced = MAPPERS.putIfAbsent(signature, mapper);
+			if (raced != null) {
+				mapper = raced;
+			}
+		}
+		return (RowMapper<T>) mapper;
+	}
+
+	/**
+	 * Returns the mapper of the rows of a query: the one given when its command was
+	 * registered, or the one of its result shape.
+	 * @param query The query the ResultSet was returned by.
+	 * @param metaData The metadata of the ResultSet.
+	 * @throws SQLException if the ResultSet lacks a column the result type needs.
+	 */
+	static RowMapper<?> forQuery(PreparedQuery query, ResultSetMetaData metaData) throws SQLException{
+		RowMapper<?> mapper = query.getRowMapper();
+		return mapper != null ? mapper : forShape(query.getResultType(), metaData);
+	}
+
+	/**
+	 * @param type A class the rows of a query are mapped to.
+	 * @return true if the rows can be mapped to the class by their column labels.
+	 */
+	public static boolean isMapped(Class<?> type){
+		return type == Trip.class || type == Driver.class || type == Customer.class || type == CreditCard.class
+				|| type == Staff.class;
+	}
+
+	/**
+	 * Sets the columns whose values are deduplicated, replacing the default ones.
+	 * @param labels The column labels, ignoring case; none to turn deduplication off.
+	 */
+	public static void setDedupColumns(String... labels){
+		dedupColumns = labels(labels);
+		//the mappers built so far know which of their columns are deduplicated
+		MAPPERS.clear();
+	}
+
+	/**
+	 * @return the deduplicator of the column values, for its hit rate.
+	 */
+	public static StringDeduplicator getDeduplicator(){
+		return DEDUP;
+	}
+
+	private static Set<String> labels(String... labels){
+		Set<String> set = new HashSet<String>();
+		for (String label : labels) {
+			set.add(label.toLowerCase());
+		}
+		return set;
+	}
+
+	//the deduplicator of every column in the set, null for the others
+	private static StringDeduplicator[] dedup(String... labels){
+		Set<String> columns = dedupColumns;
+		StringDeduplicator[] dedup = new StringDeduplicator[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			if (columns.contains(labels[i].toLowerCase())) {
+				dedup[i] = DEDUP;
+			}
+		}
+		return dedup;
+	}
+
+	private static String string(ResultSet rSet, int column, StringDeduplicator dedup) throws SQLException{
+		String value = rSet.getString(column);
+		return dedup == null ? value : dedup.dedup(value);
+	}
+
+	private static String signature(Class<?> type, ResultSetMetaData metaData) throws SQLException{
+		int columns = metaData.getColumnCount();
+		StringBuilder signature = new StringBuilder(type.getName().length() + columns * 12);
+		signature.append(type.getName());
+		for (int i = 1; i <= columns; i++) {
+			signature.append('|').append(metaData.getColumnLabel(i));
+		}
+		return signature.toString();
+	}
+
+	/**
+	 * Returns a Trip mapper taking the driver_id of the trips with a pending assignment from
+	 * the buffer instead of the row. Not cached, as it is only needed while assignments are pending.
+	 * @param metaData The metadata of the ResultSet.
+	 * @param pending The buffer of the assignments not written yet.
+	 * @throws SQLException if the ResultSet lacks a column of the trip.
+	 */
+	static RowMapper<Trip> forTrips(ResultSetMetaData metaData, AssignmentBuffer pending) throws SQLException{
+		String[] labels = { "TRIP_ID", "cust_id", "driver_id", "from_address", "from_city", "from_county",
+				"from_postcode", "to_address", "to_city", "to_county", "to_postcode", "trip_date", "trip_time" };
+		int[] c = indexes(metaData, labels);
+		StringDeduplicator[] d = dedup(labels);
+		if (pending == null) {
+			return rSet -> new Trip(rSet.getInt(c[0]), rSet.getInt(c[1]), rSet.getInt(c[2]), string(rSet, c[3], d[3]),
+					string(rSet, c[4], d[4]), string(rSet, c[5], d[5]), string(rSet, c[6], d[6]), string(rSet, c[7], d[7]),
+					string(rSet, c[8], d[8]), string(rSet, c[9], d[9]), string(rSet, c[10], d[10]),
+					string(rSet, c[11], d[11]), string(rSet, c[12], d[12]));
+		}
+		return rSet -> {
+			int tripId = rSet.getInt(c[0]);
+			return new Trip(tripId, rSet.getInt(c[1]), pending.driverOf(tripId, rSet.getInt(c[2])), string(rSet, c[3], d[3]),
+					string(rSet, c[4], d[4]), string(rSet, c[5], d[5]), string(rSet, c[6], d[6]), string(rSet, c[7], d[7]),
+					string(rSet, c[8], d[8]), string(rSet, c[9], d[9]), string(rSet, c[10], d[10]),
+					string(rSet, c[11], d[11]), string(rSet, c[12], d[12]));
+		};
+	}
+
+	private static RowMapper<?> create(Class<?> type, ResultSetMetaData metaData) throws SQLException{
+		if (type == Trip.class) {
+			return forTrips(metaData, null);
+		}
+		if (type == Driver.class) {
+			String[] labels = { "DRIVER_ID", "first_name", "last_name", "licence_plate", "phone_no" };
+			int[] c = indexes(metaData, labels);
+			StringDeduplicator[] d = dedup(labels);
+			return rSet -> new Driver(rSet.getInt(c[0]), string(rSet, c[1], d[1]), string(rSet, c[2], d[2]),
+					string(rSet, c[3], d[3]), string(rSet, c[4], d[4]));
+		}
+		if (type == Customer.class) {
+			String[] labels = { "CUSTOMER_ID", "first_name", "last_name", "address", "city", "county",
+					"postcode", "email", "phone_number" };
+			int[] c = indexes(metaData, labels);
+			StringDeduplicator[] d = dedup(labels);
+			return rSet -> new Customer(rSet.getInt(c[0]), string(rSet, c[1], d[1]), string(rSet, c[2], d[2]),
+					string(rSet, c[3], d[3]), string(rSet, c[4], d[4]), string(rSet, c[5], d[5]), string(rSet, c[6], d[6]),
+					string(rSet, c[7], d[7]), string(rSet, c[8], d[8]));
+		}
+		if (type == CreditCard.class) {
+			String[] labels = { "cust_no", "CARD_NO", "start_date", "exp_date" };
+			int[] c = indexes(metaData, labels);
+			StringDeduplicator[] d = dedup(labels);
+			return rSet -> new CreditCard(rSet.getInt(c[0]), string(rSet, c[1], d[1]), string(rSet, c[2], d[2]),
+					string(rSet, c[3], d[3]));
+		}
+		if (type == Staff.class) {
+			String[] labels = { "STAFF_ID", "first_name", "last_name" };
+			int[] c = indexes(metaData, labels);
+			StringDeduplicator[] d = dedup(labels);
+			return rSet -> new Staff(rSet.getInt(c[0]), string(rSet, c[1], d[1]), string(rSet, c[2], d[2]));
+		}
+		throw new IllegalArgumentException("No row mapper for " + type.getName());
+	}
+
+	/**
+	 * Resolves column labels to 1-based column indexes, ignoring case.
+	 */
+	static int[] indexes(ResultSetMetaData metaData, String... labels) throws SQLException{
+		int columns = metaData.getColumnCount();
+		int[] indexes = new int[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			for (int column = 1; column <= columns; column++) {
+				if (metaData.getColumnLabel(column).equalsIgnoreCase(labels[i])) {
+					indexes[i] = column;
+					break;
+				}
+			}
+			if (indexes[i] == 0) {
+				throw new SQLException("Column not found in resultset : " + labels[i]);
+			}
+		}
+		return indexes;
+	}
+}
@@ -12,18 +12,33 @@
  *   - SIGN_UP
  *   - AVAILABLE_DRIVERS
  *   - GET_CARDS
+ *   - AUTO_DISPATCH
+ *  and the ones registered with registerCommand.
  *  
  *  @author Laszlo Szoboszlai
  *  @version 25/04/2016
  */
 
 package server;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.io.IOException;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import common.*;
 
 public class SQLTranslator{
@@ -33,382 +48,1507 @@ public class SQLTranslator{
 	private final static String DEFAULT_USERNAME = "general";		
 	private final static String DEFAULT_PASSWORD = "general";
 	private final static String DRIVER = "com.mysql.jdbc.Driver"; // JDBC driver
+	//Default connection pool's settings:
+	private final static int DEFAULT_POOL_MIN = 2;
+	private final static int DEFAULT_POOL_MAX = 20;
+	private final static long DEFAULT_BORROW_TIMEOUT = 5000; // ms
+	private final static long DEFAULT_IDLE_TIMEOUT = 300000; // ms
+	//Default interval of the replicas' health checks
+	private final static long DEFAULT_HEALTH_CHECK = 2000; // ms
+	//Default number of commands sent in one JDBC batch by executeBatch
+	private final static int DEFAULT_BATCH_SIZE = 100;
+	//Default number of executeAsync calls allowed to wait, per connection of the pool
+	private final static int DEFAULT_ASYNC_PENDING_PER_CONNECTION = 50;
+	//Default login cache's settings:
+	private final static int DEFAULT_LOGIN_CACHE_SIZE = 10000;
+	private final static long DEFAULT_LOGIN_CACHE_TTL = 60000; // ms
+	//Default change feed's settings:
+	private final static int DEFAULT_FEED_SIZE = 4096;
+	private final static long DEFAULT_FEED_MAX_BLOCK = 100; // ms
+	//Default query cache's settings:
+	private final static int DEFAULT_CACHE_SIZE = 1024;
+	private final static long DEFAULT_CACHE_TTL = 10000; // ms
 
-	//flag to turn on test messages
-	static boolean test = true;
+	//SQL templates of the recognised commands, prepared once per pooled connection
+	private final static String BOOK_TRIP_SQL = "INSERT INTO trip (cust_id, from_address, from_city,"
+			+ " from_county, from_postcode, to_address, to_city, to_county, to_postcode,"
+			+ " trip_date, trip_time) VALUES (?,?,?,?,?,?,?,?,?,?,?)";
+	private final static String CANCEL_TRIP_SQL = "DELETE FROM trip WHERE trip_id=?";
+	//not private for the AssignmentBuffer
+	/*private*/ final static String ASSIGN_DRIVER_SQL = "UPDATE trip SET driver_id=? WHERE trip_id=?";
+	private final static String SIGN_UP_SQL = "INSERT INTO customer (first_name, last_name,"
+			+ " address, county, city, postcode, email, phone_number) VALUES (?,?,?,?,?,?,?,?)";
+	//using a join to connect trips to driver details
+	private final static String AVAILABLE_DRIVERS_SQL = "SELECT * FROM driver WHERE DRIVER_ID NOT IN "
+			+ "(SELECT driver.DRIVER_ID FROM driver, trip WHERE driver.DRIVER_ID = "
+			+ "trip.driver_id AND (trip.trip_date LIKE ? AND trip.trip_time LIKE ?))";
+	private final static String GET_CARDS_SQL = "SELECT * FROM card_info WHERE cust_id=?";
+
+	//one reusable tokenizer per thread calling translateCSV
+	private final static ThreadLocal<CSVTokenizer> TOKENIZER = ThreadLocal.withInitial(CSVTokenizer::new);
+
+	//connections shared by every call of execute
+	private static ConnectionPool pool;
+	//sends reads to the replicas, if there are any, and writes to the pool above
+	private static volatile ReplicaRouter router;
+	//runs executeAsync calls, created with the pool's size on first use
+	private static AsyncExecutor asyncExecutor;
+	//which driver is booked in which slot, null until loadDriverIndex is called
+	private static volatile DriverAvailability driverIndex;
+	//checks LOGIN passwords and caches the users logged in
+	private static volatile Authenticator authenticator = new Authenticator(DEFAULT_LOGIN_CACHE_SIZE, DEFAULT_LOGIN_CACHE_TTL);
+	//identical reads in flight, null when coalescing is turned off
+	private static volatile SingleFlight singleFlight = new SingleFlight();
+	//results of read-mostly commands, null when caching is turned off
+	private static volatile QueryCache queryCache = new QueryCache(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL);
+	//answers the commands from memory instead of the database, null to use the database
+	private static volatile EmbeddedStore embeddedStore;
+	//takes the write commands of execute and replays them to the database, null to write directly
+	private static volatile WriteJournal writeJournal;
+	//holds the latest ASSIGN_DRIVER of every trip until it is flushed, null to write each one
+	private static volatile AssignmentBuffer assignmentBuffer;
+	//the committed writes, for the subscribers pushing updates to the clients
+	private static volatile ChangeFeed changeFeed = new ChangeFeed(DEFAULT_FEED_SIZE, DEFAULT_FEED_MAX_BLOCK);
+
+	private final static Logger LOG = Logger.getLogger(SQLTranslator.class.getName());
+	//per-command latencies and row counts of execute
+	private final static TranslatorMetrics metrics = new TranslatorMetrics();
+	static {
+		metrics.registerMBean();
+	}
 
 	/**
-	 *Creates ArrayList of CreditCard objects from a passed ResultSet.
+	 *Creates ArrayList of objects from a passed ResultSet, one per row.
 	 */
-	private static ArrayList<CreditCard> creditcardListBuilder(ResultSet rSet){
-		ArrayList<CreditCard> returnList = new ArrayList<CreditCard>();
+	//not private for the benchmarks
+	/*private*/ static <T> ArrayList<T> listBuilder(ResultSet rSet, RowMapper<T> mapper){
+		ArrayList<T> returnList = new ArrayList<T>();
 		try {
 			while (rSet.next()) {
-				CreditCard newCard = new CreditCard( rSet.getInt("cust_no"), rSet.getString("CARD_NO"), rSet.getString("start_date"),
-						rSet.getString("exp_date"));
-				returnList.add(newCard);
+				returnList.add(mapper.mapRow(rSet));
 			}
 		} catch (SQLException e) {
-			System.out.println( "Error: problem with SQL resultset : " + e.getMessage() );
+			LOG.warning("Error: problem with SQL resultset : " + e.getMessage());
 		}
 		return returnList;
 	}
 
 	/**
-	 *Creates ArrayList of Staff objects from a passed ResultSet.
-	 */   
-	private static ArrayList<Staff> staffListBuilder(ResultSet rSet){
-		ArrayList<Staff> returnList = new ArrayList<Staff>();
-		try {
-			while (rSet.next()) {
-				Staff newStaff = new Staff(rSet.getInt("STAFF_ID"),rSet.getString("first_name"),rSet.getString("last_name"));
-				returnList.add(newStaff);
-			}
-		} catch (SQLException e) {
-			System.out.println( "Error: problem with SQL resultset : " + e.getMessage() );
+	 * Replaces the connection pool used by execute, closing the previous one.
+	 * @param newPool The pool to borrow connections from.
+	 */
+	public static synchronized void setConnectionPool(ConnectionPool newPool){
+		if (pool != null && pool != newPool) {
+			pool.close();
+		}
+		pool = newPool;
+		//without replicas from now on
+		if (router != null) {
+			router.close();
+			router = null;
+		}
+		//the concurrency limit follows the size of the pool
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdown();
+			asyncExecutor = null;
 		}
-		return returnList;
 	}
 
+	/**
+	 * Replaces the databases used by execute: writes go to the primary, reads are spread
+	 * over the healthy replicas. The previous pools are closed.
+	 * @param primary Pool of the primary database.
+	 * @param replicas Pools of the read replicas.
+	 * @param readYourWritesMillis How long the reads of a customer go to the primary after
+	 *        a BOOK_TRIP or SIGN_UP of the customer, 0 to always read from the replicas.
+	 */
+	public static synchronized void setDataSources(ConnectionPool primary, ConnectionPool[] replicas,
+			long readYourWritesMillis){
+		setConnectionPool(primary);
+		router = new ReplicaRouter(primary, replicas, DEFAULT_HEALTH_CHECK, readYourWritesMillis);
+	}
 
 	/**
-	 *Creates ArrayList of Trip objects from a passed ResultSet.
-	 */   
-	private static ArrayList<Trip> tripListBuilder(ResultSet rSet){
-		ArrayList<Trip> returnList = new ArrayList<Trip>();
-		try {
-			while (rSet.next()) {
-				Trip newTrip = new Trip(rSet.getInt("TRIP_ID"),rSet.getInt("cust_id"),rSet.getInt("driver_id"),rSet.getString("from_address"),rSet.getString("from_city"),
-						rSet.getString("from_county"),rSet.getString("from_postcode"),rSet.getString("to_address"),rSet.getString("to_city"),
-						rSet.getString("to_county"),rSet.getString("to_postcode"),rSet.getString("trip_date"),rSet.getString("trip_time"));
+	 * Sets the limits of executeAsync.
+	 * @param maxConcurrent Maximum number of calls executing at the same time.
+	 * @param maxPending Maximum number of calls waiting or executing, further calls are rejected.
+	 */
+	public static synchronized void setAsyncLimits(int maxConcurrent, int maxPending){
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdown();
+		}
+		asyncExecutor = new AsyncExecutor(maxConcurrent, maxPending);
+	}
 
-				returnList.add(newTrip);
-			}
-		} catch (SQLException e) {
-			System.out.println( "Error: problem with SQL resultset : " + e.getMessage() );
+	/**
+	 * @return snapshot of the connection pool metrics.
+	 */
+	public static PoolStats getPoolStats(){
+		return getPool().getStats();
+	}
+
+	/**
+	 * Replaces the cache of read-mostly command results.
+	 * @param newCache The cache to use, or null to turn caching off.
+	 */
+	public static void setQueryCache(QueryCache newCache){
+		queryCache = newCache;
+	}
+
+	/**
+	 * Turns the coalescing of identical concurrent reads on or off. Only reads routed to the
+	 * same kind of database, the primary or a replica, are coalesced, and they fail together.
+	 * @param enabled true to share the result of a read with the identical reads arriving while it runs.
+	 */
+	public static void setCoalescing(boolean enabled){
+		singleFlight = enabled ? new SingleFlight() : null;
+	}
+
+	/**
+	 * @return snapshot of the query cache metrics, null when caching is turned off.
+	 */
+	public static CacheStats getCacheStats(){
+		QueryCache cache = queryCache;
+		return cache == null ? null : cache.getStats();
+	}
+
+	/**
+	 * Switches the SQLTranslator to an embedded in-process data store, answering the built-in
+	 * commands from memory with no round trip to the database, e.g. at an edge depot or in a
+	 * load test. execute, executeAsync, executeAll, executeBatch, executeStream, assignDriver
+	 * and autoDispatch use the store; executeColumns, which reads a ResultSet, fails.
+	 * The previous store is not closed.
+	 * @param store The store to use, or null to go back to the database.
+	 */
+	public static void setEmbeddedStore(EmbeddedStore store){
+		embeddedStore = store;
+	}
+
+	/**
+	 * Sends the write commands of execute (BOOK_TRIP, CANCEL_TRIP, ASSIGN_DRIVER and SIGN_UP)
+	 * to a local journal, acknowledging them once they are on disk, and starts replaying
+	 * the journal to the database in order. Reads see a write once it has been replayed.
+	 * ASSIGN_DRIVER is still written directly while the driver index is loaded, as it may be
+	 * refused, and so is AUTO_DISPATCH; a command the journal cannot take, e.g. when it is full,
+	 * is written directly too. These may overtake the commands waiting in the journal.
+	 * The previous journal is closed.
+	 * @param journal The journal to use, or null to write directly to the database again.
+	 */
+	public static synchronized void setWriteJournal(WriteJournal journal){
+		if (writeJournal != null && writeJournal != journal) {
+			writeJournal.close();
+		}
+		writeJournal = journal;
+		if (journal != null) {
+			journal.startReplay();
 		}
-		return returnList;
 	}
 
 	/**
-	 *Creates ArrayList of Customer objects from a passed ResultSet.
-	 */   
-	private static ArrayList<Customer> customerListBuilder(ResultSet rSet){
-		ArrayList<Customer> returnList = new ArrayList<Customer>();
+	 * @return the write journal of execute, null if the writes go directly to the database.
+	 */
+	static WriteJournal getWriteJournal(){
+		return writeJournal;
+	}
+
+	/**
+	 * Buffers the ASSIGN_DRIVER commands of execute, keeping only the latest driver of every
+	 * trip until the buffer is flushed in one transaction. The trips read meanwhile carry
+	 * the pending drivers, through execute, executeStream and executeColumns alike; which
+	 * trips a driver's VIEW_TRIP lists still follows the database. ASSIGN_DRIVER is still written directly while the driver index
+	 * is loaded, as it may be refused. A direct ASSIGN_DRIVER or CANCEL_TRIP of a trip drops
+	 * its buffered assignment. The previous buffer is flushed and closed; if its assignments
+	 * cannot be written, the new buffer takes them over, or without one the previous buffer
+	 * is kept, retrying on its interval.
+	 * @param buffer The buffer to use, or null to write every assignment directly again.
+	 * @return false if the previous buffer is kept, as its assignments could not be written.
+	 */
+	public static synchronized boolean setAssignmentBuffer(AssignmentBuffer buffer){
+		AssignmentBuffer previous = assignmentBuffer;
+		if (previous == null || previous == buffer) {
+			assignmentBuffer = buffer;
+			return true;
+		}
+		assignmentBuffer = buffer;
+		if (previous.close()) {
+			return true;
+		}
+		//the assignments are acknowledged, they must not be dropped
+		if (buffer != null) {
+			previous.handOver(buffer);
+			previous.close();
+			return true;
+		}
+		assignmentBuffer = previous;
+		LOG.warning("Error: cannot write the buffered assignments, keeping the assignment buffer : "
+				+ previous.getPending() + " pending");
+		return false;
+	}
+
+	/**
+	 * @return the feed of the committed BOOK_TRIP, CANCEL_TRIP, ASSIGN_DRIVER and SIGN_UP writes.
+	 */
+	public static ChangeFeed getChangeFeed(){
+		return changeFeed;
+	}
+
+	/**
+	 * Replaces the change feed, e.g. to change its size. The subscriptions of the previous
+	 * feed receive no more events.
+	 * @param feed The feed to publish the committed writes on.
+	 */
+	public static void setChangeFeed(ChangeFeed feed){
+		changeFeed = feed;
+	}
+
+	/**
+	 * Replaces the Authenticator checking LOGIN, e.g. to change its cache size or TTL.
+	 * @param newAuthenticator The Authenticator to use.
+	 */
+	public static void setAuthenticator(Authenticator newAuthenticator){
+		authenticator = newAuthenticator;
+	}
+
+	/**
+	 * Loads the driver availability index from the database. From then on AVAILABLE_DRIVERS
+	 * is answered from memory and ASSIGN_DRIVER refuses to double-book a driver.
+	 * @throws SQLException if the drivers and trips cannot be read.
+	 */
+	public static void loadDriverIndex() throws SQLException{
+		ConnectionPool connectionPool = SQLTranslator.getPool();
+		PooledConnection dbConnection = connectionPool.borrow();
 		try {
-			while (rSet.next()) {
-				Customer newCustomer = new Customer(rSet.getInt("CUSTOMER_ID"),rSet.getString("first_name"),rSet.getString("last_name"),rSet.getString("address"),rSet.getString("city"),
-						rSet.getString("county"),rSet.getString("postcode"),rSet.getString("email"),rSet.getString("phone_number"));
-				returnList.add(newCustomer);
-			}
-		} catch (SQLException e) {
-			System.out.println( "Error: problem with SQL resultset : " +e.getMessage() );
+			DriverAvailability index = new DriverAvailability();
+			index.load(dbConnection);
+			driverIndex = index;
+		} finally {
+			connectionPool.release(dbConnection);
 		}
-		return returnList;
 	}
 
 	/**
-	 *Creates ArrayList of Driver objects from a passed ResultSet.
+	 * Turns the driver availability index off, going back to the database for every command.
+	 */
+	public static void disableDriverIndex(){
+		driverIndex = null;
+	}
+
+	/**
+	 * @return the driver availability index, null if it is not loaded.
+	 */
+	static DriverAvailability getDriverIndex(){
+		return driverIndex;
+	}
+
+	/**
+	 * Assigns a driver to a trip. With the driver index loaded the assignment is refused
+	 * if the driver already has a trip in the same slot or someone else assigned the
+	 * trip meanwhile; without it this is the same as ASSIGN_DRIVER, going to the embedded
+	 * store, the assignment buffer or the write journal like it does in execute.
+	 * @param tripId The trip to assign.
+	 * @param driverId The driver to assign.
+	 * @return true if the assignment was committed, or accepted by the store, buffer or journal.
 	 */
-	private static ArrayList<Driver> driverListBuilder(ResultSet rSet){
-		ArrayList<Driver> returnList = new ArrayList<Driver>();
+	public static boolean assignDriver(int tripId, int driverId){
+		DriverAvailability index = driverIndex;
+		ConnectionPool connectionPool = SQLTranslator.getPool();
+		PooledConnection dbConnection = null;
+		PreparedQuery query = new PreparedQuery(Command.ASSIGN_DRIVER, ASSIGN_DRIVER_SQL, driverId, tripId);
 		try {
-			while (rSet.next()) {
-				Driver newDriver = new Driver(rSet.getInt("DRIVER_ID"), rSet.getString("first_name"), rSet.getString("last_name"),
-						rSet.getString("licence_plate"),rSet.getString("phone_no"));
-				returnList.add(newDriver);
+			try {
+				if (isRedirected(query) && executeRedirected(Command.ASSIGN_DRIVER + "," + tripId + "," + driverId, query) != null) {
+					return true;
+				}
+			} catch (IOException e) {
+				//a full or failing journal must not lose the write
+				LOG.warning("Error: cannot journal the assignment, writing it directly : " + e.getMessage());
+			}
+			dbConnection = connectionPool.borrow();
+			boolean assigned;
+			if (index != null) {
+				assigned = index.assign(dbConnection, tripId, driverId);
+			} else {
+				PreparedStatement SQLStatement = dbConnection.prepare(query.getSql());
+				query.bind(SQLStatement);
+				assigned = SQLStatement.executeUpdate() == 1;
 			}
+			if (assigned) {
+				SQLTranslator.afterWrite(query, 0);
+			}
+			return assigned;
 		} catch (SQLException e) {
-			System.out.println( "Error: problem with SQL resultset : " + e.getMessage() );
+			LOG.warning("There was an error during the SQL query : " + e.getMessage());
+			return false;
+		} finally {
+			if (dbConnection != null) {
+				connectionPool.release(dbConnection);
+			}
 		}
-		return returnList;
 	}
 
 	/**
-	 * Static method to make connection to the database.
-	 * @param dataBase URL of the database to connect.
-	 * @param driver The database driver.
-	 * @param userName The username to connect to the database.
-	 * @param passWord The password to connect to the database.
-	 * @return Connection object.
+	 * Assigns free drivers to every unassigned trip with a trip_date in the window, in one
+	 * pass: the slots are matched in parallel and the assignments written in one transaction.
+	 * Same as the command AUTO_DISPATCH,fromDate,toDate.
+	 * @param fromDate First trip_date of the window.
+	 * @param toDate Last trip_date of the window.
+	 * @return the assignments made and the trips left unassigned, null if the database failed.
 	 */
-	private static Connection connectToDB(String dataBase,String driver, String userName, String passWord ){
-		Connection  dbConnection = null;
+	public static DispatchResult autoDispatch(String fromDate, String toDate){
+		EmbeddedStore store = embeddedStore;
+		if (store != null) {
+			try {
+				ArrayList result = executeRedirected(null, new PreparedQuery(Command.AUTO_DISPATCH, DispatchResult.class,
+						AutoDispatcher.UNASSIGNED_TRIPS_SQL, fromDate, toDate));
+				return (DispatchResult) result.get(0);
+			} catch (Exception e) {
+				LOG.warning("Error: cannot dispatch in the embedded store : " + e.getMessage());
+				return null;
+			}
+		}
+		ConnectionPool connectionPool = SQLTranslator.getPool();
+		PooledConnection dbConnection = null;
 		try {
-			//Register jdbc driver
-			Class.forName(driver);
-			// establish connection to database    
-			dbConnection = DriverManager.getConnection(dataBase, userName, passWord);
-			if ( test ) {
-				System.out.println("Connected to DB!");
-			}
-			//return the database connection
-			return dbConnection;		
-		}catch (Exception exc) {
-			System.out.println("Error: cannot connect to database : " + exc.getMessage());
+			dbConnection = connectionPool.borrow();
+			return autoDispatch(dbConnection, fromDate, toDate);
+		} catch (SQLException e) {
+			LOG.warning("There was an error during the SQL query : " + e.getMessage());
 			return null;
+		} finally {
+			if (dbConnection != null) {
+				connectionPool.release(dbConnection);
+			}
 		}
 	}
 
+	private static DispatchResult autoDispatch(PooledConnection dbConnection, String fromDate, String toDate)
+			throws SQLException{
+		DispatchResult result = new AutoDispatcher(driverIndex).dispatch(dbConnection, fromDate, toDate);
+		afterDispatch(result);
+		return result;
+	}
+
 	/**
-	 * Static method to translate CSV to MYSQL statements.
-	 * @param CSV : comma separated value as a command by the client.
-	 * @return : MYSQL statement as a String.
+	 * Called after the assignments of an AUTO_DISPATCH have been committed, like afterWrite for each.
 	 */
-	//temporarily not private for testing 
-	/*private*/ static String translateCSV(String CSV) throws TranslatorException{
-		StringBuilder sql = new StringBuilder();
-		StringBuilder innerSQL;
-		String CSVParts[] = CSV.split(",");
-		switch (CSVParts[0].toUpperCase()){
+	private static void afterDispatch(DispatchResult result){
+		for (Map.Entry<Integer, Integer> assignment : result.getAssignments().entrySet()) {
+			SQLTranslator.afterWrite(new PreparedQuery(Command.ASSIGN_DRIVER, ASSIGN_DRIVER_SQL,
+					assignment.getValue(), assignment.getKey()), 0);
+		}
+	}
+
+	/**
+	 * Called after a write command has been committed, to drop the cached results it made
+	 * stale, keep the driver index current and publish the write on the change feed.
+	 * @param query The executed write query.
+	 * @param generatedId The ID the database generated for an insert, 0 if not known.
+	 */
+	static void afterWrite(PreparedQuery query, int generatedId){
+		afterWrite(query, generatedId, true);
+		supersede(query);
+	}
+
+	/**
+	 * afterWrite of a write queued before it was committed, by the assignment buffer or the
+	 * write journal: the assignments buffered since are newer, and stay pending.
+	 * @param query The executed write query.
+	 * @param generatedId The ID the database generated for an insert, 0 if not known.
+	 */
+	static void afterQueuedWrite(PreparedQuery query, int generatedId){
+		afterWrite(query, generatedId, true);
+	}
+
+	/**
+	 * Drops the buffered assignment of the trip of a direct ASSIGN_DRIVER or CANCEL_TRIP,
+	 * which a later flush would write over it.
+	 */
+	private static void supersede(PreparedQuery query){
+		AssignmentBuffer buffer = assignmentBuffer;
+		if (buffer == null) {
+			return;
+		}
+		Command command = query.getCommand();
+		if (command == Command.ASSIGN_DRIVER) {
+			buffer.superseded((Integer) query.getParams()[1]);
+		} else if (command == Command.CANCEL_TRIP) {
+			buffer.superseded((Integer) query.getParams()[0]);
+		}
+	}
+
+	/**
+	 * @param committed false for a write acknowledged but not committed yet, which is
+	 *        published when it is.
+	 */
+	private static void afterWrite(PreparedQuery query, int generatedId, boolean committed){
+		//without a router yet there are no replicas to route around
+		ReplicaRouter replicaRouter = router;
+		if (replicaRouter != null) {
+			replicaRouter.afterWrite(query, generatedId);
+		}
+		//reads starting from now on must not join a flight that may have missed the write
+		SingleFlight flights = singleFlight;
+		if (flights != null) {
+			flights.clear();
+		}
+		QueryCache cache = queryCache;
+		if (cache != null) {
+			cache.invalidate(query);
+		}
+		DriverAvailability index = driverIndex;
+		if (index != null) {
+			Object[] params = query.getParams();
+			Command command = query.getCommand();
+			if (command == Command.BOOK_TRIP) {
+				if (generatedId > 0) {
+					index.booked(generatedId, (String) params[9], (String) params[10]);
+				}
+			} else if (command == Command.CANCEL_TRIP) {
+				index.cancelled((Integer) params[0]);
+			} else if (command == Command.ASSIGN_DRIVER) {
+				index.assigned((Integer) params[1], (Integer) params[0]);
+			}
+		}
+		ChangeFeed feed = changeFeed;
+		if (committed && feed != null) {
+			feed.publish(query, generatedId);
+		}
+	}
+
+	/**
+	 * @return the per-command metrics of execute, also registered with JMX as server:type=SQLTranslator.
+	 */
+	public static TranslatorMetrics getMetrics(){
+		return metrics;
+	}
+
+	/**
+	 * Adds a listener receiving the measurements of every execute call, e.g. to forward
+	 * them to an external metrics registry.
+	 * @param listener The listener to add.
+	 */
+	public static void addMetricsListener(MetricsListener listener){
+		metrics.addListener(listener);
+	}
+
+	/**
+	 * Returns the executor of executeAsync, creating it with the pool's size on first use.
+	 */
+	private static synchronized AsyncExecutor getAsyncExecutor(){
+		if (asyncExecutor == null) {
+			int connections = getPool().getMaxSize();
+			asyncExecutor = new AsyncExecutor(connections, connections * DEFAULT_ASYNC_PENDING_PER_CONNECTION);
+		}
+		return asyncExecutor;
+	}
+
+	/**
+	 * Returns the router of the commands, over the connection pool alone unless setDataSources was called.
+	 */
+	static ReplicaRouter getRouter(){
+		ReplicaRouter current = router;
+		if (current != null) {
+			return current;
+		}
+		synchronized (SQLTranslator.class) {
+			if (router == null) {
+				router = new ReplicaRouter(getPool(), new ConnectionPool[0], DEFAULT_HEALTH_CHECK, 0);
+			}
+			return router;
+		}
+	}
+
+	/**
+	 * Returns the connection pool, creating the default one on first use.
+	 * @return ConnectionPool to the default database.
+	 */
+	static synchronized ConnectionPool getPool(){
+		if (pool == null) {
+			pool = new ConnectionPool(DEFAULT_DBURL, DRIVER, DEFAULT_USERNAME, DEFAULT_PASSWORD,
+					DEFAULT_POOL_MIN, DEFAULT_POOL_MAX, DEFAULT_BORROW_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+		}
+		return pool;
+	}
+
+	/**
+	 * Registers a command executing one SQL template, with the arguments of the CSV
+	 * bound to its parameters in order, e.g. a trip history report:
+	 *   registerCommand("TRIP_HISTORY", Trip.class, "SELECT * FROM trip WHERE cust_id=? AND trip_date >= ?",
+	 *           ArgType.INT, ArgType.STRING);
+	 * Meant to be called at startup. Registering a verb again replaces its handler.
+	 * @param verb The command verb, upper case letters, digits and underscores.
+	 * @param resultType The class the rows are mapped to, null for a command returning no rows.
+	 * @param sql The SQL template, with a ? for every argument.
+	 * @param argTypes The types of the arguments, in the order of the CSV.
+	 * @return the registered Command.
+	 * @throws IllegalArgumentException if the rows cannot be mapped to the result type by their column labels.
+	 */
+	public static Command registerCommand(String verb, Class<?> resultType, String sql, ArgType... argTypes){
+		SqlCommandHandler handler = new SqlCommandHandler(resultType, sql, argTypes);
+		return Command.register(verb, handler.getArity(), handler.getArity(), handler);
+	}
+
+	/**
+	 * Registers a command executing one SQL template whose rows are mapped by the given
+	 * RowMapper, for result types other than Trip, Driver, Customer, CreditCard and Staff:
+	 *   registerCommand("DRIVER_EARNINGS", Earnings.class, rSet -> new Earnings(rSet.getInt(1), rSet.getInt(2)),
+	 *           "SELECT driver_id, COUNT(*) FROM trip WHERE trip_date=? GROUP BY driver_id", ArgType.STRING);
+	 * Meant to be called at startup. Registering a verb again replaces its handler.
+	 * @param verb The command verb, upper case letters, digits and underscores.
+	 * @param resultType The class the rows are mapped to.
+	 * @param rowMapper Creates one object from the current row of the ResultSet.
+	 * @param sql The SQL template, with a ? for every argument.
+	 * @param argTypes The types of the arguments, in the order of the CSV.
+	 * @return the registered Command.
+	 */
+	public static <T> Command registerCommand(String verb, Class<T> resultType, RowMapper<? extends T> rowMapper,
+			String sql, ArgType... argTypes){
+		SqlCommandHandler handler = new SqlCommandHandler(resultType, rowMapper, sql, argTypes);
+		return Command.register(verb, handler.getArity(), handler.getArity(), handler);
+	}
+
+	/**
+	 * Registers a command translated by a CommandHandler, for commands picking their SQL
+	 * template from the arguments. Meant to be called at startup. Registering a verb again
+	 * replaces its handler.
+	 * @param verb The command verb, upper case letters, digits and underscores.
+	 * @param arity The number of arguments after the verb.
+	 * @param handler Translates the command to a PreparedQuery.
+	 * @return the registered Command.
+	 */
+	public static Command registerCommand(String verb, int arity, CommandHandler handler){
+		return Command.register(verb, arity, arity, handler);
+	}
+
+	/**
+	 * Registers a command with optional trailing arguments, translated by a CommandHandler.
+	 * @param verb The command verb, upper case letters, digits and underscores.
+	 * @param minArity The least number of arguments after the verb.
+	 * @param maxArity The most number of arguments after the verb.
+	 * @param handler Translates the command to a PreparedQuery.
+	 * @return the registered Command.
+	 */
+	public static Command registerCommand(String verb, int minArity, int maxArity, CommandHandler handler){
+		return Command.register(verb, minArity, maxArity, handler);
+	}
+
+	//the built-in commands
+	static {
 		//CSV command: 
 		//BOOK_TRIP,cust_id,from_address,from_city,from_county,from_postcode,to_address,to_city,to_county,to_postcode,trip_date,trip_time
-		case "BOOK_TRIP" :
-			sql.append("INSERT INTO trip (cust_id, from_address, from_city,"
-					+ " from_county, from_postcode, to_address, to_city, to_county, to_postcode,"
-					+ " trip_date, trip_time) VALUES (");
-			sql.append(CSVParts[1]);
-			sql.append(",");
-			for(int i=2; i <CSVParts.length; i++){
-				sql.append("'");
-				sql.append(CSVParts[i]);
-				sql.append("'");
-				sql.append(",");	
-			}
-			//delete the last comma
-			sql = sql.deleteCharAt(sql.length()-1);
-			sql.append(");");
-			break;
-			//CSV command: 
-			//VIEW_TRIP,cust_id
-			//OR
-			//VIEW_TRIP,driver_id
-			//OR
-			//VIEW_TRIP,NULL  (unassigned trips)
-		case "VIEW_TRIP" : 	
-			sql.append("SELECT * FROM trip WHERE ");
-			int ID = 0;
-			if ( ! CSVParts[1].equals("NULL") ){
-				ID = Integer.parseInt(CSVParts[1]);
-			}
-			if((ID >= 1000) && (ID < 3000)){sql.append("cust_id=");}
-			if(ID >= 3000) {sql.append("driver_id=");}
-			if(ID == 0) {sql.append("driver_id IS ");}
-			sql.append(CSVParts[1]);
-			sql.append(";");
-			break;
-			//CSV command: 
-			//CANCEL_TRIP,trip_id
-		case "CANCEL_TRIP" :
-			sql.append( "DELETE FROM trip WHERE trip_id=" );
-			sql.append(CSVParts[1]);
-			sql.append(";");
-			break;
-			//CSV command:
-			//ASSIGN_DRIVER,trip_id,driver_id
-		case "ASSIGN_DRIVER" :
-			sql.append("UPDATE trip SET driver_id=").append(CSVParts[2]);
-			sql.append(" WHERE trip_id=").append(CSVParts[1]); 
-			break;
-			//CSV command:
-			//SIGN_UP,first_name,last_name,address,county,city,postcode,email,phone_number
-		case "SIGN_UP" :
-			sql.append("INSERT INTO customer (first_name, last_name,"
-					+ " address, county, city, postcode, email, phone_number)  VALUES( ");
-			for(int i=1; i<CSVParts.length; i++){
-				sql.append("'");
-				sql.append(CSVParts[i]);
-				sql.append("'");
-				sql.append(",");	
-			}
-			//delete the last comma
-			sql = sql.deleteCharAt(sql.length()-1);
-			sql.append(");");
-			break;
-			//CSV command:
-			//AVAILABLE_DRIVERS,trip_date,trip_time
-		case "AVAILABLE_DRIVERS":
-			innerSQL = new StringBuilder();
-			sql.append("SELECT * FROM driver WHERE DRIVER_ID NOT IN ");
-			//using a join to connect trips to driver details 
-			innerSQL.append("(SELECT driver.DRIVER_ID FROM driver, trip WHERE driver.DRIVER_ID = "
-					+ "trip.driver_id AND (trip.trip_date LIKE '");
-			innerSQL.append(CSVParts[1]);
-			innerSQL.append("' AND trip.trip_time LIKE '"); 
-			innerSQL.append(CSVParts[2]);
-			innerSQL.append("'));");
-			sql.append(innerSQL);
-			break;
-
-			//CSV command:
-			//LOGIN,userID,password
-			//or
-			//LOGIN,email,password
-		case "LOGIN":
-			if (!CSVParts[1].contains("@")){
-			innerSQL = new StringBuilder();
-			innerSQL.append("(SELECT ID FROM password  WHERE id=");
-			innerSQL.append(CSVParts[1]);
-			innerSQL.append(" AND ");
-			innerSQL.append("pw LIKE '");
-			innerSQL.append(CSVParts[2]);
-			innerSQL.append("');");
-			if (Integer.parseInt(CSVParts[1]) < 3000 ){
-				sql.append("SELECT * FROM customer WHERE CUSTOMER_ID=");				
-			}else{
-				if (Integer.parseInt(CSVParts[1]) < 6000){
-					sql.append("SELECT * FROM driver WHERE DRIVER_ID=");
-				}
-				else{
-					sql.append("SELECT * FROM company_staff WHERE STAFF_ID=");
-				}
+		registerCommand("BOOK_TRIP", null, BOOK_TRIP_SQL, ArgType.INT, ArgType.STRING, ArgType.STRING, ArgType.STRING,
+				ArgType.STRING, ArgType.STRING, ArgType.STRING, ArgType.STRING, ArgType.STRING, ArgType.STRING, ArgType.STRING);
+		//CSV command: 
+		//VIEW_TRIP,cust_id[,page_size[,continuation_token[,from_date[,to_date]]]]
+		//OR
+		//VIEW_TRIP,driver_id[,...]
+		//OR
+		//VIEW_TRIP,NULL[,...]  (unassigned trips)
+		registerCommand("VIEW_TRIP", 1, 5, new ViewTripHandler());
+		//CSV command: 
+		//CANCEL_TRIP,trip_id
+		registerCommand("CANCEL_TRIP", null, CANCEL_TRIP_SQL, ArgType.INT);
+		//CSV command:
+		//ASSIGN_DRIVER,trip_id,driver_id
+		registerCommand("ASSIGN_DRIVER", 2, (command, CSVParts) ->
+				new PreparedQuery(command, ASSIGN_DRIVER_SQL, CSVParts.fieldInt(2), CSVParts.fieldInt(1)));
+		//CSV command:
+		//SIGN_UP,first_name,last_name,address,county,city,postcode,email,phone_number
+		registerCommand("SIGN_UP", null, SIGN_UP_SQL, ArgType.STRING, ArgType.STRING, ArgType.STRING, ArgType.STRING,
+				ArgType.STRING, ArgType.STRING, ArgType.STRING, ArgType.STRING);
+		//CSV command:
+		//AVAILABLE_DRIVERS,trip_date,trip_time
+		registerCommand("AVAILABLE_DRIVERS", Driver.class, AVAILABLE_DRIVERS_SQL, ArgType.STRING, ArgType.STRING);
+		//CSV command:
+		//LOGIN,userID,password
+		//or
+		//LOGIN,email,password
+		registerCommand("LOGIN", 2, (command, CSVParts) -> {
+			//the lookup binds the ID or email only, the password is checked by the Authenticator
+			if (CSVParts.fieldContains(1, '@')){
+				return PreparedQuery.login(command, Customer.class, Authenticator.CUSTOMER_BY_EMAIL_SQL, CSVParts.field(1), CSVParts.field(2));
+			}
+			int userID = CSVParts.fieldInt(1);
+			if (userID < 3000 ){
+				return PreparedQuery.login(command, Customer.class, Authenticator.CUSTOMER_BY_ID_SQL, userID, CSVParts.field(2));
+			}
+			if (userID < 6000){
+				return PreparedQuery.login(command, Driver.class, Authenticator.DRIVER_BY_ID_SQL, userID, CSVParts.field(2));
 			}
-			sql.append(innerSQL);
-			}
-			else{
-			sql.append("SELECT * FROM customer JOIN password ON customer.CUSTOMER_ID = password.ID where password.pw LIKE '");
-			sql.append(CSVParts[2]);
-			sql.append("' AND customer.email LIKE '");
-			sql.append(CSVParts[1]);
-			sql.append("';");
-			}
-			break;			
-			//CSV command: 
-			//GET_CARDS,userID
-		case "GET_CARDS":
-			sql.append( "SELECT * FROM card_info WHERE cust_id=" );
-			sql.append(CSVParts[1]);
-			break;
-		default:
+			return PreparedQuery.login(command, Staff.class, Authenticator.STAFF_BY_ID_SQL, userID, CSVParts.field(2));
+		});
+		//CSV command: 
+		//GET_CARDS,userID
+		registerCommand("GET_CARDS", CreditCard.class, GET_CARDS_SQL, ArgType.INT);
+		//CSV command:
+		//AUTO_DISPATCH,from_date,to_date
+		//the query lists the trips to dispatch, the dispatch itself runs in execute
+		registerCommand("AUTO_DISPATCH", 2, (command, CSVParts) -> new PreparedQuery(command, DispatchResult.class,
+				AutoDispatcher.UNASSIGNED_TRIPS_SQL, CSVParts.field(1), CSVParts.field(2)));
+	}
+
+	/**
+	 * Static method to translate CSV to MYSQL statements.
+	 * The verb is looked up in the registered commands, and its CommandHandler maps the
+	 * CSV fields to the typed parameters of its SQL template.
+	 * @param CSV : comma separated value as a command by the client.
+	 * @return : PreparedQuery holding the SQL template and its parameters.
+	 */
+	//temporarily not private for testing 
+	/*private*/ static PreparedQuery translateCSV(String CSV) throws TranslatorException{
+		CSVTokenizer CSVParts = TOKENIZER.get().reset(CSV);
+		Command command = CSVParts.command();
+		CommandHandler handler = command == null ? null : command.getHandler();
+		if (handler == null){
 			throw new TranslatorException("Unrecognised command!");
 		}
-		return sql.toString();	
+		checkArity(CSVParts, command);
+		return handler.translate(command, CSVParts);
+	}
+
+	/**
+	 * Checks that the command has an accepted number of arguments (the fields after the command itself).
+	 */
+	private static void checkArity(CSVTokenizer CSVParts, Command command) throws TranslatorException{
+		int arguments = CSVParts.fieldCount() - 1;
+		if (arguments < command.getMinArity() || arguments > command.getMaxArity()){
+			String expected = command.getMinArity() == command.getMaxArity() ? String.valueOf(command.getMinArity())
+					: command.getMinArity() + " to " + command.getMaxArity();
+			throw new TranslatorException("Wrong number of arguments for " + command + ": expected "
+					+ expected + ", got " + arguments);
+		}
 	}
 
 	/**
 	 * The only public method, the class can be reached through to translate and execute 
 	 * comma separated commands into SQL queries  and convert the ResultSet to an 
 	 * ArrayList of relevant objects.
+	 * VIEW_TRIP with a page size returns one page of trips, as a TripPage holding the
+	 * continuation token to pass for the next page.
 	 * @param CSV
 	 * @return ArrayList created from the SQL ResultSet
 	 */
 
 	public static ArrayList execute(String CSV){
-		Connection dbConnection = null;
-		Statement SQLStatement = null;
-		ResultSet SQLResultset = null;
-		//the arraylist created from the resultset
-		ArrayList returnList = new ArrayList();
-		
-		if (test ) { 
-			System.out.println("Test : ON");
+		return execute(CSV, null);
+	}
+
+	/**
+	 * Answers a query from memory: AVAILABLE_DRIVERS from the driver index, repeated logins
+	 * from the login cache and read-mostly commands from the query cache.
+	 * @return the result, or null if the query must go to the database.
+	 */
+	private static ArrayList fromMemory(PreparedQuery query){
+		DriverAvailability index = driverIndex;
+		if (index != null && query.getCommand() == Command.AVAILABLE_DRIVERS) {
+			return index.available((String) query.getParams()[0], (String) query.getParams()[1]);
+		}
+		if (query.getCommand() == Command.LOGIN) {
+			return authenticator.loginFromCache(query);
+		}
+		QueryCache cache = queryCache;
+		if (cache != null && QueryCache.isCacheable(query)) {
+			ArrayList cached = cache.get(QueryCache.keyOf(query));
+			if (cached != null) {
+				LOG.fine("Result served from the cache!");
+				return new ArrayList(cached);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Executes the commands that are not a plain run of their SQL template: LOGIN,
+	 * AUTO_DISPATCH, and ASSIGN_DRIVER while the driver index is loaded.
+	 * @return the result, or null if the query is run as its SQL template.
+	 */
+	private static ArrayList executeSpecial(PooledConnection dbConnection, PreparedQuery query) throws SQLException{
+		if (!isSpecial(query)) {
+			return null;
+		}
+		Command command = query.getCommand();
+		if (command == Command.LOGIN) {
+			return authenticator.login(dbConnection, query);
+		}
+		if (command == Command.AUTO_DISPATCH) {
+			//the result is a single DispatchResult
+			ArrayList returnList = new ArrayList();
+			returnList.add(SQLTranslator.autoDispatch(dbConnection, (String) query.getParams()[0],
+					(String) query.getParams()[1]));
+			return returnList;
+		}
+		//ASSIGN_DRIVER, checked against the driver index and written with an optimistic guard
+		DriverAvailability index = driverIndex;
+		if (index == null) {
+			return null;
+		}
+		if (index.assign(dbConnection, (Integer) query.getParams()[1], (Integer) query.getParams()[0])) {
+			SQLTranslator.afterWrite(query, 0);
+		} else {
+			LOG.warning("Error: driver assignment refused : " + query);
+		}
+		return new ArrayList();
+	}
+
+	/**
+	 * @return true if executeSpecial runs the query.
+	 */
+	private static boolean isSpecial(PreparedQuery query){
+		Command command = query.getCommand();
+		return command == Command.LOGIN || command == Command.AUTO_DISPATCH
+				|| (command == Command.ASSIGN_DRIVER && driverIndex != null);
+	}
+
+	/**
+	 * @return true if execute sends the query to the write journal.
+	 */
+	private static boolean isJournaled(PreparedQuery query){
+		Command command = query.getCommand();
+		return (command == Command.BOOK_TRIP || command == Command.CANCEL_TRIP || command == Command.SIGN_UP
+				|| command == Command.ASSIGN_DRIVER) && !isSpecial(query);
+	}
+
+	/**
+	 * @return true if executeRedirected runs the query instead of the database.
+	 */
+	//not private for the BatchExecutor
+	/*private*/ static boolean isRedirected(PreparedQuery query){
+		return embeddedStore != null
+				|| (assignmentBuffer != null && query.getCommand() == Command.ASSIGN_DRIVER && !isSpecial(query))
+				|| (writeJournal != null && isJournaled(query));
+	}
+
+	/**
+	 * Runs a query the embedded store, the assignment buffer or the write journal takes
+	 * instead of the database.
+	 * @param CSV The command the query was translated from, for the journal.
+	 * @return the result, empty for a write, or null if the query goes to the database.
+	 */
+	//not private for the BatchExecutor
+	/*private*/ static ArrayList executeRedirected(String CSV, PreparedQuery query) throws SQLException, IOException{
+		//the embedded store answers from memory, the caches have nothing to add
+		EmbeddedStore store = embeddedStore;
+		if (store != null) {
+			if (!query.isQuery()) {
+				SQLTranslator.afterWrite(query, store.executeWrite(query));
+				return new ArrayList();
+			}
+			ArrayList result = store.execute(query);
+			if (query.getCommand() == Command.AUTO_DISPATCH) {
+				afterDispatch((DispatchResult) result.get(0));
+			}
+			return result;
+		}
+		//only the latest driver of the trip is written, when the buffer is flushed
+		AssignmentBuffer buffer = assignmentBuffer;
+		if (buffer != null && query.getCommand() == Command.ASSIGN_DRIVER && !isSpecial(query)) {
+			buffer.assign((Integer) query.getParams()[1], (Integer) query.getParams()[0]);
+			SQLTranslator.afterWrite(query, 0, false);
+			return new ArrayList();
 		}
-		else{
-			System.out.println("Test : OFF");
+		//acknowledged at journal speed, the write reaches the database when the journal is replayed
+		WriteJournal journal = writeJournal;
+		if (journal != null && isJournaled(query)) {
+			journal.append(CSV);
+			//the journal replays it after the buffered assignments appended so far
+			supersede(query);
+			return new ArrayList();
+		}
+		return null;
+	}
+
+	/**
+	 * Maps the rows of a query to the objects it returns; a page of trips carries the token of the next page.
+	 */
+	private static ArrayList mapRows(PreparedQuery query, ResultSet SQLResultset) throws SQLException{
+		RowMapper mapper = RowMappers.forQuery(query, SQLResultset.getMetaData());
+		//trips with a buffered assignment carry their pending driver
+		AssignmentBuffer buffer = assignmentBuffer;
+		if (buffer != null && query.getResultType() == Trip.class && !buffer.isEmpty()) {
+			mapper = RowMappers.forTrips(SQLResultset.getMetaData(), buffer);
+		}
+		return query.getPageSize() > 0 ? TripPage.read(SQLResultset, mapper, query.getPageSize())
+				: listBuilder(SQLResultset, mapper);
+	}
+
+	/**
+	 * @return a copy of a result list, keeping the continuation token of a TripPage.
+	 */
+	private static ArrayList copyOf(ArrayList<?> result){
+		return result instanceof TripPage ? ((TripPage) result).copy() : new ArrayList(result);
+	}
+
+	/**
+	 * Asynchronous variant of execute, running on a virtual thread. At most as many calls
+	 * as the connection pool has connections execute at once, the rest wait; when too many
+	 * calls are waiting the future fails with a RejectedExecutionException.
+	 * Cancelling the future cancels the running SQL statement. Where execute logs an error
+	 * and returns an empty list, the future fails with the error.
+	 * @param CSV The comma separated command.
+	 * @return future of the ArrayList created from the SQL ResultSet.
+	 */
+	public static CompletableFuture<List<?>> executeAsync(String CSV){
+		return getAsyncExecutor().submit(CSV);
+	}
+
+	/**
+	 * Runs the independent sub-commands of a staff report at once, e.g. a registered trip report
+	 * command split into date shards with dateShards, AVAILABLE_DRIVERS and customer lookups,
+	 * each on its own pooled connection through executeAsync, and merges their results.
+	 * The sub-commands still running at the deadline are cancelled, and the report returned
+	 * without their rows is marked partial; so is one for a failed or rejected sub-command.
+	 * @param csvCommands The comma separated sub-commands.
+	 * @param deadlineMillis How long to wait for the sub-commands.
+	 * @return the trips, drivers, customers and other objects of the completed sub-commands, in order.
+	 */
+	public static ReportResult executeReport(List<String> csvCommands, long deadlineMillis){
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+		List<CompletableFuture<List<?>>> futures = new ArrayList<CompletableFuture<List<?>>>(csvCommands.size());
+		for (String CSV : csvCommands) {
+			futures.add(executeAsync(CSV));
 		}
-		
 		try {
-			// establish connection to the default database    
-			dbConnection = SQLTranslator.connectToDB(DEFAULT_DBURL, DRIVER, DEFAULT_USERNAME, DEFAULT_PASSWORD);
-			if ( test ) {
-				System.out.println("Creating statement objects!");
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+					.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			//a partial report, the failed or late sub-commands are left out below
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<List<?>> results = new ArrayList<List<?>>(futures.size());
+		for (CompletableFuture<List<?>> future : futures) {
+			if (future.isDone() && !future.isCompletedExceptionally()) {
+				results.add(future.join());
+			} else {
+				future.cancel(true);
+				results.add(null);
 			}
-			//Create a statement object
-			SQLStatement = dbConnection.createStatement();
+		}
+		ReportResult report = ReportResult.merge(results);
+		if (report.isPartial()) {
+			LOG.warning("Error: partial report, " + report.getCompleted() + "/" + report.getCommandCount()
+					+ " commands completed in " + deadlineMillis + "ms");
+		}
+		return report;
+	}
+
+	/**
+	 * Splits a date range into contiguous shards of about the same number of days, e.g. for
+	 * executeReport to read the trips of each shard on its own connection:
+	 * dateShards("TRIP_REPORT,Yorkshire", "2016-05-01", "2016-05-31", 4) returns
+	 * "TRIP_REPORT,Yorkshire,2016-05-01,2016-05-07", ..., "TRIP_REPORT,Yorkshire,2016-05-24,2016-05-31".
+	 * @param CSVPrefix The command and the arguments before the dates.
+	 * @param fromDate The first day, as yyyy-MM-dd.
+	 * @param toDate The last day, as yyyy-MM-dd.
+	 * @param shards The number of shards, fewer if the range has fewer days.
+	 * @return the commands of the shards, in date order.
+	 */
+	public static List<String> dateShards(String CSVPrefix, String fromDate, String toDate, int shards){
+		LocalDate from;
+		LocalDate to;
+		try {
+			from = LocalDate.parse(fromDate.trim());
+			to = LocalDate.parse(toDate.trim());
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("Invalid date range: " + fromDate + " - " + toDate);
+		}
+		long days = ChronoUnit.DAYS.between(from, to) + 1;
+		if (days < 1 || shards < 1) {
+			throw new IllegalArgumentException("Invalid date shards: " + fromDate + " - " + toDate + " in " + shards);
+		}
+		int count = (int) Math.min(shards, days);
+		List<String> commands = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			LocalDate first = from.plusDays(days * i / count);
+			LocalDate last = from.plusDays(days * (i + 1) / count - 1);
+			commands.add(CSVPrefix + "," + first + "," + last);
+		}
+		return commands;
+	}
+
+	/**
+	 * Implementation of execute.
+	 * @param CSV The comma separated command.
+	 * @param handle Handle to cancel the query through, or null.
+	 * @return ArrayList created from the SQL ResultSet
+	 */
+	static ArrayList execute(String CSV, QueryHandle handle){
+		long startTime = System.nanoTime();
+		ConnectionPool connectionPool = null;
+		PooledConnection dbConnection = null;
+		ResultSet SQLResultset = null;
+		PreparedQuery query = null;
+		//the arraylist created from the resultset
+		ArrayList returnList = new ArrayList();
+		//the flight led by this call, landed with the result when the call ends
+		SingleFlight flights = null;
+		String flightKey = null;
+		CompletableFuture<ArrayList<?>> flight = null;
+		Exception failure = null;
 
+		try {
 			//translate the CSV:
-			String SQLString= new String();
 			try{
-				SQLString = SQLTranslator.translateCSV(CSV);
+				query = SQLTranslator.translateCSV(CSV);
 			}catch (TranslatorException te){
-				te.printStackTrace();
+				LOG.log(Level.WARNING, "Error: cannot translate the command : " + te.getMessage(), te);
+				if (handle != null) {
+					handle.failed(te);
+				}
+				return returnList;
 			}
-			if ( test ) {
-				System.out.println("The created SQL query is: "  + SQLString);
+			long translatedTime = System.nanoTime();
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("The created SQL query is: " + query);
 			}
 
-			//Execute SQL query
-			if (SQLString.startsWith("SELECT")){
-				SQLResultset = SQLStatement.executeQuery(SQLString);
-			}
-			else{
-				boolean success = SQLStatement.execute(SQLString);
+			//the embedded store, the assignment buffer or the write journal takes it instead of the database
+			ArrayList redirected;
+			try {
+				redirected = executeRedirected(CSV, query);
+			} catch (IOException e) {
+				//a full or failing journal must not lose the write
+				LOG.warning("Error: cannot journal the command, writing it directly : " + e.getMessage());
+				redirected = null;
 			}
-			
-			//TODO : check this
-			//if the resultset is empty we return an empty ArrayList
-			if (SQLResultset == null) {
+			if (redirected != null) {
+				returnList = redirected;
+				long executedTime = System.nanoTime();
+				metrics.record(query.getCommand(), translatedTime - startTime, 0, executedTime - translatedTime, 0,
+						executedTime - startTime, returnList.size());
 				return returnList;
 			}
 
-			if ( test ) {
-				System.out.println("The first column's name of the resultset: " + SQLResultset.getMetaData().getColumnName(1));
+			//answer from the driver index, the login cache or the query cache
+			ArrayList remembered = fromMemory(query);
+			if (remembered != null) {
+				metrics.recordCacheHit(query.getCommand(), translatedTime - startTime, System.nanoTime() - startTime,
+						remembered.size());
+				return remembered;
 			}
-			//Process the result set:
-			//creates  a list of trip objects from resultset
-			if(SQLResultset.getMetaData().getColumnName(1).equals("TRIP_ID")){
-				if ( test ) {
-					System.out.println("Building triplist from resultset!");
-				}
-				returnList = tripListBuilder(SQLResultset);
+			QueryCache cache = queryCache;
+			String cacheKey = null;
+			long cacheGeneration = 0;
+			if (cache != null && QueryCache.isCacheable(query)) {
+				cacheKey = QueryCache.keyOf(query);
+				cacheGeneration = cache.generation();
 			}
-			//creates  a list of driver objects from resultset
-			if (SQLResultset.getMetaData().getColumnName(1).equals("DRIVER_ID")){
-				if ( test ) {
-					System.out.println("Building driver list from resultset!");
+
+			ReplicaRouter replicaRouter = getRouter();
+			connectionPool = replicaRouter.route(query);
+
+			//share the result of an identical read in flight to the same kind of database
+			flights = singleFlight;
+			if (flights != null && ReplicaRouter.isRead(query) && query.getCommand() != Command.LOGIN) {
+				flightKey = (cacheKey != null ? cacheKey : QueryCache.keyOf(query))
+						+ (connectionPool == replicaRouter.getPrimary() ? "\u0000primary" : "\u0000replica");
+				flight = new CompletableFuture<ArrayList<?>>();
+				CompletableFuture<ArrayList<?>> inFlight = flights.join(flightKey, flight);
+				if (inFlight != null) {
+					flight = null;
+					ArrayList<?> shared;
+					try {
+						shared = inFlight.join();
+					} catch (CompletionException e) {
+						//the same query failed for the call leading the flight
+						throw new SQLException("The query of the call in flight failed : " + e.getCause().getMessage(),
+								e.getCause());
+					}
+					if (shared != null) {
+						metrics.recordCoalesced(query.getCommand(), translatedTime - startTime, System.nanoTime() - startTime,
+								shared.size());
+						return copyOf(shared);
+					}
+					//the call leading the flight was cancelled, run the query as a call of its own
 				}
-				returnList = driverListBuilder(SQLResultset);
 			}
-			//creates  a list of customers objects from resultset
-			if (SQLResultset.getMetaData().getColumnName(1).equals("CUSTOMER_ID")){
-				if ( test ) {
-					System.out.println("Building customer list from resultset!");
+
+			// borrow a connection from the pool of the primary, or of a replica for a read
+			try {
+				dbConnection = connectionPool.borrow();
+			} catch (SQLException e) {
+				//a replica gone down since its last health check: read from the primary; a busy
+				//replica fails the read, like a busy primary would
+				if (connectionPool == replicaRouter.getPrimary() || !ReplicaRouter.isConnectionFailure(e)) {
+					throw e;
 				}
-				returnList = customerListBuilder(SQLResultset); 
+				replicaRouter.markDown(connectionPool, e);
+				connectionPool = replicaRouter.getPrimary();
+				dbConnection = connectionPool.borrow();
 			}
+			long connectedTime = System.nanoTime();
+			ArrayList special = executeSpecial(dbConnection, query);
+			if (special != null) {
+				returnList = special;
+			} else {
+				//the statement is prepared once per connection and cached, it must not be closed here
+				PreparedStatement SQLStatement = dbConnection.prepare(query.getSql());
+				query.bind(SQLStatement);
 
-			if (SQLResultset.getMetaData().getColumnName(2).equals("CARD_NO")){
-				if ( test ) {
-					System.out.println("Building creditcard list from resultset!");
+				//Execute SQL query
+				if (handle != null) {
+					handle.start(SQLStatement);
+				}
+				if (query.isQuery()){
+					SQLResultset = SQLStatement.executeQuery();
+				}
+				else{
+					SQLStatement.executeUpdate();
+					SQLTranslator.afterWrite(query, generatedId(query, SQLStatement));
 				}
-				returnList = creditcardListBuilder(SQLResultset);
 			}
+			long executedTime = System.nanoTime();
 
-			if (SQLResultset.getMetaData().getColumnName(1).equals("STAFF_ID")){
-				if ( test ) {
-					System.out.println("Building staff list from resultset!");
+			if (SQLResultset != null) {
+				//Process the result set:
+				//creates a list of the objects the command returns (trips, drivers, customers, cards or staff)
+				if (LOG.isLoggable(Level.FINE)) {
+					LOG.fine("Building " + query.getResultType().getSimpleName() + " list from resultset!");
+				}
+				returnList = mapRows(query, SQLResultset);
+				if (cacheKey != null) {
+					cache.put(query, cacheKey, new ArrayList(returnList), cacheGeneration);
 				}
-				returnList = staffListBuilder(SQLResultset);
 			}
+			long mappedTime = System.nanoTime();
+			metrics.record(query.getCommand(), translatedTime - startTime, connectedTime - translatedTime,
+					executedTime - connectedTime, mappedTime - executedTime, mappedTime - startTime, returnList.size());
 		}
 		catch (Exception exc) {
-			System.out.println( "There was an error during the SQL query : " + exc.getMessage());
+			failure = exc;
+			if (handle != null) {
+				handle.failed(exc);
+			}
+			LOG.warning("There was an error during the SQL query : " + exc.getMessage());
+			if (query != null) {
+				metrics.recordError(query.getCommand());
+			}
 		}
 		//closing resources 
 		finally {
+			//the statement may be cancelled until its rows have been read
+			if (handle != null) {
+				handle.finish();
+			}
+			if (flight != null) {
+				boolean cancelled = handle != null && handle.isCancelled();
+				if (failure != null && !cancelled) {
+					flights.fail(flightKey, flight, failure);
+				} else {
+					flights.land(flightKey, flight, cancelled ? null : copyOf(returnList));
+				}
+			}
 			if (SQLResultset != null) {
 				try {
 					SQLResultset.close();
 				} catch (SQLException e) {
-					System.out.println( "Error during closing the connection to the database : " + e.getMessage() );
+					LOG.warning("Error during closing the connection to the database : " + e.getMessage());
 				}
 			}
 
-			if (SQLStatement != null) {
+			//give the connection back to the pool instead of closing it
+			if (dbConnection != null) {
+				connectionPool.release(dbConnection);
+			}
+		}
+		return returnList;	
+	}	
+
+	/**
+	 * Translates and executes a sequence of commands on one pooled connection, e.g. the LOGIN,
+	 * GET_CARDS and VIEW_TRIP of a client screen, instead of borrowing a connection for each.
+	 * The commands run in order; a run of consecutive write commands with the same SQL template,
+	 * which do not read each other's results, is sent to the database as one JDBC batch.
+	 * Reads are still answered from the caches when they can be.
+	 * @param csvCommands The comma separated commands.
+	 * @return the result of every command in order, as execute returns it; empty for a command that failed.
+	 */
+	public static List<ArrayList<?>> executeAll(String... csvCommands){
+		long startTime = System.nanoTime();
+		List<ArrayList<?>> results = new ArrayList<ArrayList<?>>(csvCommands.length);
+		//the writes must go through the store, the journal or the buffer like they do in execute
+		if (embeddedStore != null || writeJournal != null || assignmentBuffer != null) {
+			for (String CSV : csvCommands) {
+				results.add(execute(CSV));
+			}
+			return results;
+		}
+		PreparedQuery[] queries = new PreparedQuery[csvCommands.length];
+		for (int i = 0; i < csvCommands.length; i++) {
+			results.add(new ArrayList<Object>());
+			try {
+				queries[i] = SQLTranslator.translateCSV(csvCommands[i]);
+			} catch (TranslatorException te) {
+				LOG.log(Level.WARNING, "Error: cannot translate the command : " + te.getMessage(), te);
+			}
+		}
+		long translateNanos = (System.nanoTime() - startTime) / Math.max(1, csvCommands.length);
+
+		//one replica can take the whole sequence only if every command would be routed to one
+		ReplicaRouter replicaRouter = getRouter();
+		ConnectionPool connectionPool = null;
+		for (PreparedQuery query : queries) {
+			if (query != null) {
+				ConnectionPool route = replicaRouter.route(query);
+				connectionPool = connectionPool == null || route == replicaRouter.getPrimary() ? route : connectionPool;
+			}
+		}
+		PooledConnection dbConnection = null;
+		try {
+			int start = 0;
+			while (start < queries.length) {
+				PreparedQuery query = queries[start];
+				if (query == null) {
+					start++;
+					continue;
+				}
+				long commandStart = System.nanoTime();
+				if (ReplicaRouter.isRead(query)) {
+					ArrayList remembered = fromMemory(query);
+					if (remembered != null) {
+						results.set(start, remembered);
+						metrics.recordCacheHit(query.getCommand(), translateNanos, translateNanos + System.nanoTime() - commandStart,
+								remembered.size());
+						start++;
+						continue;
+					}
+				}
+				//borrowed once the first command needs the database
+				if (dbConnection == null) {
+					try {
+						dbConnection = connectionPool.borrow();
+					} catch (SQLException e) {
+						//a replica gone down since its last health check: read from the primary; a busy
+						//replica fails the read, like a busy primary would
+						if (connectionPool == replicaRouter.getPrimary() || !ReplicaRouter.isConnectionFailure(e)) {
+							throw e;
+						}
+						replicaRouter.markDown(connectionPool, e);
+						connectionPool = replicaRouter.getPrimary();
+						dbConnection = connectionPool.borrow();
+					}
+				}
+				//extend a run of plain writes while the next command uses the same template
+				int end = start + 1;
+				if (!query.isQuery() && !isSpecial(query)) {
+					while (end < queries.length && end - start < DEFAULT_BATCH_SIZE && queries[end] != null
+							&& queries[end].getSql().equals(query.getSql()) && !isSpecial(queries[end])) {
+						end++;
+					}
+				}
+				if (end - start > 1) {
+					executeAllBatch(dbConnection, queries, start, end, translateNanos);
+				} else {
+					results.set(start, executeAllSingle(dbConnection, query, translateNanos));
+				}
+				start = end;
+			}
+		} catch (SQLException e) {
+			LOG.warning("There was an error during the SQL query : " + e.getMessage());
+		} finally {
+			if (dbConnection != null) {
+				connectionPool.release(dbConnection);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Runs one command of executeAll.
+	 * @return the result, empty if the command failed.
+	 */
+	private static ArrayList executeAllSingle(PooledConnection dbConnection, PreparedQuery query, long translateNanos){
+		long startTime = System.nanoTime();
+		try {
+			ArrayList returnList = executeSpecial(dbConnection, query);
+			long executedTime;
+			if (returnList == null) {
+				PreparedStatement SQLStatement = dbConnection.prepare(query.getSql());
+				query.bind(SQLStatement);
+				if (query.isQuery()) {
+					QueryCache cache = queryCache;
+					boolean cacheable = cache != null && QueryCache.isCacheable(query);
+					long cacheGeneration = cacheable ? cache.generation() : 0;
+					try (ResultSet SQLResultset = SQLStatement.executeQuery()) {
+						executedTime = System.nanoTime();
+						returnList = mapRows(query, SQLResultset);
+					}
+					if (cacheable) {
+						cache.put(query, QueryCache.keyOf(query), new ArrayList(returnList), cacheGeneration);
+					}
+				} else {
+					SQLStatement.executeUpdate();
+					executedTime = System.nanoTime();
+					SQLTranslator.afterWrite(query, generatedId(query, SQLStatement));
+					returnList = new ArrayList();
+				}
+			} else {
+				executedTime = System.nanoTime();
+			}
+			long mappedTime = System.nanoTime();
+			metrics.record(query.getCommand(), translateNanos, 0, executedTime - startTime, mappedTime - executedTime,
+					translateNanos + mappedTime - startTime, returnList.size());
+			return returnList;
+		} catch (SQLException e) {
+			LOG.warning("There was an error during the SQL query : " + e.getMessage());
+			metrics.recordError(query.getCommand());
+			return new ArrayList();
+		}
+	}
+
+	/**
+	 * Runs the writes queries[start..end) of executeAll, which share the same template, as one
+	 * JDBC batch. Every command commits on its own, as it would with execute, so a failed
+	 * command does not undo the others: a driver going on past it (as H2 and MySQL do) has
+	 * also committed the commands after it.
+	 */
+	private static void executeAllBatch(PooledConnection dbConnection, PreparedQuery[] queries, int start, int end,
+			long translateNanos) throws SQLException{
+		long startTime = System.nanoTime();
+		PreparedStatement SQLStatement = dbConnection.prepare(queries[start].getSql());
+		boolean[] done = new boolean[end - start];
+		int succeeded = 0;
+		try {
+			for (int i = start; i < end; i++) {
+				queries[i].bind(SQLStatement);
+				SQLStatement.addBatch();
+			}
+			SQLStatement.executeBatch();
+			Arrays.fill(done, true);
+			succeeded = done.length;
+		} catch (BatchUpdateException e) {
+			LOG.warning("There was an error during the SQL query : " + e.getMessage());
+			//a count for every command if the driver went on past the failed ones, else only for those before
+			int[] counts = e.getUpdateCounts();
+			for (int i = 0; counts != null && i < counts.length && i < done.length; i++) {
+				if (counts[i] != Statement.EXECUTE_FAILED) {
+					done[i] = true;
+					succeeded++;
+				}
+			}
+			SQLStatement.clearBatch();
+		}
+		long executedTime = System.nanoTime();
+		int[] ids = new int[end - start];
+		Command command = queries[start].getCommand();
+		if (succeeded > 0 && (command == Command.BOOK_TRIP || command == Command.SIGN_UP)) {
+			//one key for every command executed, in order
+			try (ResultSet keys = SQLStatement.getGeneratedKeys()) {
+				int i = 0;
+				while (keys.next()) {
+					while (i < done.length && !done[i]) {
+						i++;
+					}
+					if (i == done.length) {
+						break;
+					}
+					ids[i++] = keys.getInt(1);
+				}
+			}
+		}
+		long batchNanos = (executedTime - startTime) / (end - start);
+		for (int i = start; i < end; i++) {
+			if (done[i - start]) {
+				SQLTranslator.afterWrite(queries[i], ids[i - start]);
+				metrics.record(command, translateNanos, 0, batchNanos, 0, translateNanos + batchNanos, 0);
+			} else {
+				metrics.recordError(command);
+			}
+		}
+	}
+
+	/**
+	 * Translates and executes a list of write commands (BOOK_TRIP, SIGN_UP, CANCEL_TRIP,
+	 * ASSIGN_DRIVER) on one connection, sending consecutive commands of the same type
+	 * as JDBC batches of the default size, one transaction per batch.
+	 * @param csvCommands The comma separated commands.
+	 * @return one BatchResult per command, in the same order.
+	 */
+	public static List<BatchResult> executeBatch(List<String> csvCommands){
+		return executeBatch(csvCommands, DEFAULT_BATCH_SIZE, false);
+	}
+
+	/**
+	 * Translates and executes a list of write commands on one connection, sending
+	 * consecutive commands of the same type as JDBC batches, one transaction per batch.
+	 * A failing command rolls back (and fails) its whole batch. The commands the embedded
+	 * store, the assignment buffer or the write journal take in execute go there instead,
+	 * and ASSIGN_DRIVER is checked against the driver index while it is loaded.
+	 * @param csvCommands The comma separated commands.
+	 * @param batchSize Maximum number of commands in one batch.
+	 * @param multiRowInserts true to send BOOK_TRIP and SIGN_UP batches as one multi-row INSERT.
+	 * @return one BatchResult per command, in the same order.
+	 */
+	public static List<BatchResult> executeBatch(List<String> csvCommands, int batchSize, boolean multiRowInserts){
+		return new BatchExecutor(SQLTranslator.getPool(), batchSize, multiRowInserts).execute(csvCommands);
+	}
+
+	/**
+	 * @return the TRIP_ID generated by a BOOK_TRIP, 0 for other commands or if the driver does not tell.
+	 */
+	//not private for the WriteJournal
+	/*private*/ static int generatedId(PreparedQuery query, PreparedStatement SQLStatement) throws SQLException{
+		if (query.getCommand() != Command.BOOK_TRIP && query.getCommand() != Command.SIGN_UP) {
+			return 0;
+		}
+		try (ResultSet keys = SQLStatement.getGeneratedKeys()) {
+			return keys.next() ? keys.getInt(1) : 0;
+		}
+	}
+
+	/**
+	 * Streaming variant of execute for commands returning many rows, e.g. VIEW_TRIP,NULL.
+	 * The rows are fetched from the database and mapped to objects one at a time while the
+	 * stream is consumed, instead of being collected into an ArrayList first.
+	 * The stream holds a pooled connection until it is closed, so it must be used in a
+	 * try-with-resources block. A VIEW_TRIP is streamed whole, ignoring its page size.
+	 * @param CSV The comma separated command.
+	 * @param type The class of the objects the command returns, e.g. Trip.class.
+	 * @return Stream of the mapped rows, empty if the command failed or is not a query.
+	 */
+	public static <T> Stream<T> executeStream(String CSV, Class<T> type){
+		ConnectionPool connectionPool = null;
+		PooledConnection dbConnection = null;
+		PreparedStatement SQLStatement = null;
+		ResultSet SQLResultset = null;
+		try {
+			PreparedQuery query = ViewTripHandler.unpaged(SQLTranslator.translateCSV(CSV));
+			//LOGIN checks the password and AUTO_DISPATCH writes, they are not a plain run of their SQL
+			if (!query.isQuery() || isSpecial(query)) {
+				LOG.warning("Error: only queries can be streamed : " + query.getCommand());
+				return Stream.empty();
+			}
+			if (!type.isAssignableFrom(query.getResultType())) {
+				throw new IllegalArgumentException(query.getCommand() + " returns " + query.getResultType().getSimpleName()
+						+ ", not " + type.getSimpleName());
+			}
+			//the embedded store has the rows in memory already
+			EmbeddedStore store = embeddedStore;
+			if (store != null) {
+				ArrayList<T> rows = store.execute(query);
+				return rows.stream();
+			}
+			ReplicaRouter replicaRouter = getRouter();
+			connectionPool = replicaRouter.route(query);
+			try {
+				dbConnection = connectionPool.borrow();
+			} catch (SQLException e) {
+				//a replica gone down since its last health check: read from the primary; a busy
+				//replica fails the read, like a busy primary would
+				if (connectionPool == replicaRouter.getPrimary() || !ReplicaRouter.isConnectionFailure(e)) {
+					throw e;
+				}
+				replicaRouter.markDown(connectionPool, e);
+				connectionPool = replicaRouter.getPrimary();
+				dbConnection = connectionPool.borrow();
+			}
+			SQLStatement = dbConnection.prepare(query.getSql());
+			query.bind(SQLStatement);
+			ResultSetIterator.streamRows(SQLStatement);
+			SQLResultset = SQLStatement.executeQuery();
+			RowMapper<T> mapper = (RowMapper<T>) RowMappers.forQuery(query, SQLResultset.getMetaData());
+			//trips with a buffered assignment carry their pending driver, also one buffered while streaming
+			AssignmentBuffer buffer = assignmentBuffer;
+			if (buffer != null && query.getResultType() == Trip.class) {
+				mapper = (RowMapper<T>) RowMappers.forTrips(SQLResultset.getMetaData(), buffer);
+			}
+			ResultSetIterator<T> rows = new ResultSetIterator<T>(SQLResultset, mapper, connectionPool, dbConnection, SQLStatement);
+			return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false)
+					.onClose(rows::close);
+		} catch (TranslatorException te) {
+			LOG.log(Level.WARNING, "Error: cannot translate the command : " + te.getMessage(), te);
+		} catch (Exception exc) {
+			LOG.warning("There was an error during the SQL query : " + exc.getMessage());
+			if (SQLResultset != null) {
 				try {
-					SQLStatement.close();
+					SQLResultset.close();
 				} catch (SQLException e) {
-					System.out.println( "Error: empty SQL statement : " + e.getMessage() );
+					LOG.warning("Error during closing the connection to the database : " + e.getMessage());
 				}
 			}
+			if (SQLStatement != null) {
+				ResultSetIterator.resetFetchSize(SQLStatement);
+			}
 			if (dbConnection != null) {
+				connectionPool.release(dbConnection);
+			}
+		}
+		return Stream.empty();
+	}
+
+	/**
+	 * Columnar variant of execute for trip queries returning many rows, e.g. a staff report
+	 * registered with registerCommand: the rows are read into the int arrays and dictionaries
+	 * of a TripColumns instead of one Trip object per row. A VIEW_TRIP is read whole, ignoring
+	 * its page size.
+	 * @param CSV The comma separated command, of a command returning Trips.
+	 * @return TripColumns holding the rows, null if the command failed or does not return Trips.
+	 */
+	public static TripColumns executeColumns(String CSV){
+		long startTime = System.nanoTime();
+		ConnectionPool connectionPool = null;
+		PooledConnection dbConnection = null;
+		PreparedStatement SQLStatement = null;
+		ResultSet SQLResultset = null;
+		PreparedQuery query = null;
+		try {
+			query = ViewTripHandler.unpaged(SQLTranslator.translateCSV(CSV));
+			if (query.getResultType() != Trip.class) {
+				LOG.warning("Error: only trip queries can be read into columns : " + query.getCommand());
+				return null;
+			}
+			if (embeddedStore != null) {
+				LOG.warning("Error: the embedded store cannot be read into columns : " + query.getCommand());
+				return null;
+			}
+			long translatedTime = System.nanoTime();
+			ReplicaRouter replicaRouter = getRouter();
+			connectionPool = replicaRouter.route(query);
+			try {
+				dbConnection = connectionPool.borrow();
+			} catch (SQLException e) {
+				//a replica gone down since its last health check: read from the primary; a busy
+				//replica fails the read, like a busy primary would
+				if (connectionPool == replicaRouter.getPrimary() || !ReplicaRouter.isConnectionFailure(e)) {
+					throw e;
+				}
+				replicaRouter.markDown(connectionPool, e);
+				connectionPool = replicaRouter.getPrimary();
+				dbConnection = connectionPool.borrow();
+			}
+			long connectedTime = System.nanoTime();
+			SQLStatement = dbConnection.prepare(query.getSql());
+			query.bind(SQLStatement);
+			ResultSetIterator.streamRows(SQLStatement);
+			SQLResultset = SQLStatement.executeQuery();
+			long executedTime = System.nanoTime();
+			//trips with a buffered assignment carry their pending driver
+			AssignmentBuffer buffer = assignmentBuffer;
+			TripColumns columns = TripColumns.read(SQLResultset, buffer == null || buffer.isEmpty() ? null : buffer);
+			long mappedTime = System.nanoTime();
+			metrics.record(query.getCommand(), translatedTime - startTime, connectedTime - translatedTime,
+					executedTime - connectedTime, mappedTime - executedTime, mappedTime - startTime, columns.size());
+			return columns;
+		} catch (TranslatorException te) {
+			LOG.log(Level.WARNING, "Error: cannot translate the command : " + te.getMessage(), te);
+		} catch (SQLException exc) {
+			LOG.warning("There was an error during the SQL query : " + exc.getMessage());
+			metrics.recordError(query.getCommand());
+		} finally {
+			if (SQLResultset != null) {
 				try {
-					dbConnection.close();
+					SQLResultset.close();
 				} catch (SQLException e) {
-					System.out.println("Error: no database to close : " + e.getMessage());
+					LOG.warning("Error during closing the connection to the database : " + e.getMessage());
 				}
 			}
+			if (SQLStatement != null) {
+				ResultSetIterator.resetFetchSize(SQLStatement);
+			}
+			if (dbConnection != null) {
+				connectionPool.release(dbConnection);
+			}
 		}
-		return returnList;	
-	}	
-}
\ No newline at end of file
+		return null;
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Coalesces identical read commands executed at the same time: the first call
+ * runs the query, and the calls arriving while it is in flight wait for its
+ * result instead of running the same query again.
+ *
+ * A flight only takes new calls until it lands, and every committed write ends
+ * the flights in the air, so a coalesced call never sees an older result than
+ * a call of its own would have. The key of a flight includes where the query
+ * is routed, so a read-your-writes read on the primary never joins a flight
+ * on a lagging replica.
+ *
+ * When the query of the leading call fails, the waiting calls fail with it.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SingleFlight{
+	//the result of the call running each query, by QueryCache.keyOf
+	private final ConcurrentHashMap<String, CompletableFuture<ArrayList<?>>> flights =
+			new ConcurrentHashMap<String, CompletableFuture<ArrayList<?>>>();
+
+	/**
+	 * Joins the flight of a query, or starts it.
+	 * @param key The key of the query.
+	 * @param flight The flight to start if none is in the air.
+	 * @return the flight already in the air, or null if the caller now leads the flight
+	 *         and must land() it.
+	 */
+	CompletableFuture<ArrayList<?>> join(String key, CompletableFuture<ArrayList<?>> flight){
+		return flights.putIfAbsent(key, flight);
+	}
+
+	/**
+	 * Hands the result of a query to the calls waiting for it.
+	 * @param key The key of the query.
+	 * @param flight The flight started with join().
+	 * @param result The result, not to be modified afterwards, or null if the waiting
+	 *        calls must run the query themselves.
+	 */
+	void land(String key, CompletableFuture<ArrayList<?>> flight, ArrayList<?> result){
+		flights.remove(key, flight);
+		flight.complete(result);
+	}
+
+	/**
+	 * Fails the calls waiting for a query whose leading call failed.
+	 * @param key The key of the query.
+	 * @param flight The flight started with join().
+	 * @param failure The error of the leading call.
+	 */
+	void fail(String key, CompletableFuture<ArrayList<?>> flight, Exception failure){
+		flights.remove(key, flight);
+		flight.completeExceptionally(failure);
+	}
+
+	/**
+	 * Stops the flights in the air from taking new calls, after a write was committed.
+	 */
+	void clear(){
+		if (!flights.isEmpty()) {
+			flights.clear();
+		}
+	}
+
+	/**
+	 * @return number of queries in flight.
+	 */
+	public int size(){
+		return flights.size();
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * CommandHandler of a command executing one SQL template, with the arguments
+ * of the CSV bound to its parameters in order.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.Arrays;
+import common.*;
+
+public class SqlCommandHandler implements CommandHandler{
+	private final Class<?> resultType;
+	private final RowMapper<?> rowMapper;
+	private final String sql;
+	private final ArgType[] argTypes;
+
+	/**
+	 * @param resultType The class the rows are mapped to, null for a command returning no rows.
+	 * @param sql The SQL template, with a ? for every argument.
+	 * @param argTypes The types of the arguments, in the order of the CSV.
+	 */
+	public SqlCommandHandler(Class<?> resultType, String sql, ArgType... argTypes){
+		this(resultType, null, sql, argTypes);
+	}
+
+	/**
+	 * @param resultType The class the rows are mapped to, null for a command returning no rows.
+	 * @param rowMapper The mapper of the rows, null if the rows are mapped to one of the classes of RowMappers.
+	 * @param sql The SQL template, with a ? for every argument.
+	 * @param argTypes The types of the arguments, in the order of the CSV.
+	 */
+	public <T> SqlCommandHandler(Class<T> resultType, RowMapper<? extends T> rowMapper, String sql, ArgType... argTypes){
+		int placeholders = 0;
+		for (int i = 0; i < sql.length(); i++) {
+			if (sql.charAt(i) == '?') {
+				placeholders++;
+			}
+		}
+		if (placeholders != argTypes.length) {
+			throw new IllegalArgumentException(argTypes.length + " arguments for " + placeholders
+					+ " parameters: " + sql);
+		}
+		if (resultType == null && sql.trim().regionMatches(true, 0, "SELECT", 0, 6)) {
+			throw new IllegalArgumentException("A query needs a result type: " + sql);
+		}
+		//fail at registration rather than at the first execution
+		if (resultType == null && rowMapper != null) {
+			throw new IllegalArgumentException("A row mapper needs a result type: " + sql);
+		}
+		if (resultType != null && rowMapper == null && !RowMappers.isMapped(resultType)) {
+			throw new IllegalArgumentException("No row mapper for " + resultType.getName()
+					+ ", register the command with a RowMapper: " + sql);
+		}
+		this.resultType = resultType;
+		this.rowMapper = rowMapper;
+		this.sql = sql;
+		this.argTypes = argTypes.clone();
+	}
+
+	/**
+	 * @return the number of arguments of the command.
+	 */
+	public int getArity(){
+		return argTypes.length;
+	}
+
+	@Override
+	public PreparedQuery translate(Command command, CSVTokenizer fields) throws TranslatorException{
+		Object[] params = new Object[argTypes.length];
+		for (int i = 0; i < params.length; i++) {
+			params[i] = argTypes[i].parse(fields, i + 1);
+		}
+		return new PreparedQuery(command, resultType, rowMapper, 0, sql, params);
+	}
+
+	@Override
+	public String toString(){
+		return sql + " " + Arrays.toString(argTypes);
+	}
+}
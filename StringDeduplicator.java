@@ -0,0 +1,76 @@
+/**
+ * Bounded, lock-free table of Strings, so equal values read from many rows
+ * (cities, counties, postcodes, trip times) share one String instead of each
+ * row holding its own copy.
+ *
+ * Each value has one slot, picked by its hash; a value meeting a different
+ * one in its slot replaces it. The table never grows and never blocks, at the
+ * cost of missing a few repeats when two frequent values share a slot.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class StringDeduplicator{
+	//longer values are unlikely to repeat, and cost more to compare
+	private final static int MAX_LENGTH = 64;
+
+	private final AtomicReferenceArray<String> slots;
+	private final int mask;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param size Number of slots, rounded up to a power of two.
+	 */
+	public StringDeduplicator(int size){
+		int slotCount = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.slots = new AtomicReferenceArray<String>(slotCount);
+		this.mask = slotCount - 1;
+	}
+
+	/**
+	 * @return the shared String equal to the value, or the value itself the first time it is seen.
+	 */
+	public String dedup(String value){
+		if (value == null || value.length() > MAX_LENGTH) {
+			return value;
+		}
+		int h = value.hashCode();
+		int slot = (h ^ (h >>> 16)) & mask;
+		String shared = slots.get(slot);
+		if (shared != null && shared.equals(value)) {
+			hits.increment();
+			return shared;
+		}
+		slots.lazySet(slot, value);
+		misses.increment();
+		return value;
+	}
+
+	/** @return number of values replaced by a shared String. */
+	public long getHits(){
+		return hits.sum();
+	}
+
+	/** @return number of values not seen before, or evicted since. */
+	public long getMisses(){
+		return misses.sum();
+	}
+
+	/** @return the fraction of values replaced by a shared String, 0 before any. */
+	public double getHitRate(){
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+
+	@Override
+	public String toString(){
+		return "hits=" + getHits() + " misses=" + getMisses() + " hitRate=" + getHitRate();
+	}
+}
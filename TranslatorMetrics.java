@@ -0,0 +1,181 @@
+/**
+ * Per-command metrics of SQLTranslator.execute, exposed through JMX and to
+ * pluggable MetricsListeners.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
+
+public class TranslatorMetrics implements TranslatorMetricsMBean{
+	private final static Logger LOG = Logger.getLogger(TranslatorMetrics.class.getName());
+	private final static String OBJECT_NAME = "server:type=SQLTranslator";
+
+	//created on first use, as commands may be registered at any time
+	private final ConcurrentHashMap<Command, CommandMetrics> commands = new ConcurrentHashMap<Command, CommandMetrics>();
+	private final CopyOnWriteArrayList<MetricsListener> listeners = new CopyOnWriteArrayList<MetricsListener>();
+
+	/**
+	 * Registers the metrics with the platform MBean server. Failures are logged, not thrown.
+	 */
+	void registerMBean(){
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (Exception e) {
+			LOG.log(Level.WARNING, "Error: cannot register the metrics MBean : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the metrics of a command.
+	 */
+	public CommandMetrics get(Command command){
+		CommandMetrics metrics = commands.get(command);
+		return metrics != null ? metrics : commands.computeIfAbsent(command, CommandMetrics::new);
+	}
+
+	/**
+	 * @param listener Listener to receive the measurement of every call.
+	 */
+	public void addListener(MetricsListener listener){
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener Listener added with addListener.
+	 */
+	public void removeListener(MetricsListener listener){
+		listeners.remove(listener);
+	}
+
+	void record(Command command, long translateNanos, long connectNanos, long executeNanos, long mapNanos,
+			long totalNanos, int rows){
+		get(command).record(translateNanos, connectNanos, executeNanos, mapNanos, totalNanos, rows);
+		for (MetricsListener listener : listeners) {
+			listener.onExecute(command, translateNanos, connectNanos, executeNanos, mapNanos, totalNanos, rows, false);
+		}
+	}
+
+	void recordCacheHit(Command command, long translateNanos, long totalNanos, int rows){
+		get(command).recordCacheHit(translateNanos, totalNanos, rows);
+		for (MetricsListener listener : listeners) {
+			listener.onExecute(command, translateNanos, 0, 0, 0, totalNanos, rows, true);
+		}
+	}
+
+	void recordCoalesced(Command command, long translateNanos, long totalNanos, int rows){
+		get(command).recordCoalesced(translateNanos, totalNanos, rows);
+		for (MetricsListener listener : listeners) {
+			listener.onExecute(command, translateNanos, 0, 0, 0, totalNanos, rows, true);
+		}
+	}
+
+	void recordError(Command command){
+		get(command).recordError();
+	}
+
+	@Override
+	public String[] getCommands(){
+		List<String> used = new ArrayList<String>();
+		for (Command command : Command.values()) {
+			CommandMetrics metrics = commands.get(command);
+			if (metrics != null && (metrics.getCount() > 0 || metrics.getErrors() > 0)) {
+				used.add(metrics.getCommand().name());
+			}
+		}
+		return used.toArray(new String[used.size()]);
+	}
+
+	@Override
+	public long getCount(String command){
+		return get(Command.valueOf(command)).getCount();
+	}
+
+	@Override
+	public long getCacheHits(String command){
+		return get(Command.valueOf(command)).getCacheHits();
+	}
+
+	@Override
+	public long getCoalesced(String command){
+		return get(Command.valueOf(command)).getCoalesced();
+	}
+
+	@Override
+	public long getErrors(String command){
+		return get(Command.valueOf(command)).getErrors();
+	}
+
+	@Override
+	public long getRowsReturned(String command){
+		return get(Command.valueOf(command)).getRowCounts().getTotal();
+	}
+
+	@Override
+	public double getLatencyMillis(String command, String phase, double percentile){
+		Histogram latency = get(Command.valueOf(command)).getLatency(CommandMetrics.Phase.valueOf(phase));
+		return latency.getPercentile(percentile) / 1e6;
+	}
+
+	@Override
+	public double getDedupHitRate(){
+		return RowMappers.getDeduplicator().getHitRate();
+	}
+
+	@Override
+	public long getJournalPending(){
+		WriteJournal journal = SQLTranslator.getWriteJournal();
+		return journal == null ? 0 : journal.getPending();
+	}
+
+	@Override
+	public long getJournalDeadLetters(){
+		WriteJournal journal = SQLTranslator.getWriteJournal();
+		return journal == null ? 0 : journal.getDeadLetters();
+	}
+
+	@Override
+	public String getSummary(){
+		StringBuilder summary = new StringBuilder();
+		for (Command command : Command.values()) {
+			CommandMetrics metrics = commands.get(command);
+			if (metrics == null || metrics.getCount() == 0) {
+				continue;
+			}
+			summary.append(metrics.getCommand()).append(": calls=").append(metrics.getCount())
+					.append(" cacheHits=").append(metrics.getCacheHits())
+					.append(" coalesced=").append(metrics.getCoalesced()).append(" errors=").append(metrics.getErrors())
+					.append(" rows(p50/p99/max)=").append(metrics.getRowCounts().getPercentile(50)).append('/')
+					.append(metrics.getRowCounts().getPercentile(99)).append('/').append(metrics.getRowCounts().getMax())
+					.append('\n');
+			for (CommandMetrics.Phase phase : CommandMetrics.Phase.values()) {
+				Histogram latency = metrics.getLatency(phase);
+				summary.append("  ").append(phase).append(" ms(p50/p99/max)=")
+						.append(latency.getPercentile(50) / 1e6).append('/')
+						.append(latency.getPercentile(99) / 1e6).append('/')
+						.append(latency.getMax() / 1e6).append('\n');
+			}
+		}
+		StringDeduplicator dedup = RowMappers.getDeduplicator();
+		if (dedup.getHits() + dedup.getMisses() > 0) {
+			summary.append("String dedup: ").append(dedup).append('\n');
+		}
+		return summary.toString();
+	}
+
+	@Override
+	public void reset(){
+		for (CommandMetrics metrics : commands.values()) {
+			metrics.reset();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * JMX view of the TranslatorMetrics, registered as server:type=SQLTranslator.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+
+public interface TranslatorMetricsMBean{
+	/** @return the command verbs executed at least once. */
+	String[] getCommands();
+
+	/** @return number of completed calls of a command. */
+	long getCount(String command);
+
+	/** @return number of calls of a command answered from memory (query cache or driver index). */
+	long getCacheHits(String command);
+
+	/** @return number of calls of a command given the result of an identical call in flight. */
+	long getCoalesced(String command);
+
+	/** @return number of failed calls of a command. */
+	long getErrors(String command);
+
+	/** @return total number of rows returned by a command. */
+	long getRowsReturned(String command);
+
+	/**
+	 * @param command The command verb, e.g. VIEW_TRIP.
+	 * @param phase TRANSLATE, CONNECT, EXECUTE, MAP or TOTAL.
+	 * @param percentile e.g. 99 for the p99.
+	 * @return the latency at the percentile, in milliseconds.
+	 */
+	double getLatencyMillis(String command, String phase, double percentile);
+
+	/** @return the fraction of low-cardinality column values shared with earlier rows by the row mappers. */
+	double getDedupHitRate();
+
+	/** @return number of commands in the write journal not replayed to the database yet, 0 without a journal. */
+	long getJournalPending();
+
+	/** @return number of journaled commands the database refused, moved to the dead-letter file. */
+	long getJournalDeadLetters();
+
+	/** @return a table of the count, p50, p99 and max latency of every command and phase. */
+	String getSummary();
+
+	/** Clears every metric. */
+	void reset();
+}
@@ -0,0 +1,345 @@
+/**
+ * Columnar form of a trip query's result, for large scans like staff reports
+ * over months of trips, where a Trip object with its own Strings per row would
+ * fill the heap.
+ *
+ *  - TRIP_ID, cust_id and driver_id are int arrays (a NULL driver_id is 0, like in Trip)
+ *  - trip_date is packed as yyyymmdd and trip_time as hhmmss in int arrays
+ *  - the city, county and postcode columns are codes into one dictionary of their values
+ *  - only the addresses are kept as Strings
+ *
+ * Dates and times not in the yyyy-mm-dd and hh:mm[:ss] formats are kept in the
+ * dictionary, so every value reads back as it was stored. Trip objects are only
+ * created on demand, by getTrip() or through the asList() view.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import common.*;
+
+public class TripColumns{
+	//code of a NULL date, time or dictionary value
+	private final static int NULL = -1;
+	//added to a packed hh:mm time, to tell it from hh:mm:00
+	private final static int NO_SECONDS = 1000000;
+	//dictionary columns, in the order of their code arrays
+	private final static int FROM_CITY = 0;
+	private final static int FROM_COUNTY = 1;
+	private final static int FROM_POSTCODE = 2;
+	private final static int TO_CITY = 3;
+	private final static int TO_COUNTY = 4;
+	private final static int TO_POSTCODE = 5;
+
+	private int size;
+	private int[] tripIds;
+	private int[] custIds;
+	private int[] driverIds;
+	private int[] dates;
+	private int[] times;
+	private String[] fromAddresses;
+	private String[] toAddresses;
+	private int[][] codes = new int[6][];
+
+	//the distinct values of the dictionary columns, and their codes
+	private final ArrayList<String> dictionary = new ArrayList<String>();
+	private final HashMap<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+
+	private TripColumns(int capacity){
+		tripIds = new int[capacity];
+		custIds = new int[capacity];
+		driverIds = new int[capacity];
+		dates = new int[capacity];
+		times = new int[capacity];
+		fromAddresses = new String[capacity];
+		toAddresses = new String[capacity];
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = new int[capacity];
+		}
+	}
+
+	/**
+	 * Reads every row of a trip query.
+	 * @param rSet ResultSet with the columns of the trip table.
+	 */
+	static TripColumns read(ResultSet rSet) throws SQLException{
+		return read(rSet, null);
+	}
+
+	/**
+	 * Reads every row of a trip query, taking the driver_id of the trips with a pending
+	 * assignment from the buffer instead of the row.
+	 * @param rSet ResultSet with the columns of the trip table.
+	 * @param pending The buffer of the assignments not written yet, null if there is none.
+	 */
+	static TripColumns read(ResultSet rSet, AssignmentBuffer pending) throws SQLException{
+		int[] c = RowMappers.indexes(rSet.getMetaData(), "TRIP_ID", "cust_id", "driver_id", "from_address",
+				"from_city", "from_county", "from_postcode", "to_address", "to_city", "to_county", "to_postcode",
+				"trip_date", "trip_time");
+		TripColumns columns = new TripColumns(256);
+		while (rSet.next()) {
+			int row = columns.size;
+			if (row == columns.tripIds.length) {
+				columns.resize(row * 2);
+			}
+			columns.tripIds[row] = rSet.getInt(c[0]);
+			columns.custIds[row] = rSet.getInt(c[1]);
+			columns.driverIds[row] = pending == null ? rSet.getInt(c[2])
+					: pending.driverOf(columns.tripIds[row], rSet.getInt(c[2]));
+			columns.fromAddresses[row] = rSet.getString(c[3]);
+			columns.codes[FROM_CITY][row] = columns.encode(rSet.getString(c[4]));
+			columns.codes[FROM_COUNTY][row] = columns.encode(rSet.getString(c[5]));
+			columns.codes[FROM_POSTCODE][row] = columns.encode(rSet.getString(c[6]));
+			columns.toAddresses[row] = rSet.getString(c[7]);
+			columns.codes[TO_CITY][row] = columns.encode(rSet.getString(c[8]));
+			columns.codes[TO_COUNTY][row] = columns.encode(rSet.getString(c[9]));
+			columns.codes[TO_POSTCODE][row] = columns.encode(rSet.getString(c[10]));
+			columns.dates[row] = columns.packDate(rSet.getString(c[11]));
+			columns.times[row] = columns.packTime(rSet.getString(c[12]));
+			columns.size++;
+		}
+		columns.resize(columns.size);
+		return columns;
+	}
+
+	/** @return number of trips. */
+	public int size(){
+		return size;
+	}
+
+	/** @return number of distinct city, county and postcode values. */
+	public int getDictionarySize(){
+		return dictionary.size();
+	}
+
+	/** @return the trip_id of a row. */
+	public int getTripId(int row){
+		return tripIds[check(row)];
+	}
+
+	/** @return the cust_id of a row. */
+	public int getCustId(int row){
+		return custIds[check(row)];
+	}
+
+	/** @return the driver_id of a row, 0 if no driver is assigned. */
+	public int getDriverId(int row){
+		return driverIds[check(row)];
+	}
+
+	/** @return the trip_date of a row as yyyymmdd, or -1 if it is NULL or not a yyyy-mm-dd date. */
+	public int getPackedDate(int row){
+		return Math.max(dates[check(row)], NULL);
+	}
+
+	/** @return the trip_time of a row as hhmmss, or -1 if it is NULL or not a hh:mm[:ss] time. */
+	public int getPackedTime(int row){
+		int time = times[check(row)];
+		return time >= NO_SECONDS ? (time - NO_SECONDS) * 100 : Math.max(time, NULL);
+	}
+
+	/** @return the trip_date of a row, as it was read. */
+	public String getTripDate(int row){
+		int date = dates[check(row)];
+		if (date < NULL) {
+			return dictionary.get(-date - 2);
+		}
+		return date == NULL ? null : unpack(date / 10000, 4, '-', date / 100 % 100, date % 100);
+	}
+
+	/** @return the trip_time of a row, as it was read. */
+	public String getTripTime(int row){
+		int time = times[check(row)];
+		if (time < NULL) {
+			return dictionary.get(-time - 2);
+		}
+		if (time >= NO_SECONDS) {
+			time -= NO_SECONDS;
+			return unpack(time / 100, 2, ':', time % 100, -1);
+		}
+		return time == NULL ? null : unpack(time / 10000, 2, ':', time / 100 % 100, time % 100);
+	}
+
+	/** @return the from_address of a row. */
+	public String getFromAddress(int row){
+		return fromAddresses[check(row)];
+	}
+
+	/** @return the from_city of a row. */
+	public String getFromCity(int row){
+		return decode(FROM_CITY, row);
+	}
+
+	/** @return the from_county of a row. */
+	public String getFromCounty(int row){
+		return decode(FROM_COUNTY, row);
+	}
+
+	/** @return the from_postcode of a row. */
+	public String getFromPostcode(int row){
+		return decode(FROM_POSTCODE, row);
+	}
+
+	/** @return the to_address of a row. */
+	public String getToAddress(int row){
+		return toAddresses[check(row)];
+	}
+
+	/** @return the to_city of a row. */
+	public String getToCity(int row){
+		return decode(TO_CITY, row);
+	}
+
+	/** @return the to_county of a row. */
+	public String getToCounty(int row){
+		return decode(TO_COUNTY, row);
+	}
+
+	/** @return the to_postcode of a row. */
+	public String getToPostcode(int row){
+		return decode(TO_POSTCODE, row);
+	}
+
+	/**
+	 * @return a new Trip holding the values of a row.
+	 */
+	public Trip getTrip(int row){
+		return new Trip(getTripId(row), getCustId(row), getDriverId(row), getFromAddress(row), getFromCity(row),
+				getFromCounty(row), getFromPostcode(row), getToAddress(row), getToCity(row), getToCounty(row),
+				getToPostcode(row), getTripDate(row), getTripTime(row));
+	}
+
+	/**
+	 * @return read-only view of the rows as Trips, each created when it is got.
+	 */
+	public List<Trip> asList(){
+		return new AbstractList<Trip>(){
+			@Override
+			public Trip get(int row){
+				return getTrip(row);
+			}
+
+			@Override
+			public int size(){
+				return size;
+			}
+		};
+	}
+
+	private int encode(String value){
+		if (value == null) {
+			return NULL;
+		}
+		Integer code = dictionaryCodes.get(value);
+		if (code == null) {
+			code = dictionary.size();
+			dictionary.add(value);
+			dictionaryCodes.put(value, code);
+		}
+		return code;
+	}
+
+	private String decode(int column, int row){
+		int code = codes[column][check(row)];
+		return code == NULL ? null : dictionary.get(code);
+	}
+
+	//yyyy-mm-dd as yyyymmdd, anything else as -(dictionary code + 2)
+	private int packDate(String date){
+		if (date == null) {
+			return NULL;
+		}
+		if (date.length() == 10 && date.charAt(4) == '-' && date.charAt(7) == '-') {
+			int year = digits(date, 0, 4);
+			int month = digits(date, 5, 7);
+			int day = digits(date, 8, 10);
+			if (year >= 0 && month >= 0 && day >= 0) {
+				return year * 10000 + month * 100 + day;
+			}
+		}
+		return -encode(date) - 2;
+	}
+
+	//hh:mm:ss as hhmmss, hh:mm as NO_SECONDS + hhmm, anything else as -(dictionary code + 2)
+	private int packTime(String time){
+		if (time == null) {
+			return NULL;
+		}
+		if (time.length() == 5 && time.charAt(2) == ':') {
+			int hours = digits(time, 0, 2);
+			int minutes = digits(time, 3, 5);
+			if (hours >= 0 && minutes >= 0) {
+				return NO_SECONDS + hours * 100 + minutes;
+			}
+		}
+		if (time.length() == 8 && time.charAt(2) == ':' && time.charAt(5) == ':') {
+			int hours = digits(time, 0, 2);
+			int minutes = digits(time, 3, 5);
+			int seconds = digits(time, 6, 8);
+			if (hours >= 0 && minutes >= 0 && seconds >= 0) {
+				return hours * 10000 + minutes * 100 + seconds;
+			}
+		}
+		return -encode(time) - 2;
+	}
+
+	//first, second and third with the separator between them, first padded to its width and the others
+	//to 2 digits; a negative third is left out
+	private static String unpack(int first, int width, char separator, int second, int third){
+		char[] text = new char[third < 0 ? width + 3 : width + 6];
+		for (int i = width - 1; i >= 0; i--, first /= 10) {
+			text[i] = (char) ('0' + first % 10);
+		}
+		text[width] = separator;
+		text[width + 1] = (char) ('0' + second / 10);
+		text[width + 2] = (char) ('0' + second % 10);
+		if (third < 0) {
+			return new String(text);
+		}
+		text[width + 3] = separator;
+		text[width + 4] = (char) ('0' + third / 10);
+		text[width + 5] = (char) ('0' + third % 10);
+		return new String(text);
+	}
+
+	//the decimal value of the characters, -1 if one of them is not a digit
+	private static int digits(String text, int start, int end){
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private int check(int row){
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+		return row;
+	}
+
+	private void resize(int capacity){
+		tripIds = Arrays.copyOf(tripIds, capacity);
+		custIds = Arrays.copyOf(custIds, capacity);
+		driverIds = Arrays.copyOf(driverIds, capacity);
+		dates = Arrays.copyOf(dates, capacity);
+		times = Arrays.copyOf(times, capacity);
+		fromAddresses = Arrays.copyOf(fromAddresses, capacity);
+		toAddresses = Arrays.copyOf(toAddresses, capacity);
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = Arrays.copyOf(codes[i], capacity);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * One page of the trips returned by VIEW_TRIP with a page size, with the
+ * continuation token to pass back to VIEW_TRIP for the next page.
+ *
+ * The token is trip_date:trip_id of the last trip of the page. It is null when
+ * the page is not full, as there are no more trips; a full page may be followed
+ * by an empty one.
+ *
+ * A TripPage is serialized with its token, so a client asking for pages needs
+ * this class; a VIEW_TRIP without a page size returns a plain ArrayList.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import common.*;
+
+public class TripPage extends ArrayList<Trip>{
+	private static final long serialVersionUID = 1L;
+
+	private String continuationToken;
+
+	TripPage(int capacity){
+		super(capacity);
+	}
+
+	/**
+	 * @return the token of the next page, or null if this is the last page.
+	 */
+	public String getContinuationToken(){
+		return continuationToken;
+	}
+
+	/**
+	 * @return true if there may be more trips after this page.
+	 */
+	public boolean hasMore(){
+		return continuationToken != null;
+	}
+
+	/**
+	 * @return a copy of the page, with the same trips and token.
+	 */
+	TripPage copy(){
+		TripPage page = new TripPage(size());
+		page.addAll(this);
+		page.continuationToken = continuationToken;
+		return page;
+	}
+
+	/**
+	 * Reads a page of trips, remembering the keys of the last one for the token.
+	 * @param rSet The ResultSet of a paginated VIEW_TRIP query.
+	 * @param mapper The mapper of the rows to Trips.
+	 * @param pageSize The LIMIT of the query.
+	 */
+	static TripPage read(ResultSet rSet, RowMapper<Trip> mapper, int pageSize) throws SQLException{
+		int[] keys = RowMappers.indexes(rSet.getMetaData(), "TRIP_ID", "trip_date");
+		TripPage page = new TripPage(Math.min(pageSize, 16));
+		int lastId = 0;
+		String lastDate = null;
+		while (rSet.next()) {
+			page.add(mapper.mapRow(rSet));
+			lastId = rSet.getInt(keys[0]);
+			lastDate = rSet.getString(keys[1]);
+		}
+		page.finish(pageSize, lastDate, lastId);
+		return page;
+	}
+
+	/**
+	 * Sets the token from the keys of the last trip of the page, if the page is full.
+	 */
+	void finish(int pageSize, String lastDate, int lastId){
+		if (size() >= pageSize) {
+			continuationToken = (lastDate == null ? "" : lastDate) + ":" + lastId;
+		}
+	}
+
+	/**
+	 * @return the trip_date of the last trip of the page the token was returned with.
+	 */
+	static String dateOf(String token) throws TranslatorException{
+		return token.substring(0, separator(token));
+	}
+
+	/**
+	 * @return the trip_id of the last trip of the page the token was returned with.
+	 */
+	static int tripIdOf(String token) throws TranslatorException{
+		try {
+			return Integer.parseInt(token.substring(separator(token) + 1));
+		} catch (NumberFormatException e) {
+			throw new TranslatorException("Invalid continuation token: " + token);
+		}
+	}
+
+	private static int separator(String token) throws TranslatorException{
+		int colon = token.lastIndexOf(':');
+		if (colon < 0) {
+			throw new TranslatorException("Invalid continuation token: " + token);
+		}
+		return colon;
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * CommandHandler of VIEW_TRIP, returning the trips of a customer, of a driver,
+ * or the unassigned ones a page at a time:
+ *   VIEW_TRIP,id[,page_size[,continuation_token[,from_date[,to_date]]]]
+ * where id is a customer ID (below 3000), a driver ID or NULL. Empty optional
+ * fields take their default, e.g. VIEW_TRIP,1001,,,2016-05-01,2016-05-31.
+ * Without a page size every matching trip is returned, as a plain list.
+ *
+ * Pages are ordered by trip_date, then trip_id, and read with keyset pagination:
+ * the continuation token of a page holds the trip_date and trip_id of its last
+ * trip, and the next page starts right after them, so the database never skips
+ * over the rows of the previous pages like it would for an OFFSET.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.HashMap;
+import common.*;
+
+public class ViewTripHandler implements CommandHandler{
+	//the most rows a client may ask for in one page
+	final static int MAX_PAGE_SIZE = 1000;
+
+	//the columns mapped to a Trip, instead of SELECT *
+	private final static String TRIP_COLUMNS = "TRIP_ID, cust_id, driver_id, from_address, from_city, from_county,"
+			+ " from_postcode, to_address, to_city, to_county, to_postcode, trip_date, trip_time";
+	private final static String[] FILTERS = { "cust_id=?", "driver_id=?", "driver_id IS NULL" };
+	final static int CUSTOMER = 0;
+	final static int DRIVER = 1;
+	final static int UNASSIGNED = 2;
+	//bits of the optional conditions, indexing the templates of a filter
+	final static int FROM_DATE = 1;
+	final static int TO_DATE = 2;
+	final static int CURSOR = 4;
+	final static int PAGED = 8;
+	//number of combinations of the bits above
+	private final static int SHAPES_PER_FILTER = 16;
+
+	//the beginning of every customer template
+	private final static String CUSTOMER_PREFIX = "SELECT " + TRIP_COLUMNS + " FROM trip WHERE " + FILTERS[CUSTOMER];
+
+	//every combination of filter and optional conditions, built once
+	private final static String[][] TEMPLATES = new String[FILTERS.length][SHAPES_PER_FILTER];
+	//filter * SHAPES_PER_FILTER + conditions of every template
+	private final static HashMap<String, Integer> SHAPES = new HashMap<String, Integer>();
+	static {
+		for (int filter = 0; filter < FILTERS.length; filter++) {
+			for (int conditions = 0; conditions < SHAPES_PER_FILTER; conditions++) {
+				StringBuilder sql = new StringBuilder("SELECT ").append(TRIP_COLUMNS)
+						.append(" FROM trip WHERE ").append(FILTERS[filter]);
+				if ((conditions & FROM_DATE) != 0) {
+					sql.append(" AND trip_date >= ?");
+				}
+				if ((conditions & TO_DATE) != 0) {
+					sql.append(" AND trip_date <= ?");
+				}
+				if ((conditions & CURSOR) != 0) {
+					sql.append(" AND (trip_date > ? OR (trip_date = ? AND TRIP_ID > ?))");
+				}
+				sql.append(" ORDER BY trip_date, TRIP_ID");
+				if ((conditions & PAGED) != 0) {
+					sql.append(" LIMIT ?");
+				}
+				TEMPLATES[filter][conditions] = sql.toString();
+				SHAPES.put(TEMPLATES[filter][conditions], filter * SHAPES_PER_FILTER + conditions);
+			}
+		}
+	}
+
+	@Override
+	public PreparedQuery translate(Command command, CSVTokenizer fields) throws TranslatorException{
+		int count = fields.fieldCount();
+		Object[] params = new Object[7];
+		int n = 0;
+
+		int filter = UNASSIGNED;
+		if (!fields.fieldEqualsIgnoreCase(1, "NULL")) {
+			int ID = fields.fieldInt(1);
+			filter = ID < 3000 ? CUSTOMER : DRIVER;
+			params[n++] = ID;
+		}
+		int pageSize = 0;
+		if (count > 2 && !isEmpty(fields, 2)) {
+			pageSize = fields.fieldInt(2);
+			if (pageSize < 1) {
+				throw new TranslatorException("Invalid page size: " + pageSize);
+			}
+			pageSize = Math.min(pageSize, MAX_PAGE_SIZE);
+		}
+		int conditions = 0;
+		if (count > 4 && !isEmpty(fields, 4)) {
+			conditions |= FROM_DATE;
+			params[n++] = fields.field(4);
+		}
+		if (count > 5 && !isEmpty(fields, 5)) {
+			conditions |= TO_DATE;
+			params[n++] = fields.field(5);
+		}
+		if (count > 3 && !isEmpty(fields, 3)) {
+			conditions |= CURSOR;
+			String token = fields.field(3);
+			String lastDate = TripPage.dateOf(token);
+			params[n++] = lastDate;
+			params[n++] = lastDate;
+			params[n++] = TripPage.tripIdOf(token);
+		}
+		if (pageSize > 0) {
+			conditions |= PAGED;
+			params[n++] = pageSize;
+		}
+		Object[] bound = new Object[n];
+		System.arraycopy(params, 0, bound, 0, n);
+		return new PreparedQuery(command, Trip.class, pageSize, TEMPLATES[filter][conditions], bound);
+	}
+
+	/**
+	 * @return true if the VIEW_TRIP query returns the trips of a customer, whose ID is its first parameter.
+	 */
+	static boolean isCustomerQuery(PreparedQuery query){
+		return query.getSql().startsWith(CUSTOMER_PREFIX);
+	}
+
+	/**
+	 * @return CUSTOMER, DRIVER or UNASSIGNED, the filter of a VIEW_TRIP query.
+	 */
+	static int filterOf(PreparedQuery query){
+		return SHAPES.get(query.getSql()) / SHAPES_PER_FILTER;
+	}
+
+	/**
+	 * @return the FROM_DATE, TO_DATE, CURSOR and PAGED bits of a VIEW_TRIP query, its parameters
+	 *         follow the ID of the filter in this order, the page size last.
+	 */
+	static int conditionsOf(PreparedQuery query){
+		return SHAPES.get(query.getSql()) % SHAPES_PER_FILTER;
+	}
+
+	/**
+	 * @return the query without its page size, returning every trip after the cursor, e.g. for
+	 *         executeStream; any other query as it is.
+	 */
+	static PreparedQuery unpaged(PreparedQuery query){
+		if (query.getPageSize() == 0 || !SHAPES.containsKey(query.getSql())) {
+			return query;
+		}
+		Object[] params = query.getParams();
+		Object[] bound = new Object[params.length - 1];
+		System.arraycopy(params, 0, bound, 0, bound.length);
+		return new PreparedQuery(query.getCommand(), Trip.class, 0,
+				TEMPLATES[filterOf(query)][conditionsOf(query) & ~PAGED], bound);
+	}
+
+	private static boolean isEmpty(CSVTokenizer fields, int field){
+		return fields.start(field) == fields.end(field);
+	}
+}
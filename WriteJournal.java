@@ -0,0 +1,470 @@
+/**
+ * Durable local journal of the write commands (BOOK_TRIP, CANCEL_TRIP,
+ * ASSIGN_DRIVER, SIGN_UP) of execute, so a booking made while MySQL is slow
+ * or unreachable is not lost (see SQLTranslator.setWriteJournal).
+ *
+ * A command is appended to a memory-mapped log file as one record
+ * (length, CRC32, sequence number, CSV) and acknowledged once the file is
+ * forced to disk. The writers arriving while one of them forces the file wait
+ * for the next force, so one fsync commits a whole group of commands.
+ *
+ * A replay thread sends the journaled commands to the database in order,
+ * retrying while the database is unreachable. Every command is applied in one
+ * transaction with the insert of its idempotency key (journal ID:sequence
+ * number) into the journal_applied table, and skipped if its key is already
+ * there, so a command replayed again after a crash never books twice:
+ *   CREATE TABLE journal_applied (write_key VARCHAR(40) PRIMARY KEY)
+ *
+ * A command the database refuses for good (not a connection failure, a
+ * busy pool or a rolled-back transaction, whatever SQLState it comes with) is
+ * moved to the dead-letter file next to the journal, one line of
+ * write_key, CSV and error separated by tabs, to be fixed and applied by
+ * hand; getDeadLetters counts them, also over JMX.
+ *
+ * Records torn by a crash, which fail their CRC, end the log when it is
+ * opened again. Once every record has been replayed the file is reused from
+ * its beginning.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import common.*;
+
+public class WriteJournal{
+	private final static Logger LOG = Logger.getLogger(WriteJournal.class.getName());
+
+	private final static String IS_APPLIED_SQL = "SELECT 1 FROM journal_applied WHERE write_key=?";
+	private final static String MARK_APPLIED_SQL = "INSERT INTO journal_applied (write_key) VALUES (?)";
+
+	//header: magic, journal ID, offset and sequence number of the next record to replay
+	private final static int MAGIC = 0x4A524E31;
+	private final static int ID_OFFSET = 8;
+	private final static int REPLAY_OFFSET = 16;
+	private final static int REPLAY_SEQUENCE = 24;
+	private final static int HEADER = 32;
+	//record: payload length, CRC32 of the payload, then the payload: sequence number and CSV
+	private final static int RECORD_HEADER = 8;
+	//how long the replay waits before retrying a database that failed
+	private final static long RETRY_MILLIS = 1000;
+
+	/**
+	 * A record read back from the log.
+	 */
+	private static class Record{
+		final long sequence;
+		final String csv;
+		//position of the record after this one
+		final int next;
+
+		Record(long sequence, String csv, int next){
+			this.sequence = sequence;
+			this.csv = csv;
+			this.next = next;
+		}
+	}
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	//the commands the database refused, appended by the replay
+	private final Path deadLetterFile;
+	private final AtomicLong deadLetters = new AtomicLong();
+	private final int capacity;
+	private final long journalId;
+
+	//guards the positions below and the buffer's content
+	private final ReentrantLock lock = new ReentrantLock();
+	//signalled when a force completes, and when records are durable for the replay
+	private final Condition synced = lock.newCondition();
+	private int writePosition;
+	private long nextSequence;
+	//every record up to this sequence number is on disk
+	private long syncedSequence;
+	private boolean syncing;
+	private int replayPosition;
+	private long replaySequence;
+
+	private Thread replayer;
+	private volatile boolean closed;
+
+	/**
+	 * Opens a journal, creating it if it does not exist. The records left by a previous
+	 * run are replayed once startReplay is called.
+	 * @param file The journal file.
+	 * @param capacity The size of the file in bytes, the most the journal can hold unreplayed.
+	 * @throws IOException if the file cannot be mapped or is not a journal.
+	 */
+	public WriteJournal(Path file, int capacity) throws IOException{
+		deadLetterFile = file.resolveSibling(file.getFileName() + ".dead");
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		boolean created = channel.size() == 0;
+		this.capacity = created ? capacity : (int) channel.size();
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+		if (created) {
+			journalId = new SecureRandom().nextLong() & Long.MAX_VALUE;
+			buffer.putInt(0, MAGIC);
+			buffer.putLong(ID_OFFSET, journalId);
+			buffer.putLong(REPLAY_OFFSET, HEADER);
+			buffer.putLong(REPLAY_SEQUENCE, 1);
+			buffer.force();
+		} else if (buffer.getInt(0) != MAGIC) {
+			channel.close();
+			throw new IOException("Not a write journal : " + file);
+		} else {
+			journalId = buffer.getLong(ID_OFFSET);
+		}
+		replayPosition = (int) buffer.getLong(REPLAY_OFFSET);
+		replaySequence = buffer.getLong(REPLAY_SEQUENCE);
+		recover();
+	}
+
+	/**
+	 * Finds the end of the log: the first record that is torn, fails its CRC or is
+	 * left over from before the file was reused.
+	 */
+	private void recover(){
+		int position = replayPosition;
+		long sequence = replaySequence;
+		while (true) {
+			Record record = read(position);
+			if (record == null || record.sequence != sequence) {
+				break;
+			}
+			position = record.next;
+			sequence++;
+		}
+		writePosition = position;
+		nextSequence = sequence;
+		syncedSequence = sequence - 1;
+		if (sequence > replaySequence) {
+			LOG.info("Write journal opened with " + (sequence - replaySequence) + " commands to replay");
+		}
+	}
+
+	/**
+	 * Appends a write command, returning once it is on disk.
+	 * @param CSV The comma separated command.
+	 * @throws IOException if the journal is full or cannot be forced to disk.
+	 */
+	public void append(String CSV) throws IOException{
+		byte[] csv = CSV.getBytes(StandardCharsets.UTF_8);
+		int length = 8 + csv.length;
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IOException("The write journal is closed");
+			}
+			if (writePosition + RECORD_HEADER + length > capacity) {
+				//the file can only be reused once the replay has caught up
+				if (replayPosition != writePosition || HEADER + RECORD_HEADER + length > capacity) {
+					throw new IOException("The write journal is full");
+				}
+				writePosition = HEADER;
+				replayPosition = HEADER;
+				buffer.putLong(REPLAY_OFFSET, HEADER);
+			}
+			long sequence = nextSequence++;
+			ByteBuffer record = buffer.duplicate();
+			record.position(writePosition + RECORD_HEADER);
+			record.putLong(sequence);
+			record.put(csv);
+			CRC32 crc = new CRC32();
+			record.position(writePosition + RECORD_HEADER);
+			record.limit(writePosition + RECORD_HEADER + length);
+			crc.update(record);
+			buffer.putInt(writePosition + 4, (int) crc.getValue());
+			//the length goes last, a record is not seen before it is complete
+			buffer.putInt(writePosition, length);
+			writePosition += RECORD_HEADER + length;
+
+			//group commit: one writer forces the file for every record appended so far
+			while (syncedSequence < sequence) {
+				if (syncing) {
+					synced.awaitUninterruptibly();
+					continue;
+				}
+				syncing = true;
+				long target = nextSequence - 1;
+				lock.unlock();
+				try {
+					buffer.force();
+				} finally {
+					lock.lock();
+					syncing = false;
+					synced.signalAll();
+				}
+				syncedSequence = Math.max(syncedSequence, target);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of commands appended but not replayed to the database yet.
+	 */
+	public long getPending(){
+		lock.lock();
+		try {
+			return nextSequence - replaySequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of commands moved to the dead-letter file since the journal was opened.
+	 */
+	public long getDeadLetters(){
+		return deadLetters.get();
+	}
+
+	/**
+	 * @return the file the commands the database refuses are moved to.
+	 */
+	public Path getDeadLetterFile(){
+		return deadLetterFile;
+	}
+
+	/**
+	 * Starts the replay thread, sending the journaled commands to the database of the SQLTranslator.
+	 */
+	synchronized void startReplay(){
+		if (replayer == null) {
+			replayer = new Thread(this::replay, "WriteJournal-replay");
+			replayer.setDaemon(true);
+			replayer.start();
+		}
+	}
+
+	/**
+	 * Stops the replay and closes the file. Commands not replayed yet are replayed
+	 * when the journal is opened again.
+	 */
+	public void close(){
+		closed = true;
+		synchronized (this) {
+			if (replayer != null) {
+				replayer.interrupt();
+				try {
+					replayer.join(RETRY_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		lock.lock();
+		try {
+			buffer.force();
+			channel.close();
+		} catch (IOException e) {
+			LOG.warning("Error: cannot close the write journal : " + e.getMessage());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Replays the durable records in order, waiting for new ones.
+	 */
+	private void replay(){
+		while (!closed) {
+			Record record;
+			long sequence;
+			lock.lock();
+			try {
+				while (replaySequence > syncedSequence && !closed) {
+					try {
+						synced.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (closed) {
+					return;
+				}
+				record = read(replayPosition);
+				sequence = replaySequence;
+				if (record == null) {
+					LOG.severe("Error: the write journal is corrupt at " + replayPosition + ", replay stopped");
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+			try {
+				try {
+					apply(record, sequence);
+				} catch (SQLException e) {
+					if (closed) {
+						return;
+					}
+					if (isTransient(e)) {
+						throw e;
+					}
+					//a command the database refuses would block the journal for good
+					deadLetter(record, sequence, e.getMessage());
+				}
+			} catch (SQLException | IOException e) {
+				LOG.warning("Error: cannot replay the write journal, retrying : " + e.getMessage());
+				try {
+					Thread.sleep(RETRY_MILLIS);
+				} catch (InterruptedException ie) {
+					return;
+				}
+				continue;
+			}
+			lock.lock();
+			try {
+				replayPosition = record.next;
+				replaySequence = sequence + 1;
+				buffer.putLong(REPLAY_OFFSET, replayPosition);
+				buffer.putLong(REPLAY_SEQUENCE, replaySequence);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Applies a journaled command in one transaction with its idempotency key.
+	 */
+	private void apply(Record record, long sequence) throws SQLException, IOException{
+		PreparedQuery query;
+		try {
+			query = SQLTranslator.translateCSV(record.csv);
+		} catch (TranslatorException te) {
+			deadLetter(record, sequence, te.getMessage());
+			return;
+		}
+		String key = journalId + ":" + sequence;
+		ConnectionPool connectionPool = SQLTranslator.getRouter().getPrimary();
+		PooledConnection dbConnection;
+		try {
+			dbConnection = connectionPool.borrow();
+		} catch (PoolTimeoutException e) {
+			throw e;
+		} catch (SQLException e) {
+			//whatever the driver says, no connection means the database is unreachable
+			throw new SQLTransientConnectionException(e.getMessage(), e.getSQLState(), e);
+		}
+		Connection connection = dbConnection.getConnection();
+		int generatedId = 0;
+		boolean applied = false;
+		try {
+			connection.setAutoCommit(false);
+			PreparedStatement isApplied = dbConnection.prepare(IS_APPLIED_SQL);
+			isApplied.setString(1, key);
+			try (ResultSet rSet = isApplied.executeQuery()) {
+				if (rSet.next()) {
+					LOG.info("Journaled command already applied : " + key);
+					connection.rollback();
+					return;
+				}
+			}
+			PreparedStatement statement = dbConnection.prepare(query.getSql());
+			query.bind(statement);
+			statement.executeUpdate();
+			generatedId = SQLTranslator.generatedId(query, statement);
+			PreparedStatement markApplied = dbConnection.prepare(MARK_APPLIED_SQL);
+			markApplied.setString(1, key);
+			markApplied.executeUpdate();
+			connection.commit();
+			applied = true;
+		} catch (SQLException e) {
+			try {
+				connection.rollback();
+			} catch (SQLException re) {
+				dbConnection.markBroken();
+			}
+			throw e;
+		} finally {
+			try {
+				connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				dbConnection.markBroken();
+			}
+			connectionPool.release(dbConnection);
+		}
+		if (applied) {
+			SQLTranslator.afterQueuedWrite(query, generatedId);
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("Journaled command replayed : " + key);
+			}
+		}
+	}
+
+	/**
+	 * Moves a command that cannot be applied to the dead-letter file, so the replay can go on without losing it.
+	 * @throws IOException if the file cannot be written, the command is then retried.
+	 */
+	private void deadLetter(Record record, long sequence, String error) throws IOException{
+		String line = journalId + ":" + sequence + "\t" + record.csv + "\t" + String.valueOf(error).replaceAll("\\s+", " ")
+				+ System.lineSeparator();
+		Files.write(deadLetterFile, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+		deadLetters.incrementAndGet();
+		LOG.warning("Error: journaled command moved to " + deadLetterFile + " : " + record.csv + " : " + error);
+	}
+
+	/**
+	 * @return true for the failures of a database that is down or overloaded, which are retried:
+	 *         the pool's borrow timeout, a connection failure (SQLState class 08) or a rolled-back
+	 *         transaction (class 40, e.g. a deadlock). An error without a SQLState is not one of
+	 *         them, many drivers throw their refusals of a statement that way.
+	 */
+	private static boolean isTransient(SQLException e){
+		String state = e.getSQLState();
+		return e instanceof PoolTimeoutException || e instanceof SQLTransientException
+				|| e instanceof SQLRecoverableException
+				|| (state != null && (state.startsWith("08") || state.startsWith("40")));
+	}
+
+	/**
+	 * @return the record at a position, or null if there is no complete record with a valid CRC.
+	 */
+	private Record read(int position){
+		if (position + RECORD_HEADER > capacity) {
+			return null;
+		}
+		int length = buffer.getInt(position);
+		if (length < 8 || position + RECORD_HEADER + length > capacity) {
+			return null;
+		}
+		ByteBuffer payload = buffer.duplicate();
+		payload.position(position + RECORD_HEADER);
+		payload.limit(position + RECORD_HEADER + length);
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+		if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+			return null;
+		}
+		long sequence = payload.getLong();
+		byte[] csv = new byte[length - 8];
+		payload.get(csv);
+		return new Record(sequence, new String(csv, StandardCharsets.UTF_8), position + RECORD_HEADER + length);
+	}
+}
@@ -0,0 +1,29 @@
+/**
+ * Runs every benchmark of the SQLTranslator with the GC profiler, reporting
+ * throughput, allocation rate and latency percentiles (p99 from the sample mode).
+ * Arguments are passed on as a regular expression of benchmarks to include.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner{
+	public static void main(String[] args) throws RunnerException{
+		OptionsBuilder options = new OptionsBuilder();
+		if (args.length == 0) {
+			options.include("server\\..*Benchmark");
+		}
+		for (String include : args) {
+			options.include(include);
+		}
+		Options built = options.addProfiler(GCProfiler.class).build();
+		new Runner(built).run();
+	}
+}
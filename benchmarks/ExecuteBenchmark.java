@@ -0,0 +1,179 @@
+/**
+ * JMH benchmark of SQLTranslator.execute end to end (translation, pooled
+ * connection, query and row mapping) against an in-memory H2 database in
+ * MySQL mode, standing in for the real MySQL server.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecuteBenchmark{
+	private final static String URL = "jdbc:h2:mem:sqltranslator;MODE=MySQL;DB_CLOSE_DELAY=-1";
+	private final static String DRIVER = "org.h2.Driver";
+	private final static int CUSTOMERS = 1000;
+	private final static int DRIVERS = 200;
+	private final static int TRIPS = 20000;
+
+	//keeps the in-memory database alive between the pooled connections
+	private Connection schemaConnection;
+
+	@Setup
+	public void setUp() throws Exception{
+		Class.forName(DRIVER);
+		schemaConnection = DriverManager.getConnection(URL, "sa", "");
+		createSchema(schemaConnection);
+		//measure the database path, not the result cache
+		SQLTranslator.setQueryCache(null);
+		SQLTranslator.setConnectionPool(new ConnectionPool(URL, DRIVER, "sa", "", 4, 16, 5000, 300000));
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException{
+		SQLTranslator.setConnectionPool(null);
+		schemaConnection.close();
+	}
+
+	@Benchmark
+	public ArrayList loginById(){
+		return SQLTranslator.execute("LOGIN,1001,secret");
+	}
+
+	@Benchmark
+	public ArrayList loginByEmail(){
+		return SQLTranslator.execute("LOGIN,customer1001@example.com,secret");
+	}
+
+	@Benchmark
+	public ArrayList viewCustomerTrips(){
+		return SQLTranslator.execute("VIEW_TRIP,1001");
+	}
+
+	@Benchmark
+	public ArrayList viewUnassignedTrips(){
+		return SQLTranslator.execute("VIEW_TRIP,NULL");
+	}
+
+	@Benchmark
+	public ArrayList availableDrivers(){
+		return SQLTranslator.execute("AVAILABLE_DRIVERS,2016-05-01,10:00");
+	}
+
+	@Benchmark
+	public ArrayList getCards(){
+		return SQLTranslator.execute("GET_CARDS,1001");
+	}
+
+	@Benchmark
+	public ArrayList bookTrip(){
+		return SQLTranslator.execute("BOOK_TRIP,1001,12 High Street,Leeds,West Yorkshire,LS1 4AP,"
+				+ "1 Station Road,York,North Yorkshire,YO1 6GA,2016-06-01,09:00");
+	}
+
+	private static void createSchema(Connection connection) throws SQLException{
+		try (Statement statement = connection.createStatement()) {
+			//the database outlives a benchmark when JMH runs several in one JVM
+			statement.execute("DROP ALL OBJECTS");
+			statement.execute("CREATE TABLE customer (CUSTOMER_ID INT AUTO_INCREMENT PRIMARY KEY, first_name VARCHAR(40),"
+					+ " last_name VARCHAR(40), address VARCHAR(80), city VARCHAR(40), county VARCHAR(40),"
+					+ " postcode VARCHAR(10), email VARCHAR(80), phone_number VARCHAR(20))");
+			statement.execute("ALTER TABLE customer ALTER COLUMN CUSTOMER_ID RESTART WITH 1000");
+			statement.execute("CREATE TABLE driver (DRIVER_ID INT PRIMARY KEY, first_name VARCHAR(40),"
+					+ " last_name VARCHAR(40), licence_plate VARCHAR(10), phone_no VARCHAR(20))");
+			statement.execute("CREATE TABLE company_staff (STAFF_ID INT PRIMARY KEY, first_name VARCHAR(40),"
+					+ " last_name VARCHAR(40))");
+			statement.execute("CREATE TABLE password (ID INT PRIMARY KEY, pw VARCHAR(128))");
+			//the translator filters cards on cust_id and maps the owner from cust_no
+			statement.execute("CREATE TABLE card_info (cust_no INT, CARD_NO VARCHAR(20), start_date VARCHAR(10),"
+					+ " exp_date VARCHAR(10), cust_id INT)");
+			statement.execute("CREATE TABLE trip (TRIP_ID INT AUTO_INCREMENT PRIMARY KEY, cust_id INT, driver_id INT,"
+					+ " from_address VARCHAR(80), from_city VARCHAR(40), from_county VARCHAR(40), from_postcode VARCHAR(10),"
+					+ " to_address VARCHAR(80), to_city VARCHAR(40), to_county VARCHAR(40), to_postcode VARCHAR(10),"
+					+ " trip_date VARCHAR(10), trip_time VARCHAR(8))");
+			statement.execute("CREATE INDEX trip_cust ON trip (cust_id, trip_date, TRIP_ID)");
+			statement.execute("CREATE INDEX trip_driver ON trip (driver_id, trip_date, TRIP_ID)");
+			statement.execute("CREATE INDEX card_cust ON card_info (cust_id)");
+		}
+		String[] cities = { "Leeds", "York", "Bradford", "Harrogate", "Wakefield" };
+		try (PreparedStatement customer = connection.prepareStatement("INSERT INTO customer (first_name, last_name,"
+				+ " address, county, city, postcode, email, phone_number) VALUES (?,?,?,?,?,?,?,?)");
+				PreparedStatement password = connection.prepareStatement("INSERT INTO password (ID, pw) VALUES (?,?)");
+				PreparedStatement card = connection.prepareStatement("INSERT INTO card_info VALUES (?,?,?,?,?)")) {
+			for (int i = 0; i < CUSTOMERS; i++) {
+				int id = 1000 + i;
+				customer.setString(1, "First" + i);
+				customer.setString(2, "Last" + i);
+				customer.setString(3, i + " High Street");
+				customer.setString(4, "Yorkshire");
+				customer.setString(5, cities[i % cities.length]);
+				customer.setString(6, "LS" + (i % 30) + " 1AA");
+				customer.setString(7, "customer" + id + "@example.com");
+				customer.setString(8, "07700" + id);
+				customer.addBatch();
+				password.setInt(1, id);
+				password.setString(2, "secret");
+				password.addBatch();
+				card.setInt(1, id);
+				card.setString(2, "4000000000" + id);
+				card.setString(3, "01/16");
+				card.setString(4, "01/20");
+				card.setInt(5, id);
+				card.addBatch();
+			}
+			customer.executeBatch();
+			password.executeBatch();
+			card.executeBatch();
+		}
+		try (PreparedStatement driver = connection.prepareStatement("INSERT INTO driver VALUES (?,?,?,?,?)")) {
+			for (int i = 0; i < DRIVERS; i++) {
+				driver.setInt(1, 3000 + i);
+				driver.setString(2, "Driver" + i);
+				driver.setString(3, "Last" + i);
+				driver.setString(4, "YD16 " + i);
+				driver.setString(5, "07800" + i);
+				driver.addBatch();
+			}
+			driver.executeBatch();
+		}
+		try (PreparedStatement trip = connection.prepareStatement("INSERT INTO trip (cust_id, driver_id, from_address,"
+				+ " from_city, from_county, from_postcode, to_address, to_city, to_county, to_postcode, trip_date, trip_time)"
+				+ " VALUES (?,?,?,?,?,?,?,?,?,?,?,?)")) {
+			for (int i = 0; i < TRIPS; i++) {
+				trip.setInt(1, 1000 + i % CUSTOMERS);
+				//every tenth trip is still unassigned
+				if (i % 10 == 0) {
+					trip.setNull(2, java.sql.Types.INTEGER);
+				} else {
+					trip.setInt(2, 3000 + i % DRIVERS);
+				}
+				trip.setString(3, i + " High Street");
+				trip.setString(4, cities[i % cities.length]);
+				trip.setString(5, "Yorkshire");
+				trip.setString(6, "LS1 4AP");
+				trip.setString(7, "1 Station Road");
+				trip.setString(8, cities[(i + 1) % cities.length]);
+				trip.setString(9, "Yorkshire");
+				trip.setString(10, "YO1 6GA");
+				trip.setString(11, "2016-05-" + String.format("%02d", 1 + i % 28));
+				trip.setString(12, String.format("%02d:00", 6 + i % 16));
+				trip.addBatch();
+			}
+			trip.executeBatch();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * JMH benchmark of building the result lists of execute from a ResultSet,
+ * for every result class, over synthetic ResultSets of 10, 1k and 100k rows.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import common.*;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RowMappingBenchmark{
+
+	@Param({ "Trip", "Driver", "Customer", "CreditCard", "Staff" })
+	public String type;
+
+	@Param({ "10", "1000", "100000" })
+	public int rows;
+
+	private ResultSet rSet;
+	private Class<?> resultType;
+
+	@Setup
+	public void setUp(){
+		switch (type) {
+		case "Trip":
+			rSet = SyntheticResultSet.create(SyntheticResultSet.TRIP_COLUMNS, rows);
+			resultType = Trip.class;
+			break;
+		case "Driver":
+			rSet = SyntheticResultSet.create(SyntheticResultSet.DRIVER_COLUMNS, rows);
+			resultType = Driver.class;
+			break;
+		case "Customer":
+			rSet = SyntheticResultSet.create(SyntheticResultSet.CUSTOMER_COLUMNS, rows);
+			resultType = Customer.class;
+			break;
+		case "CreditCard":
+			rSet = SyntheticResultSet.create(SyntheticResultSet.CARD_COLUMNS, rows);
+			resultType = CreditCard.class;
+			break;
+		case "Staff":
+			rSet = SyntheticResultSet.create(SyntheticResultSet.STAFF_COLUMNS, rows);
+			resultType = Staff.class;
+			break;
+		default:
+			throw new IllegalArgumentException(type);
+		}
+	}
+
+	@Benchmark
+	public ArrayList<?> buildList() throws SQLException{
+		rSet.beforeFirst();
+		return SQLTranslator.listBuilder(rSet, RowMappers.forShape(resultType, rSet.getMetaData()));
+	}
+}
@@ -0,0 +1,329 @@
+/**
+ * In-memory ResultSet of generated rows for the row mapping benchmarks, so the
+ * mappers can be measured without a database. Only the methods the mappers use
+ * are implemented (next, getInt, getString, getMetaData, beforeFirst, close);
+ * the others throw SQLFeatureNotSupportedException. It is a plain class rather
+ * than a java.lang.reflect.Proxy, so the getters are ordinary calls the JIT can
+ * inline, like a driver's, instead of a reflective dispatch boxing every int.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.Calendar;
+import java.util.Map;
+
+class SyntheticResultSet implements ResultSet{
+	//columns of the tables, in the order of the database
+	final static String[] TRIP_COLUMNS = { "TRIP_ID", "cust_id", "driver_id", "from_address", "from_city", "from_county",
+			"from_postcode", "to_address", "to_city", "to_county", "to_postcode", "trip_date", "trip_time" };
+	final static String[] DRIVER_COLUMNS = { "DRIVER_ID", "first_name", "last_name", "licence_plate", "phone_no" };
+	final static String[] CUSTOMER_COLUMNS = { "CUSTOMER_ID", "first_name", "last_name", "address", "city", "county",
+			"postcode", "email", "phone_number" };
+	final static String[] CARD_COLUMNS = { "cust_no", "CARD_NO", "start_date", "exp_date" };
+	final static String[] STAFF_COLUMNS = { "STAFF_ID", "first_name", "last_name" };
+
+	private final int rows;
+	//the repeating values of every column
+	private final String[][] values;
+	private final Columns metaData;
+	private int cursor = -1;
+
+	/**
+	 * The labels of the columns, the only metadata the mappers read.
+	 */
+	private static class Columns implements ResultSetMetaData{
+		private final String[] labels;
+
+		Columns(String[] labels){
+			this.labels = labels;
+		}
+
+		@Override
+		public int getColumnCount(){
+			return labels.length;
+		}
+
+		@Override
+		public String getColumnLabel(int column){
+			return labels[column - 1];
+		}
+
+		@Override
+		public String getColumnName(int column){
+			return labels[column - 1];
+		}
+
+		//not used by the mappers
+		public String getCatalogName(int column) throws SQLException{ throw unsupported(); }
+		public String getColumnClassName(int column) throws SQLException{ throw unsupported(); }
+		public int getColumnDisplaySize(int column) throws SQLException{ throw unsupported(); }
+		public int getColumnType(int column) throws SQLException{ throw unsupported(); }
+		public String getColumnTypeName(int column) throws SQLException{ throw unsupported(); }
+		public int getPrecision(int column) throws SQLException{ throw unsupported(); }
+		public int getScale(int column) throws SQLException{ throw unsupported(); }
+		public String getSchemaName(int column) throws SQLException{ throw unsupported(); }
+		public String getTableName(int column) throws SQLException{ throw unsupported(); }
+		public boolean isAutoIncrement(int column) throws SQLException{ throw unsupported(); }
+		public boolean isCaseSensitive(int column) throws SQLException{ throw unsupported(); }
+		public boolean isCurrency(int column) throws SQLException{ throw unsupported(); }
+		public boolean isDefinitelyWritable(int column) throws SQLException{ throw unsupported(); }
+		public int isNullable(int column) throws SQLException{ throw unsupported(); }
+		public boolean isReadOnly(int column) throws SQLException{ throw unsupported(); }
+		public boolean isSearchable(int column) throws SQLException{ throw unsupported(); }
+		public boolean isSigned(int column) throws SQLException{ throw unsupported(); }
+		public boolean isWrapperFor(Class<?> type) throws SQLException{ throw unsupported(); }
+		public boolean isWritable(int column) throws SQLException{ throw unsupported(); }
+		public <T> T unwrap(Class<T> type) throws SQLException{ throw unsupported(); }
+	}
+
+	private SyntheticResultSet(String[] columns, int rows){
+		this.rows = rows;
+		this.metaData = new Columns(columns);
+		values = new String[columns.length][];
+		for (int c = 0; c < columns.length; c++) {
+			values[c] = new String[16];
+			for (int v = 0; v < values[c].length; v++) {
+				values[c][v] = columns[c] + "-" + v;
+			}
+		}
+	}
+
+	/**
+	 * Creates a ResultSet of generated rows. Column 1 is an int ID, the other columns
+	 * hold one of a few repeating strings, like real city and county columns do.
+	 * @param columns The column labels.
+	 * @param rows Number of rows.
+	 * @return ResultSet positioned before the first row; beforeFirst() rewinds it.
+	 */
+	static ResultSet create(String[] columns, int rows){
+		return new SyntheticResultSet(columns, rows);
+	}
+
+	@Override
+	public boolean next(){
+		return ++cursor < rows;
+	}
+
+	@Override
+	public void beforeFirst(){
+		cursor = -1;
+	}
+
+	@Override
+	public int getInt(int column){
+		return 1000 + cursor;
+	}
+
+	@Override
+	public String getString(int column){
+		String[] repeating = values[column - 1];
+		return repeating[cursor & (repeating.length - 1)];
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData(){
+		return metaData;
+	}
+
+	@Override
+	public void close(){
+	}
+
+	//not used by the mappers
+	public boolean absolute(int rows) throws SQLException{ throw unsupported(); }
+	public void afterLast() throws SQLException{ throw unsupported(); }
+	public void cancelRowUpdates() throws SQLException{ throw unsupported(); }
+	public void clearWarnings() throws SQLException{ throw unsupported(); }
+	public void deleteRow() throws SQLException{ throw unsupported(); }
+	public int findColumn(String columnLabel) throws SQLException{ throw unsupported(); }
+	public boolean first() throws SQLException{ throw unsupported(); }
+	public Array getArray(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Array getArray(int column) throws SQLException{ throw unsupported(); }
+	public InputStream getAsciiStream(String columnLabel) throws SQLException{ throw unsupported(); }
+	public InputStream getAsciiStream(int column) throws SQLException{ throw unsupported(); }
+	@Deprecated public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException{ throw unsupported(); }
+	public BigDecimal getBigDecimal(String columnLabel) throws SQLException{ throw unsupported(); }
+	@Deprecated public BigDecimal getBigDecimal(int column, int scale) throws SQLException{ throw unsupported(); }
+	public BigDecimal getBigDecimal(int column) throws SQLException{ throw unsupported(); }
+	public InputStream getBinaryStream(String columnLabel) throws SQLException{ throw unsupported(); }
+	public InputStream getBinaryStream(int column) throws SQLException{ throw unsupported(); }
+	public Blob getBlob(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Blob getBlob(int column) throws SQLException{ throw unsupported(); }
+	public boolean getBoolean(String columnLabel) throws SQLException{ throw unsupported(); }
+	public boolean getBoolean(int column) throws SQLException{ throw unsupported(); }
+	public byte getByte(String columnLabel) throws SQLException{ throw unsupported(); }
+	public byte getByte(int column) throws SQLException{ throw unsupported(); }
+	public byte[] getBytes(String columnLabel) throws SQLException{ throw unsupported(); }
+	public byte[] getBytes(int column) throws SQLException{ throw unsupported(); }
+	public Reader getCharacterStream(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Reader getCharacterStream(int column) throws SQLException{ throw unsupported(); }
+	public Clob getClob(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Clob getClob(int column) throws SQLException{ throw unsupported(); }
+	public int getConcurrency() throws SQLException{ throw unsupported(); }
+	public String getCursorName() throws SQLException{ throw unsupported(); }
+	public Date getDate(String columnLabel, Calendar calendar) throws SQLException{ throw unsupported(); }
+	public Date getDate(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Date getDate(int column, Calendar calendar) throws SQLException{ throw unsupported(); }
+	public Date getDate(int column) throws SQLException{ throw unsupported(); }
+	public double getDouble(String columnLabel) throws SQLException{ throw unsupported(); }
+	public double getDouble(int column) throws SQLException{ throw unsupported(); }
+	public int getFetchDirection() throws SQLException{ throw unsupported(); }
+	public int getFetchSize() throws SQLException{ throw unsupported(); }
+	public float getFloat(String columnLabel) throws SQLException{ throw unsupported(); }
+	public float getFloat(int column) throws SQLException{ throw unsupported(); }
+	public int getHoldability() throws SQLException{ throw unsupported(); }
+	public int getInt(String columnLabel) throws SQLException{ throw unsupported(); }
+	public long getLong(String columnLabel) throws SQLException{ throw unsupported(); }
+	public long getLong(int column) throws SQLException{ throw unsupported(); }
+	public Reader getNCharacterStream(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Reader getNCharacterStream(int column) throws SQLException{ throw unsupported(); }
+	public NClob getNClob(String columnLabel) throws SQLException{ throw unsupported(); }
+	public NClob getNClob(int column) throws SQLException{ throw unsupported(); }
+	public String getNString(String columnLabel) throws SQLException{ throw unsupported(); }
+	public String getNString(int column) throws SQLException{ throw unsupported(); }
+	public <T> T getObject(String columnLabel, Class<T> type) throws SQLException{ throw unsupported(); }
+	public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException{ throw unsupported(); }
+	public Object getObject(String columnLabel) throws SQLException{ throw unsupported(); }
+	public <T> T getObject(int column, Class<T> type) throws SQLException{ throw unsupported(); }
+	public Object getObject(int column, Map<String, Class<?>> map) throws SQLException{ throw unsupported(); }
+	public Object getObject(int column) throws SQLException{ throw unsupported(); }
+	public Ref getRef(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Ref getRef(int column) throws SQLException{ throw unsupported(); }
+	public int getRow() throws SQLException{ throw unsupported(); }
+	public RowId getRowId(String columnLabel) throws SQLException{ throw unsupported(); }
+	public RowId getRowId(int column) throws SQLException{ throw unsupported(); }
+	public SQLXML getSQLXML(String columnLabel) throws SQLException{ throw unsupported(); }
+	public SQLXML getSQLXML(int column) throws SQLException{ throw unsupported(); }
+	public short getShort(String columnLabel) throws SQLException{ throw unsupported(); }
+	public short getShort(int column) throws SQLException{ throw unsupported(); }
+	public Statement getStatement() throws SQLException{ throw unsupported(); }
+	public String getString(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Time getTime(String columnLabel, Calendar calendar) throws SQLException{ throw unsupported(); }
+	public Time getTime(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Time getTime(int column, Calendar calendar) throws SQLException{ throw unsupported(); }
+	public Time getTime(int column) throws SQLException{ throw unsupported(); }
+	public Timestamp getTimestamp(String columnLabel, Calendar calendar) throws SQLException{ throw unsupported(); }
+	public Timestamp getTimestamp(String columnLabel) throws SQLException{ throw unsupported(); }
+	public Timestamp getTimestamp(int column, Calendar calendar) throws SQLException{ throw unsupported(); }
+	public Timestamp getTimestamp(int column) throws SQLException{ throw unsupported(); }
+	public int getType() throws SQLException{ throw unsupported(); }
+	public URL getURL(String columnLabel) throws SQLException{ throw unsupported(); }
+	public URL getURL(int column) throws SQLException{ throw unsupported(); }
+	@Deprecated public InputStream getUnicodeStream(String columnLabel) throws SQLException{ throw unsupported(); }
+	@Deprecated public InputStream getUnicodeStream(int column) throws SQLException{ throw unsupported(); }
+	public SQLWarning getWarnings() throws SQLException{ throw unsupported(); }
+	public void insertRow() throws SQLException{ throw unsupported(); }
+	public boolean isAfterLast() throws SQLException{ throw unsupported(); }
+	public boolean isBeforeFirst() throws SQLException{ throw unsupported(); }
+	public boolean isClosed() throws SQLException{ throw unsupported(); }
+	public boolean isFirst() throws SQLException{ throw unsupported(); }
+	public boolean isLast() throws SQLException{ throw unsupported(); }
+	public boolean isWrapperFor(Class<?> type) throws SQLException{ throw unsupported(); }
+	public boolean last() throws SQLException{ throw unsupported(); }
+	public void moveToCurrentRow() throws SQLException{ throw unsupported(); }
+	public void moveToInsertRow() throws SQLException{ throw unsupported(); }
+	public boolean previous() throws SQLException{ throw unsupported(); }
+	public void refreshRow() throws SQLException{ throw unsupported(); }
+	public boolean relative(int rows) throws SQLException{ throw unsupported(); }
+	public boolean rowDeleted() throws SQLException{ throw unsupported(); }
+	public boolean rowInserted() throws SQLException{ throw unsupported(); }
+	public boolean rowUpdated() throws SQLException{ throw unsupported(); }
+	public void setFetchDirection(int direction) throws SQLException{ throw unsupported(); }
+	public void setFetchSize(int rows) throws SQLException{ throw unsupported(); }
+	public <T> T unwrap(Class<T> type) throws SQLException{ throw unsupported(); }
+	public void updateArray(String columnLabel, Array array) throws SQLException{ throw unsupported(); }
+	public void updateArray(int column, Array array) throws SQLException{ throw unsupported(); }
+	public void updateAsciiStream(String columnLabel, InputStream inputStream, int length) throws SQLException{ throw unsupported(); }
+	public void updateAsciiStream(String columnLabel, InputStream inputStream, long length) throws SQLException{ throw unsupported(); }
+	public void updateAsciiStream(String columnLabel, InputStream inputStream) throws SQLException{ throw unsupported(); }
+	public void updateAsciiStream(int column, InputStream inputStream, int length) throws SQLException{ throw unsupported(); }
+	public void updateAsciiStream(int column, InputStream inputStream, long length) throws SQLException{ throw unsupported(); }
+	public void updateAsciiStream(int column, InputStream inputStream) throws SQLException{ throw unsupported(); }
+	public void updateBigDecimal(String columnLabel, BigDecimal bigDecimal) throws SQLException{ throw unsupported(); }
+	public void updateBigDecimal(int column, BigDecimal bigDecimal) throws SQLException{ throw unsupported(); }
+	public void updateBinaryStream(String columnLabel, InputStream inputStream, int length) throws SQLException{ throw unsupported(); }
+	public void updateBinaryStream(String columnLabel, InputStream inputStream, long length) throws SQLException{ throw unsupported(); }
+	public void updateBinaryStream(String columnLabel, InputStream inputStream) throws SQLException{ throw unsupported(); }
+	public void updateBinaryStream(int column, InputStream inputStream, int length) throws SQLException{ throw unsupported(); }
+	public void updateBinaryStream(int column, InputStream inputStream, long length) throws SQLException{ throw unsupported(); }
+	public void updateBinaryStream(int column, InputStream inputStream) throws SQLException{ throw unsupported(); }
+	public void updateBlob(String columnLabel, InputStream inputStream, long length) throws SQLException{ throw unsupported(); }
+	public void updateBlob(String columnLabel, InputStream inputStream) throws SQLException{ throw unsupported(); }
+	public void updateBlob(String columnLabel, Blob blob) throws SQLException{ throw unsupported(); }
+	public void updateBlob(int column, InputStream inputStream, long length) throws SQLException{ throw unsupported(); }
+	public void updateBlob(int column, InputStream inputStream) throws SQLException{ throw unsupported(); }
+	public void updateBlob(int column, Blob blob) throws SQLException{ throw unsupported(); }
+	public void updateBoolean(String columnLabel, boolean value) throws SQLException{ throw unsupported(); }
+	public void updateBoolean(int column, boolean value) throws SQLException{ throw unsupported(); }
+	public void updateByte(String columnLabel, byte value) throws SQLException{ throw unsupported(); }
+	public void updateByte(int column, byte value) throws SQLException{ throw unsupported(); }
+	public void updateBytes(String columnLabel, byte[] bytes) throws SQLException{ throw unsupported(); }
+	public void updateBytes(int column, byte[] bytes) throws SQLException{ throw unsupported(); }
+	public void updateCharacterStream(String columnLabel, Reader reader, int length) throws SQLException{ throw unsupported(); }
+	public void updateCharacterStream(String columnLabel, Reader reader, long length) throws SQLException{ throw unsupported(); }
+	public void updateCharacterStream(String columnLabel, Reader reader) throws SQLException{ throw unsupported(); }
+	public void updateCharacterStream(int column, Reader reader, int length) throws SQLException{ throw unsupported(); }
+	public void updateCharacterStream(int column, Reader reader, long length) throws SQLException{ throw unsupported(); }
+	public void updateCharacterStream(int column, Reader reader) throws SQLException{ throw unsupported(); }
+	public void updateClob(String columnLabel, Reader reader, long length) throws SQLException{ throw unsupported(); }
+	public void updateClob(String columnLabel, Reader reader) throws SQLException{ throw unsupported(); }
+	public void updateClob(String columnLabel, Clob clob) throws SQLException{ throw unsupported(); }
+	public void updateClob(int column, Reader reader, long length) throws SQLException{ throw unsupported(); }
+	public void updateClob(int column, Reader reader) throws SQLException{ throw unsupported(); }
+	public void updateClob(int column, Clob clob) throws SQLException{ throw unsupported(); }
+	public void updateDate(String columnLabel, Date date) throws SQLException{ throw unsupported(); }
+	public void updateDate(int column, Date date) throws SQLException{ throw unsupported(); }
+	public void updateDouble(String columnLabel, double value) throws SQLException{ throw unsupported(); }
+	public void updateDouble(int column, double value) throws SQLException{ throw unsupported(); }
+	public void updateFloat(String columnLabel, float value) throws SQLException{ throw unsupported(); }
+	public void updateFloat(int column, float value) throws SQLException{ throw unsupported(); }
+	public void updateInt(String columnLabel, int value) throws SQLException{ throw unsupported(); }
+	public void updateInt(int column, int value) throws SQLException{ throw unsupported(); }
+	public void updateLong(String columnLabel, long value) throws SQLException{ throw unsupported(); }
+	public void updateLong(int column, long value) throws SQLException{ throw unsupported(); }
+	public void updateNCharacterStream(String columnLabel, Reader reader, long length) throws SQLException{ throw unsupported(); }
+	public void updateNCharacterStream(String columnLabel, Reader reader) throws SQLException{ throw unsupported(); }
+	public void updateNCharacterStream(int column, Reader reader, long length) throws SQLException{ throw unsupported(); }
+	public void updateNCharacterStream(int column, Reader reader) throws SQLException{ throw unsupported(); }
+	public void updateNClob(String columnLabel, Reader reader, long length) throws SQLException{ throw unsupported(); }
+	public void updateNClob(String columnLabel, Reader reader) throws SQLException{ throw unsupported(); }
+	public void updateNClob(String columnLabel, NClob nClob) throws SQLException{ throw unsupported(); }
+	public void updateNClob(int column, Reader reader, long length) throws SQLException{ throw unsupported(); }
+	public void updateNClob(int column, Reader reader) throws SQLException{ throw unsupported(); }
+	public void updateNClob(int column, NClob nClob) throws SQLException{ throw unsupported(); }
+	public void updateNString(String columnLabel, String text) throws SQLException{ throw unsupported(); }
+	public void updateNString(int column, String text) throws SQLException{ throw unsupported(); }
+	public void updateNull(String columnLabel) throws SQLException{ throw unsupported(); }
+	public void updateNull(int column) throws SQLException{ throw unsupported(); }
+	public void updateObject(String columnLabel, Object value, int scaleOrLength) throws SQLException{ throw unsupported(); }
+	public void updateObject(String columnLabel, Object value) throws SQLException{ throw unsupported(); }
+	public void updateObject(int column, Object value, int scaleOrLength) throws SQLException{ throw unsupported(); }
+	public void updateObject(int column, Object value) throws SQLException{ throw unsupported(); }
+	public void updateRef(String columnLabel, Ref ref) throws SQLException{ throw unsupported(); }
+	public void updateRef(int column, Ref ref) throws SQLException{ throw unsupported(); }
+	public void updateRow() throws SQLException{ throw unsupported(); }
+	public void updateRowId(String columnLabel, RowId rowId) throws SQLException{ throw unsupported(); }
+	public void updateRowId(int column, RowId rowId) throws SQLException{ throw unsupported(); }
+	public void updateSQLXML(String columnLabel, SQLXML xml) throws SQLException{ throw unsupported(); }
+	public void updateSQLXML(int column, SQLXML xml) throws SQLException{ throw unsupported(); }
+	public void updateShort(String columnLabel, short value) throws SQLException{ throw unsupported(); }
+	public void updateShort(int column, short value) throws SQLException{ throw unsupported(); }
+	public void updateString(String columnLabel, String text) throws SQLException{ throw unsupported(); }
+	public void updateString(int column, String text) throws SQLException{ throw unsupported(); }
+	public void updateTime(String columnLabel, Time time) throws SQLException{ throw unsupported(); }
+	public void updateTime(int column, Time time) throws SQLException{ throw unsupported(); }
+	public void updateTimestamp(String columnLabel, Timestamp timestamp) throws SQLException{ throw unsupported(); }
+	public void updateTimestamp(int column, Timestamp timestamp) throws SQLException{ throw unsupported(); }
+	public boolean wasNull() throws SQLException{ throw unsupported(); }
+
+	private static SQLException unsupported(){
+		return new SQLFeatureNotSupportedException("Not supported by the synthetic ResultSet");
+	}
+}
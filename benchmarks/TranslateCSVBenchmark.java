@@ -0,0 +1,69 @@
+/**
+ * JMH benchmark of SQLTranslator.translateCSV, for every command verb.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import common.*;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TranslateCSVBenchmark{
+
+	@Param({ "LOGIN", "LOGIN_EMAIL", "BOOK_TRIP", "VIEW_TRIP", "VIEW_TRIP_NULL", "CANCEL_TRIP", "ASSIGN_DRIVER",
+			"SIGN_UP", "AVAILABLE_DRIVERS", "GET_CARDS" })
+	public String command;
+
+	private String CSV;
+
+	@Setup
+	public void setUp(){
+		switch (command) {
+		case "LOGIN":
+			CSV = "LOGIN,1001,secret";
+			break;
+		case "LOGIN_EMAIL":
+			CSV = "LOGIN,jane.doe@example.com,secret";
+			break;
+		case "BOOK_TRIP":
+			CSV = "BOOK_TRIP,1001,\"12, High Street\",Leeds,West Yorkshire,LS1 4AP,1 Station Road,York,North Yorkshire,YO1 6GA,2016-05-01,10:30";
+			break;
+		case "VIEW_TRIP":
+			CSV = "VIEW_TRIP,1001";
+			break;
+		case "VIEW_TRIP_NULL":
+			CSV = "VIEW_TRIP,NULL";
+			break;
+		case "CANCEL_TRIP":
+			CSV = "CANCEL_TRIP,42";
+			break;
+		case "ASSIGN_DRIVER":
+			CSV = "ASSIGN_DRIVER,42,3001";
+			break;
+		case "SIGN_UP":
+			CSV = "SIGN_UP,Jane,Doe,12 High Street,West Yorkshire,Leeds,LS1 4AP,jane.doe@example.com,07700900123";
+			break;
+		case "AVAILABLE_DRIVERS":
+			CSV = "AVAILABLE_DRIVERS,2016-05-01,10:30";
+			break;
+		case "GET_CARDS":
+			CSV = "GET_CARDS,1001";
+			break;
+		default:
+			throw new IllegalArgumentException(command);
+		}
+	}
+
+	@Benchmark
+	public PreparedQuery translate() throws TranslatorException{
+		return SQLTranslator.translateCSV(CSV);
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * JMH benchmark of reading trips into a TripColumns against building the
+ * ArrayList of Trips, over synthetic ResultSets of 1k and 100k rows.
+ * The synthetic rows share their Strings, so this compares the CPU cost of the
+ * two forms; with a real driver every Trip also holds its own copy of the
+ * repeated city, county and postcode Strings, which a TripColumns does not.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import common.*;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TripColumnsBenchmark{
+
+	@Param({ "1000", "100000" })
+	public int rows;
+
+	private ResultSet rSet;
+
+	@Setup
+	public void setUp(){
+		rSet = SyntheticResultSet.create(SyntheticResultSet.TRIP_COLUMNS, rows);
+	}
+
+	@Benchmark
+	public ArrayList<Trip> tripList() throws SQLException{
+		rSet.beforeFirst();
+		return SQLTranslator.listBuilder(rSet, RowMappers.forShape(Trip.class, rSet.getMetaData()));
+	}
+
+	@Benchmark
+	public TripColumns tripColumns() throws SQLException{
+		rSet.beforeFirst();
+		return TripColumns.read(rSet);
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Tests of the AssignmentBuffer: ASSIGN_DRIVER is coalesced by trip, the trips
+ * read meanwhile carry the pending driver, a failed flush keeps the
+ * assignments, and a direct write of a trip is not written over.
+ *
+ * Trip 2 belongs to customer 1001 and is assigned to driver 3001 in the test
+ * database; trips 1 and 11 are unassigned.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.h2.api.Trigger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import common.*;
+
+public class AssignmentBufferTest{
+	private TestDatabase database;
+	private AssignmentBuffer buffer;
+
+	/**
+	 * Drops the pending assignment of trip 1 while a flush writes it, as a direct write of
+	 * the trip committed meanwhile would.
+	 */
+	public static class DirectWrite implements Trigger{
+		static volatile AssignmentBuffer buffer;
+
+		@Override
+		public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException{
+			AssignmentBuffer pending = buffer;
+			if (pending != null && ((Number) newRow[0]).intValue() == 1) {
+				buffer = null;
+				pending.superseded(1);
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("buffer");
+		SQLTranslator.setConnectionPool(database.newPool());
+		//flushed by the tests
+		buffer = new AssignmentBuffer(60000, 1000);
+		SQLTranslator.setAssignmentBuffer(buffer);
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		DirectWrite.buffer = null;
+		SQLTranslator.setAssignmentBuffer(null);
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void onlyTheLatestDriverOfATripIsWritten() throws Exception{
+		SQLTranslator.execute("ASSIGN_DRIVER,1,3001");
+		SQLTranslator.execute("ASSIGN_DRIVER,1,3002");
+		SQLTranslator.execute("ASSIGN_DRIVER,11,3003");
+		assertEquals(3, buffer.getAssignments());
+		assertEquals(1, buffer.getCoalesced());
+		assertEquals(2, buffer.getPending());
+		assertEquals(0, driverOf(1));
+		assertTrue(buffer.flush());
+		assertEquals(3002, driverOf(1));
+		assertEquals(3003, driverOf(11));
+		assertEquals(2, buffer.getWritten());
+		assertEquals(0, buffer.getPending());
+	}
+
+	@Test
+	public void theTripsReadMeanwhileCarryThePendingDriver() throws Exception{
+		byte[] before = serialize(SQLTranslator.execute("VIEW_TRIP,1001"));
+		SQLTranslator.execute("ASSIGN_DRIVER,2,3005");
+		assertEquals(3001, driverOf(2));
+		byte[] pending = serialize(SQLTranslator.execute("VIEW_TRIP,1001"));
+		byte[] streamed;
+		try (Stream<Trip> trips = SQLTranslator.executeStream("VIEW_TRIP,1001", Trip.class)) {
+			streamed = serialize(trips.collect(Collectors.toList()));
+		}
+		TripColumns columns = SQLTranslator.executeColumns("VIEW_TRIP,1001");
+		assertEquals(3005, columns.getDriverId(rowOf(columns, 2)));
+
+		assertTrue(buffer.flush());
+		assertEquals(3005, driverOf(2));
+		//the trips read before the flush are the ones read after it
+		byte[] written = serialize(SQLTranslator.execute("VIEW_TRIP,1001"));
+		assertFalse(java.util.Arrays.equals(before, written));
+		assertArrayEquals(written, pending);
+		assertArrayEquals(written, streamed);
+	}
+
+	@Test
+	public void aFailedFlushKeepsTheAssignments() throws Exception{
+		SQLTranslator.execute("ASSIGN_DRIVER,1,3001");
+		SQLTranslator.execute("ASSIGN_DRIVER,11,3002");
+		ConnectionPool closed = database.newPool();
+		closed.close();
+		SQLTranslator.setConnectionPool(closed);
+		assertFalse(buffer.flush());
+		assertEquals(2, buffer.getPending());
+
+		SQLTranslator.setConnectionPool(database.newPool());
+		assertTrue(buffer.flush());
+		assertEquals(3001, driverOf(1));
+		assertEquals(3002, driverOf(11));
+	}
+
+	@Test
+	public void aDirectWriteDropsThePendingAssignment() throws Exception{
+		SQLTranslator.execute("ASSIGN_DRIVER,1,3001");
+		SQLTranslator.execute("CANCEL_TRIP,1");
+		assertEquals(0, buffer.getPending());
+	}
+
+	@Test
+	public void aFlushDoesNotWriteOverADirectWriteLandingMeanwhile() throws Exception{
+		database.update("CREATE TRIGGER direct_write BEFORE UPDATE ON trip FOR EACH ROW CALL \""
+				+ DirectWrite.class.getName() + "\"");
+		SQLTranslator.execute("ASSIGN_DRIVER,1,3001");
+		SQLTranslator.execute("ASSIGN_DRIVER,11,3002");
+		DirectWrite.buffer = buffer;
+		assertTrue(buffer.flush());
+		assertEquals(0, driverOf(1));
+		assertEquals(3002, driverOf(11));
+		assertEquals(1, buffer.getWritten());
+	}
+
+	private int driverOf(int tripId) throws SQLException{
+		return database.queryInt("SELECT driver_id FROM trip WHERE TRIP_ID=" + tripId);
+	}
+
+	private static int rowOf(TripColumns columns, int tripId){
+		for (int row = 0; row < columns.size(); row++) {
+			if (columns.getTripId(row) == tripId) {
+				return row;
+			}
+		}
+		fail("trip " + tripId + " not read");
+		return -1;
+	}
+
+	private static byte[] serialize(List<?> trips) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			for (Object trip : trips) {
+				out.writeObject(trip);
+			}
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Tests of LOGIN through the Authenticator: PBKDF2 and legacy plaintext
+ * passwords, and the cache of the users logged in, which still checks the
+ * password of every login.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AuthenticatorTest{
+	private TestDatabase database;
+	private ConnectionPool pool;
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("login");
+		pool = database.newPool();
+		SQLTranslator.setConnectionPool(pool);
+		SQLTranslator.setAuthenticator(new Authenticator(100, 60000));
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void aLegacyPasswordIsCompared() throws Exception{
+		assertEquals(1, SQLTranslator.execute("LOGIN,1001,secret").size());
+		assertTrue(SQLTranslator.execute("LOGIN,1002,Secret").isEmpty());
+		assertTrue(SQLTranslator.execute("LOGIN,1003,\"\"").isEmpty());
+		assertTrue(SQLTranslator.execute("LOGIN,999,secret").isEmpty());
+	}
+
+	@Test
+	public void aHashedPasswordIsVerified() throws Exception{
+		String stored = Authenticator.hash("new secret");
+		assertTrue(stored.startsWith("pbkdf2$"));
+		assertNotEquals(stored, Authenticator.hash("new secret"));
+		database.update("UPDATE password SET pw='" + stored + "' WHERE ID=1001");
+		assertEquals(1, SQLTranslator.execute("LOGIN,1001,new secret").size());
+		assertTrue(SQLTranslator.execute("LOGIN,1001,secret").isEmpty());
+		//the stored hash is not a password
+		assertTrue(SQLTranslator.execute("LOGIN,1001," + stored).isEmpty());
+	}
+
+	@Test
+	public void aMalformedHashIsRefused() throws Exception{
+		assertFalse(Authenticator.verify("secret", "pbkdf2$10000$nonsense"));
+		assertFalse(Authenticator.verify("secret", "pbkdf2$10000$!!$!!"));
+		assertFalse(Authenticator.verify("secret", null));
+	}
+
+	@Test
+	public void aRepeatedLoginSkipsTheDatabase() throws Exception{
+		assertEquals(1, SQLTranslator.execute("LOGIN,customer1001@example.com,secret").size());
+		long borrowed = pool.getStats().getBorrowCount();
+		assertEquals(1, SQLTranslator.execute("LOGIN,Customer1001@Example.com,secret").size());
+		assertEquals(borrowed, pool.getStats().getBorrowCount());
+	}
+
+	@Test
+	public void aWrongPasswordIsRefusedFromTheCache() throws Exception{
+		database.update("UPDATE password SET pw='" + Authenticator.hash("secret") + "' WHERE ID=1001");
+		assertEquals(1, SQLTranslator.execute("LOGIN,1001,secret").size());
+		long borrowed = pool.getStats().getBorrowCount();
+		assertTrue(SQLTranslator.execute("LOGIN,1001,wrong").isEmpty());
+		assertTrue(SQLTranslator.execute("LOGIN,1001,secret ").isEmpty());
+		assertEquals(1, SQLTranslator.execute("LOGIN,1001,secret").size());
+		assertEquals(borrowed, pool.getStats().getBorrowCount());
+	}
+
+	@Test
+	public void aUserRefusedFirstIsCachedWithItsPassword() throws Exception{
+		assertTrue(SQLTranslator.execute("LOGIN,1001,wrong").isEmpty());
+		long borrowed = pool.getStats().getBorrowCount();
+		assertEquals(1, SQLTranslator.execute("LOGIN,1001,secret").size());
+		assertEquals(borrowed, pool.getStats().getBorrowCount());
+	}
+
+	@Test
+	public void aChangedPasswordIsReadAfterClear() throws Exception{
+		Authenticator authenticator = new Authenticator(100, 60000);
+		SQLTranslator.setAuthenticator(authenticator);
+		assertEquals(1, SQLTranslator.execute("LOGIN,1001,secret").size());
+		database.update("UPDATE password SET pw='changed' WHERE ID=1001");
+		assertEquals(1, SQLTranslator.execute("LOGIN,1001,secret").size());
+		authenticator.clear();
+		assertTrue(SQLTranslator.execute("LOGIN,1001,secret").isEmpty());
+		assertEquals(1, SQLTranslator.execute("LOGIN,1001,changed").size());
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Tests of AUTO_DISPATCH: the unassigned trips of a window get the free drivers
+ * of their slot, and a trip or driver booked by someone else while the
+ * dispatch runs is left alone.
+ *
+ * On 2016-05-01 the test database has two unassigned trips in each of four
+ * slots, e.g. trips 1 and 561 at 06:00, where drivers 3000 to 3003 are free.
+ * A concurrent dispatcher is played by a trigger writing just before the
+ * dispatch's update of trip 1.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import org.h2.api.Trigger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AutoDispatcherTest{
+	private final static String DATE = "2016-05-01";
+	private final static String TIME = "06:00";
+
+	private TestDatabase database;
+
+	/**
+	 * Runs its SQL once, when the dispatch updates trip 1.
+	 */
+	public static class Interloper implements Trigger{
+		static volatile String sql;
+
+		@Override
+		public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException{
+			String pending = sql;
+			if (pending != null && ((Number) newRow[0]).intValue() == 1) {
+				sql = null;
+				try (Statement statement = connection.createStatement()) {
+					statement.executeUpdate(pending);
+				}
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("dispatch");
+		database.update("CREATE TRIGGER interloper BEFORE UPDATE ON trip FOR EACH ROW CALL \""
+				+ Interloper.class.getName() + "\"");
+		SQLTranslator.setConnectionPool(database.newPool());
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		Interloper.sql = null;
+		SQLTranslator.disableDriverIndex();
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void theFreeDriversOfEachSlotAreAssigned() throws Exception{
+		DispatchResult result = SQLTranslator.autoDispatch(DATE, DATE);
+		assertEquals(8, result.getAssignments().size());
+		assertTrue(result.getUnassigned().isEmpty());
+		//the free drivers in DRIVER_ID order take the trips in TRIP_ID order
+		assertEquals(Integer.valueOf(3000), result.getAssignments().get(1));
+		assertEquals(Integer.valueOf(3001), result.getAssignments().get(561));
+		assertEquals(0, database.queryInt("SELECT COUNT(*) FROM trip WHERE driver_id IS NULL AND trip_date='" + DATE + "'"));
+		assertNoDoubleBooking(result);
+		//nothing left to dispatch
+		assertTrue(SQLTranslator.autoDispatch(DATE, DATE).getAssignments().isEmpty());
+	}
+
+	@Test
+	public void aTripAssignedMeanwhileIsLeftUnassigned() throws Exception{
+		Interloper.sql = "UPDATE trip SET driver_id=3005 WHERE TRIP_ID=561";
+		DispatchResult result = SQLTranslator.autoDispatch(DATE, DATE);
+		assertEquals(7, result.getAssignments().size());
+		assertFalse(result.getAssignments().containsKey(561));
+		assertTrue(result.getUnassigned().contains(561));
+		assertEquals(3005, database.queryInt("SELECT driver_id FROM trip WHERE TRIP_ID=561"));
+	}
+
+	@Test
+	public void aDriverBookedInTheSlotMeanwhileIsNotBookedTwice() throws Exception{
+		Interloper.sql = "INSERT INTO trip (cust_id, driver_id, trip_date, trip_time) VALUES (1001, 3001, '"
+				+ DATE + "', '" + TIME + "')";
+		DispatchResult result = SQLTranslator.autoDispatch(DATE, DATE);
+		assertEquals(Integer.valueOf(3000), result.getAssignments().get(1));
+		assertTrue(result.getUnassigned().contains(561));
+		assertEquals(0, database.queryInt("SELECT COUNT(*) FROM trip WHERE TRIP_ID=561 AND driver_id IS NOT NULL"));
+		assertEquals(1, bookings(3001, DATE, TIME));
+	}
+
+	@Test
+	public void aDriverClaimedInTheIndexIsSkipped() throws Exception{
+		SQLTranslator.loadDriverIndex();
+		DriverAvailability index = SQLTranslator.getDriverIndex();
+		//an assignment in flight holds driver 3000 in the index, not in the database yet
+		assertTrue(index.reserve(561, 3000, DATE, TIME));
+		DispatchResult result = SQLTranslator.autoDispatch(DATE, DATE);
+		assertEquals(Integer.valueOf(3001), result.getAssignments().get(1));
+		assertEquals(Integer.valueOf(3002), result.getAssignments().get(561));
+		assertEquals(0, bookings(3000, DATE, TIME));
+		assertFalse(index.isAvailable(3001, DATE, TIME));
+		assertFalse(index.isAvailable(3002, DATE, TIME));
+		assertNoDoubleBooking(result);
+	}
+
+	@Test
+	public void aRefusedAssignmentFreesItsIndexClaim() throws Exception{
+		SQLTranslator.loadDriverIndex();
+		DriverAvailability index = SQLTranslator.getDriverIndex();
+		Interloper.sql = "UPDATE trip SET driver_id=3005 WHERE TRIP_ID=561";
+		DispatchResult result = SQLTranslator.autoDispatch(DATE, DATE);
+		assertTrue(result.getUnassigned().contains(561));
+		//the claim of 3001 for trip 561 is freed, and the trip reloaded with its driver
+		assertTrue(index.isAvailable(3001, DATE, TIME));
+		assertFalse(index.isAvailable(3005, DATE, TIME));
+		assertFalse(index.isAvailable(3000, DATE, TIME));
+	}
+
+	private void assertNoDoubleBooking(DispatchResult result) throws SQLException{
+		for (Map.Entry<Integer, Integer> assignment : result.getAssignments().entrySet()) {
+			assertEquals(1, database.queryInt("SELECT COUNT(*) FROM trip other, trip assigned"
+					+ " WHERE assigned.TRIP_ID=" + assignment.getKey() + " AND other.driver_id=" + assignment.getValue()
+					+ " AND other.trip_date=assigned.trip_date AND other.trip_time=assigned.trip_time"));
+		}
+	}
+
+	private int bookings(int driverId, String tripDate, String tripTime) throws SQLException{
+		return database.queryInt("SELECT COUNT(*) FROM trip WHERE driver_id=" + driverId + " AND trip_date='" + tripDate
+				+ "' AND trip_time='" + tripTime + "'");
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Tests of the CSVTokenizer: quoted fields hold commas and doubled quotes,
+ * trailing empty fields are dropped, and IDs are parsed without overflow. A
+ * quoted address is booked as the client wrote it.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import common.*;
+
+public class CSVTokenizerTest{
+	private final CSVTokenizer tokenizer = new CSVTokenizer();
+
+	@Test
+	public void aQuotedFieldHoldsCommasAndQuotes() throws Exception{
+		tokenizer.reset("BOOK_TRIP,1001,\"12, High Street\",\"The \"\"Old\"\" Mill\",Leeds");
+		assertEquals(5, tokenizer.fieldCount());
+		assertEquals(Command.BOOK_TRIP, tokenizer.command());
+		assertEquals("12, High Street", tokenizer.field(2));
+		assertEquals("The \"Old\" Mill", tokenizer.field(3));
+		assertEquals("Leeds", tokenizer.field(4));
+		assertTrue(tokenizer.fieldContains(2, ','));
+	}
+
+	@Test
+	public void trailingEmptyFieldsAreDropped() throws Exception{
+		assertEquals(2, tokenizer.reset("VIEW_TRIP,NULL,,").fieldCount());
+		assertEquals(1, tokenizer.reset("VIEW_TRIP").fieldCount());
+		//a quoted empty field is a value
+		assertEquals(3, tokenizer.reset("VIEW_TRIP,NULL,\"\"").fieldCount());
+		assertEquals("", tokenizer.field(2));
+		//empty fields in the middle are kept
+		assertEquals(4, tokenizer.reset("VIEW_TRIP,NULL,,30").fieldCount());
+	}
+
+	@Test(expected = TranslatorException.class)
+	public void anUnterminatedQuoteIsRefused() throws Exception{
+		tokenizer.reset("BOOK_TRIP,1001,\"12, High Street");
+	}
+
+	@Test
+	public void theTokenizerIsReused() throws Exception{
+		tokenizer.reset("LOGIN,\"1001\",secret");
+		assertEquals("1001", tokenizer.field(1));
+		tokenizer.reset("GET_CARDS,1002");
+		assertEquals(2, tokenizer.fieldCount());
+		assertEquals(1002, tokenizer.fieldInt(1));
+		//more fields than the initial arrays
+		tokenizer.reset(new String(new char[40]).replace("\0", "x,") + "y");
+		assertEquals(41, tokenizer.fieldCount());
+		assertEquals("y", tokenizer.field(40));
+	}
+
+	@Test
+	public void IDsAreParsedWithoutOverflow() throws Exception{
+		tokenizer.reset("GET_CARDS, 42 ,-2147483648,2147483647,2147483648,12a,");
+		assertEquals(42, tokenizer.fieldInt(1));
+		assertEquals(Integer.MIN_VALUE, tokenizer.fieldInt(2));
+		assertEquals(Integer.MAX_VALUE, tokenizer.fieldInt(3));
+		for (int field = 4; field <= 5; field++) {
+			try {
+				tokenizer.fieldInt(field);
+				fail("parsed " + tokenizer.field(field));
+			} catch (TranslatorException e) {
+				assertTrue(e.getMessage().startsWith("Invalid ID"));
+			}
+		}
+	}
+
+	@Test
+	public void aQuotedAddressIsBookedAsWritten() throws Exception{
+		TestDatabase database = new TestDatabase("csv");
+		SQLTranslator.setConnectionPool(database.newPool());
+		try {
+			SQLTranslator.execute("BOOK_TRIP,1001,\"12, High Street\",Leeds,West Yorkshire,LS1 4AP,"
+					+ "\"The \"\"Old\"\" Mill\",York,North Yorkshire,YO1 6GA,2016-06-01,09:00");
+			assertEquals(1, database.queryInt("SELECT COUNT(*) FROM trip WHERE from_address='12, High Street'"
+					+ " AND to_address='The \"Old\" Mill' AND trip_time='09:00'"));
+		} finally {
+			SQLTranslator.setConnectionPool(null);
+			database.close();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Tests of the ChangeFeed: every subscription reads the events in order, a
+ * writer waits for a subscription a whole ring behind, and one lagging longer
+ * than the writer waits is dropped.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import common.*;
+
+public class ChangeFeedTest{
+
+	@Test
+	public void everySubscriptionReadsTheEventsInOrder() throws Exception{
+		ChangeFeed feed = new ChangeFeed(16, 1000);
+		FeedSubscription first = feed.subscribe();
+		publish(feed, 1, 3);
+		FeedSubscription second = feed.subscribe();
+		publish(feed, 4, 5);
+		assertEquals(5, first.getLag());
+		assertEquals(2, second.getLag());
+		assertEvents(first.poll(3, 0), 1, 3);
+		assertEvents(first.poll(10, 0), 4, 5);
+		assertEvents(second.poll(10, 0), 4, 5);
+		assertTrue(first.poll(10, 0).isEmpty());
+		assertEquals(5, feed.getPublished());
+	}
+
+	@Test
+	public void nothingIsKeptWithoutSubscriptions() throws Exception{
+		ChangeFeed feed = new ChangeFeed(4, 0);
+		publish(feed, 1, 10);
+		assertEquals(0, feed.getPublished());
+		FeedSubscription subscription = feed.subscribe();
+		publish(feed, 11, 11);
+		assertEvents(subscription.poll(10, 0), 11, 11);
+	}
+
+	@Test
+	public void aWriterWaitsForASubscriptionAWholeRingBehind() throws Exception{
+		//rounded up to 4
+		ChangeFeed feed = new ChangeFeed(3, 10000);
+		FeedSubscription subscription = feed.subscribe();
+		publish(feed, 1, 4);
+		CountDownLatch done = new CountDownLatch(1);
+		Thread writer = new Thread(() -> {
+			publish(feed, 5, 6);
+			done.countDown();
+		});
+		writer.start();
+		assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(4, feed.getPublished());
+		assertEvents(subscription.poll(1, 0), 1, 1);
+		//room for one event, the writer waits again for the next
+		assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+		assertEvents(subscription.poll(1, 0), 2, 2);
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEvents(subscription.poll(10, 0), 3, 6);
+		assertEquals(0, feed.getDropped());
+	}
+
+	@Test
+	public void aLaggingSubscriptionIsDropped() throws Exception{
+		ChangeFeed feed = new ChangeFeed(4, 50);
+		FeedSubscription lagging = feed.subscribe();
+		FeedSubscription reading = feed.subscribe();
+		for (int i = 1; i <= 10; i++) {
+			publish(feed, i, i);
+			assertEvents(reading.poll(10, 0), i, i);
+		}
+		assertNull(lagging.poll(10, 0));
+		assertEquals(1, feed.getDropped());
+		assertEquals(1, feed.getSubscriptionCount());
+		assertEquals(10, feed.getPublished());
+	}
+
+	@Test
+	public void closingWakesAWaitingPoll() throws Exception{
+		ChangeFeed feed = new ChangeFeed(4, 0);
+		FeedSubscription subscription = feed.subscribe();
+		CountDownLatch closed = new CountDownLatch(1);
+		Thread reader = new Thread(() -> {
+			try {
+				if (subscription.poll(10, 10000) == null) {
+					closed.countDown();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		reader.start();
+		Thread.sleep(50);
+		subscription.close();
+		assertTrue(closed.await(10, TimeUnit.SECONDS));
+		assertEquals(0, feed.getSubscriptionCount());
+	}
+
+	@Test
+	public void theCommittedWritesArePublished() throws Exception{
+		TestDatabase database = new TestDatabase("feed");
+		SQLTranslator.setConnectionPool(database.newPool());
+		FeedSubscription subscription = SQLTranslator.getChangeFeed().subscribe();
+		try {
+			SQLTranslator.execute("ASSIGN_DRIVER,1,3010");
+			SQLTranslator.execute("VIEW_TRIP,1001");
+			SQLTranslator.execute("CANCEL_TRIP,5");
+			List<ChangeEvent> events = subscription.poll(10, 1000);
+			assertEquals(2, events.size());
+			assertEquals(Command.ASSIGN_DRIVER, events.get(0).getCommand());
+			assertEquals(1, events.get(0).getId());
+			assertEquals(3010, events.get(0).getDriverId());
+			assertEquals(Command.CANCEL_TRIP, events.get(1).getCommand());
+			assertEquals(5, events.get(1).getId());
+			assertEquals(events.get(0).getSequence() + 1, events.get(1).getSequence());
+		} finally {
+			subscription.close();
+			SQLTranslator.setConnectionPool(null);
+			database.close();
+		}
+	}
+
+	/**
+	 * Publishes a CANCEL_TRIP of each trip from first to last.
+	 */
+	private static void publish(ChangeFeed feed, int first, int last){
+		for (int tripId = first; tripId <= last; tripId++) {
+			try {
+				feed.publish(SQLTranslator.translateCSV("CANCEL_TRIP," + tripId), 0);
+			} catch (TranslatorException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Checks the events cancel the trips from first to last.
+	 */
+	private static void assertEvents(List<ChangeEvent> events, int first, int last){
+		assertNotNull(events);
+		assertEquals(last - first + 1, events.size());
+		for (int i = 0; i < events.size(); i++) {
+			assertEquals(first + i, events.get(i).getId());
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Tests of the DriverAvailability index: a driver is never booked twice in one
+ * slot, and the guard on the trip's previous driver refuses a stale index.
+ *
+ * Trips 1 and 561 of the test database are both unassigned, on 2016-05-01 at
+ * 06:00; drivers 3001 to 3003 have no trip in that slot.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.sql.SQLException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DriverAvailabilityTest{
+	private final static String DATE = "2016-05-01";
+	private final static String TIME = "06:00";
+
+	private TestDatabase database;
+	private ConnectionPool pool;
+	private PooledConnection dbConnection;
+	private DriverAvailability index;
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("drivers");
+		pool = database.newPool();
+		dbConnection = pool.borrow();
+		index = new DriverAvailability();
+		index.load(dbConnection);
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		pool.release(dbConnection);
+		pool.close();
+		database.close();
+	}
+
+	@Test
+	public void aFreeDriverIsAssigned() throws Exception{
+		assertTrue(index.isAvailable(3001, DATE, TIME));
+		assertTrue(index.assign(dbConnection, 1, 3001));
+		assertEquals(3001, driverOf(1));
+		assertFalse(index.isAvailable(3001, DATE, TIME));
+		assertEquals(TestDatabase.DRIVERS - busyInSlot(), index.available(DATE, TIME).size());
+	}
+
+	@Test
+	public void aDriverBusyInTheSlotIsRefused() throws Exception{
+		assertTrue(index.assign(dbConnection, 1, 3001));
+		assertFalse(index.assign(dbConnection, 561, 3001));
+		assertEquals(0, driverOf(561));
+	}
+
+	@Test
+	public void aReassignmentFreesThePreviousDriver() throws Exception{
+		assertTrue(index.assign(dbConnection, 1, 3001));
+		assertTrue(index.assign(dbConnection, 1, 3002));
+		assertTrue(index.isAvailable(3001, DATE, TIME));
+		assertFalse(index.isAvailable(3002, DATE, TIME));
+		assertTrue(index.assign(dbConnection, 561, 3001));
+	}
+
+	@Test
+	public void aCancelledTripFreesItsDriver() throws Exception{
+		assertTrue(index.assign(dbConnection, 1, 3001));
+		index.cancelled(1);
+		assertTrue(index.isAvailable(3001, DATE, TIME));
+	}
+
+	@Test
+	public void theGuardRefusesAStaleIndex() throws Exception{
+		assertTrue(index.assign(dbConnection, 1, 3001));
+		//another server assigns the trip behind the index's back
+		database.update("UPDATE trip SET driver_id=3002 WHERE TRIP_ID=1");
+		assertFalse(index.assign(dbConnection, 1, 3003));
+		assertEquals(3002, driverOf(1));
+		//the refusal reloaded the trip
+		assertFalse(index.isAvailable(3002, DATE, TIME));
+		assertTrue(index.isAvailable(3001, DATE, TIME));
+		assertTrue(index.assign(dbConnection, 1, 3003));
+		assertEquals(3003, driverOf(1));
+	}
+
+	@Test
+	public void aTripBookedOutsideTheIndexIsLoadedOnAssignment() throws Exception{
+		database.update("INSERT INTO trip (cust_id, trip_date, trip_time) VALUES (1001, '" + DATE + "', '" + TIME + "')");
+		int tripId = database.queryInt("SELECT MAX(TRIP_ID) FROM trip");
+		assertTrue(index.assign(dbConnection, 1, 3001));
+		assertFalse(index.assign(dbConnection, tripId, 3001));
+		assertTrue(index.assign(dbConnection, tripId, 3002));
+	}
+
+	@Test
+	public void anUnguardedAssignmentDoesNotTakeOverAClaim() throws Exception{
+		index.assigned(1, 3001);
+		//written past the guard, e.g. replayed from the write journal
+		index.assigned(561, 3001);
+		assertFalse(index.isAvailable(3001, DATE, TIME));
+		//the claim is still trip 1's, so cancelling trip 1 frees the driver
+		index.cancelled(1);
+		assertTrue(index.isAvailable(3001, DATE, TIME));
+	}
+
+	private int driverOf(int tripId) throws SQLException{
+		return database.queryInt("SELECT driver_id FROM trip WHERE TRIP_ID=" + tripId);
+	}
+
+	private int busyInSlot() throws SQLException{
+		return database.queryInt("SELECT COUNT(DISTINCT driver_id) FROM trip WHERE trip_date='" + DATE
+				+ "' AND trip_time='" + TIME + "'");
+	}
+}
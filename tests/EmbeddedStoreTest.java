@@ -0,0 +1,160 @@
+/**
+ * Tests of the EmbeddedStore's write-ahead log: the writes are replayed when
+ * the store is opened again, and a torn, corrupt or foreign log is handled.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EmbeddedStoreTest{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path log;
+	private EmbeddedStore store;
+
+	@Before
+	public void setUp() throws Exception{
+		log = folder.getRoot().toPath().resolve("store.log");
+		store = new EmbeddedStore(log, true);
+	}
+
+	@After
+	public void tearDown(){
+		SQLTranslator.setEmbeddedStore(null);
+		store.close();
+	}
+
+	@Test
+	public void writesAreReplayedWhenTheStoreIsOpenedAgain() throws Exception{
+		int first = write(bookTrip(1001, 0));
+		write(bookTrip(1001, 1));
+		write(bookTrip(1002, 2));
+		write("ASSIGN_DRIVER," + first + ",3001");
+		write("CANCEL_TRIP," + (first + 1));
+		reopen();
+		assertEquals(2, store.getTripCount());
+		assertEquals(1, read("VIEW_TRIP,1001"));
+		assertEquals(1, read("VIEW_TRIP,1002"));
+		assertEquals(1, read("VIEW_TRIP,3001"));
+		//the IDs go on after the replayed ones
+		assertEquals(first + 3, write(bookTrip(1003, 3)));
+	}
+
+	@Test
+	public void executeUsesTheStore() throws Exception{
+		SQLTranslator.setEmbeddedStore(store);
+		SQLTranslator.execute(bookTrip(1001, 0));
+		assertEquals(1, SQLTranslator.execute("VIEW_TRIP,1001").size());
+		reopen();
+		assertEquals(1, store.getTripCount());
+	}
+
+	@Test
+	public void aTornRecordIsCutOffTheLog() throws Exception{
+		for (int i = 0; i < 3; i++) {
+			write(bookTrip(1001, i));
+		}
+		store.close();
+		long length = Files.size(log);
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+			channel.truncate(length - 5);
+		}
+		reopen();
+		assertEquals(2, store.getTripCount());
+		//the log goes on from the last whole record
+		write(bookTrip(1001, 3));
+		reopen();
+		assertEquals(3, store.getTripCount());
+	}
+
+	@Test
+	public void aRecordFailingItsCrcIsCutOffTheLog() throws Exception{
+		for (int i = 0; i < 3; i++) {
+			write(bookTrip(1001, i));
+		}
+		store.close();
+		long length = Files.size(log);
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer last = ByteBuffer.allocate(1);
+			channel.read(last, length - 1);
+			last.put(0, (byte) (last.get(0) ^ 0xFF));
+			last.rewind();
+			channel.write(last, length - 1);
+		}
+		reopen();
+		assertEquals(2, store.getTripCount());
+		assertTrue(Files.size(log) < length);
+	}
+
+	@Test
+	public void aFileThatIsNotAStoreLogIsRefused() throws Exception{
+		store.close();
+		Files.write(log, "not a log".getBytes(StandardCharsets.UTF_8));
+		try {
+			store = new EmbeddedStore(log, true);
+			fail("opened a file that is not a store log");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Not an embedded store log"));
+		}
+		//for tearDown
+		store = new EmbeddedStore(folder.getRoot().toPath().resolve("other.log"), true);
+	}
+
+	@Test
+	public void anImportSurvivesCompaction() throws Exception{
+		TestDatabase database = new TestDatabase("store");
+		ConnectionPool pool = database.newPool();
+		try {
+			PooledConnection dbConnection = pool.borrow();
+			try {
+				store.importFrom(dbConnection);
+			} finally {
+				pool.release(dbConnection);
+			}
+		} finally {
+			pool.close();
+			database.close();
+		}
+		assertEquals(TestDatabase.TRIPS, store.getTripCount());
+		write("CANCEL_TRIP,1");
+		store.compact();
+		reopen();
+		assertEquals(TestDatabase.TRIPS - 1, store.getTripCount());
+		assertEquals(1, read("LOGIN,1001,secret"));
+		assertEquals(0, read("LOGIN,1001,wrong"));
+	}
+
+	private static String bookTrip(int customer, int i){
+		return "BOOK_TRIP," + customer + "," + i + " Test Road,Leeds,West Yorkshire,LS1 4AP,"
+				+ "1 Station Road,York,North Yorkshire,YO1 6GA,2016-06-" + String.format("%02d", 1 + i) + ",09:00";
+	}
+
+	private int write(String CSV) throws Exception{
+		return store.executeWrite(SQLTranslator.translateCSV(CSV));
+	}
+
+	private int read(String CSV) throws Exception{
+		return store.execute(SQLTranslator.translateCSV(CSV)).size();
+	}
+
+	private void reopen() throws IOException{
+		store.close();
+		store = new EmbeddedStore(log, true);
+	}
+}
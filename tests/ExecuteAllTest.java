@@ -0,0 +1,74 @@
+/**
+ * Tests of executeAll: a sequence of commands runs on one pooled connection,
+ * and the writes of a batch that went through are published even when a
+ * command in the middle of it failed.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExecuteAllTest{
+	private TestDatabase database;
+	private ConnectionPool pool;
+	private FeedSubscription subscription;
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("all");
+		pool = database.newPool();
+		SQLTranslator.setConnectionPool(pool);
+		SQLTranslator.setQueryCache(new QueryCache(100, 60000));
+		subscription = SQLTranslator.getChangeFeed().subscribe();
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		subscription.close();
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void theSequenceRunsOnOneConnection() throws Exception{
+		long borrowed = pool.getStats().getBorrowCount();
+		List<ArrayList<?>> results = SQLTranslator.executeAll("LOGIN,1001,secret", "GET_CARDS,1001", "VIEW_TRIP,1001",
+				bookTrip(0), bookTrip(1), "VIEW_TRIP,1001");
+		assertEquals(1, pool.getStats().getBorrowCount() - borrowed);
+		assertEquals(6, results.size());
+		assertEquals(1, results.get(0).size());
+		assertEquals(1, results.get(1).size());
+		assertEquals(10, results.get(2).size());
+		assertTrue(results.get(3).isEmpty());
+		//the reads after the writes see them
+		assertEquals(12, results.get(5).size());
+	}
+
+	@Test
+	public void aFailedCommandDoesNotHideTheWritesAfterIt() throws Exception{
+		//from_address is a VARCHAR(80)
+		String tooLong = bookTrip(0).replace("0 Test Road", new String(new char[100]).replace('\0', 'x'));
+		SQLTranslator.executeAll(bookTrip(1), tooLong, bookTrip(2), bookTrip(3));
+		assertEquals(TestDatabase.TRIPS + 3, database.queryInt("SELECT COUNT(*) FROM trip"));
+		//every committed write is published, with its own TRIP_ID
+		List<ChangeEvent> events = subscription.poll(10, 1000);
+		assertEquals(3, events.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(Command.BOOK_TRIP, events.get(i).getCommand());
+			assertEquals(database.queryInt("SELECT TRIP_ID FROM trip WHERE from_address='" + (i + 1) + " Test Road'"),
+					events.get(i).getId());
+		}
+	}
+
+	private static String bookTrip(int i){
+		return "BOOK_TRIP,1001," + i + " Test Road,Leeds,West Yorkshire,LS1 4AP,"
+				+ "1 Station Road,York,North Yorkshire,YO1 6GA,2016-06-01,09:00";
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Tests of executeBatch: one result per command in order, a failed command
+ * rolling back only its own batch, and BOOK_TRIP and SIGN_UP batches sent as
+ * one multi-row INSERT publishing the ID of every row.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExecuteBatchTest{
+	private TestDatabase database;
+	private FeedSubscription subscription;
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("batch");
+		SQLTranslator.setConnectionPool(database.newPool());
+		subscription = SQLTranslator.getChangeFeed().subscribe();
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		subscription.close();
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void everyCommandHasItsResult() throws Exception{
+		List<BatchResult> results = SQLTranslator.executeBatch(Arrays.asList(bookTrip(0), "NONSENSE,1",
+				"GET_CARDS,1001", bookTrip(1), "CANCEL_TRIP,5"));
+		assertEquals(5, results.size());
+		for (int i = 0; i < results.size(); i++) {
+			assertEquals(i, results.get(i).getIndex());
+		}
+		assertTrue(results.get(0).isSuccess());
+		assertEquals(1, results.get(0).getUpdateCount());
+		assertFalse(results.get(1).isSuccess());
+		assertFalse(results.get(2).isSuccess());
+		assertTrue(results.get(2).getError().startsWith("Only write commands can be batched"));
+		assertTrue(results.get(3).isSuccess());
+		assertTrue(results.get(4).isSuccess());
+		assertEquals(TestDatabase.TRIPS + 2 - 1, database.queryInt("SELECT COUNT(*) FROM trip"));
+	}
+
+	@Test
+	public void aFailedCommandRollsBackOnlyItsBatch() throws Exception{
+		List<String> commands = new ArrayList<String>();
+		for (int i = 0; i < 5; i++) {
+			commands.add(bookTrip(i));
+		}
+		//from_address is a VARCHAR(80)
+		commands.set(3, commands.get(3).replace("3 Test Road", new String(new char[100]).replace('\0', 'x')));
+		List<BatchResult> results = SQLTranslator.executeBatch(commands, 2, false);
+		assertTrue(results.get(0).isSuccess());
+		assertTrue(results.get(1).isSuccess());
+		assertFalse(results.get(2).isSuccess());
+		assertFalse(results.get(3).isSuccess());
+		assertTrue(results.get(4).isSuccess());
+		//the command that broke the batch is pointed out
+		assertTrue(results.get(2).getError().startsWith("Rolled back with the batch"));
+		assertFalse(results.get(3).getError().startsWith("Rolled back with the batch"));
+		assertEquals(3, database.queryInt("SELECT COUNT(*) FROM trip WHERE from_address LIKE '% Test Road'"));
+		assertEquals(0, database.queryInt("SELECT COUNT(*) FROM trip WHERE from_address='2 Test Road'"));
+		assertEquals(3, subscription.poll(10, 1000).size());
+	}
+
+	@Test
+	public void aMultiRowInsertPublishesTheIdOfEveryRow() throws Exception{
+		List<String> commands = new ArrayList<String>();
+		for (int i = 0; i < 5; i++) {
+			commands.add(bookTrip(i));
+		}
+		for (int i = 0; i < 3; i++) {
+			commands.add("SIGN_UP,New" + i + ",Customer,1 New Street,Yorkshire,Leeds,LS1 1AA,new" + i
+					+ "@example.com,0770000000" + i);
+		}
+		List<BatchResult> results = SQLTranslator.executeBatch(commands, 100, true);
+		for (BatchResult result : results) {
+			assertTrue(result.toString(), result.isSuccess());
+			assertEquals(1, result.getUpdateCount());
+		}
+		List<ChangeEvent> events = subscription.poll(20, 1000);
+		assertEquals(8, events.size());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(Command.BOOK_TRIP, events.get(i).getCommand());
+			assertEquals(database.queryInt("SELECT TRIP_ID FROM trip WHERE from_address='" + i + " Test Road'"),
+					events.get(i).getId());
+		}
+		for (int i = 0; i < 3; i++) {
+			assertEquals(Command.SIGN_UP, events.get(5 + i).getCommand());
+			assertEquals(database.queryInt("SELECT CUSTOMER_ID FROM customer WHERE email='new" + i + "@example.com'"),
+					events.get(5 + i).getId());
+		}
+	}
+
+	private static String bookTrip(int i){
+		return "BOOK_TRIP,1001," + i + " Test Road,Leeds,West Yorkshire,LS1 4AP,"
+				+ "1 Station Road,York,North Yorkshire,YO1 6GA,2016-06-01,09:00";
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Tests of executeReport: the results of the sub-commands are merged in order,
+ * and a sub-command late for the deadline or failing leaves a partial report
+ * with the rows of the others.
+ *
+ * The report reads the trips in date shards with a registered command; a gated
+ * command waits in a database function until the test lets it go, or fails.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import common.*;
+
+public class ExecuteReportTest{
+	//the gated command: the first ten trips, read at once, after the test's release, or failing
+	private final static String OPEN = "GATED_TRIPS,0";
+	private final static String WAITING = "GATED_TRIPS,1";
+	private final static String FAILING = "GATED_TRIPS,2";
+
+	private static volatile CountDownLatch released;
+
+	private TestDatabase database;
+
+	/**
+	 * The database function of the gated command, called for every row.
+	 */
+	public static boolean gate(int mode, int tripId) throws Exception{
+		if (mode == 1 && tripId == 1) {
+			released.await(10, TimeUnit.SECONDS);
+		} else if (mode == 2) {
+			throw new SQLException("The report failed");
+		}
+		return true;
+	}
+
+	@Before
+	public void setUp() throws Exception{
+		released = new CountDownLatch(1);
+		database = new TestDatabase("report");
+		database.update("CREATE ALIAS TEST_GATE FOR \"" + ExecuteReportTest.class.getName() + ".gate\"");
+		SQLTranslator.setConnectionPool(database.newPool());
+		SQLTranslator.registerCommand("TRIP_RANGE", Trip.class, "SELECT * FROM trip WHERE trip_date >= ?"
+				+ " AND trip_date <= ?", ArgType.STRING, ArgType.STRING);
+		SQLTranslator.registerCommand("GATED_TRIPS", Trip.class, "SELECT * FROM trip WHERE TRIP_ID <= 10"
+				+ " AND TEST_GATE(?, TRIP_ID)", ArgType.INT);
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		released.countDown();
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void theSubCommandsAreMerged() throws Exception{
+		List<String> commands = new ArrayList<String>(SQLTranslator.dateShards("TRIP_RANGE", "2016-05-01", "2016-05-28", 4));
+		commands.add("AVAILABLE_DRIVERS,2016-05-01,06:00");
+		commands.add("GET_CARDS,1001");
+		commands.add(OPEN);
+		ReportResult report = SQLTranslator.executeReport(commands, 10000);
+		assertFalse(report.isPartial());
+		assertEquals(7, report.getCommandCount());
+		assertEquals(7, report.getCompleted());
+		assertEquals(TestDatabase.TRIPS + 10, report.getTrips().size());
+		assertEquals(SQLTranslator.execute("AVAILABLE_DRIVERS,2016-05-01,06:00").size(), report.getDrivers().size());
+		assertEquals(1, report.getOthers().size());
+		assertTrue(report.getCustomers().isEmpty());
+	}
+
+	@Test
+	public void aLateSubCommandLeavesAPartialReport() throws Exception{
+		long start = System.nanoTime();
+		ReportResult report = SQLTranslator.executeReport(reportWith(WAITING), 300);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+		assertPartial(report);
+	}
+
+	@Test
+	public void aFailedSubCommandLeavesAPartialReport() throws Exception{
+		assertPartial(SQLTranslator.executeReport(reportWith(FAILING), 10000));
+	}
+
+	@Test
+	public void theDateRangeIsSharded() throws Exception{
+		List<String> shards = SQLTranslator.dateShards("TRIP_RANGE", "2016-05-01", "2016-05-31", 4);
+		assertEquals(4, shards.size());
+		assertEquals("TRIP_RANGE,2016-05-01,2016-05-07", shards.get(0));
+		assertEquals("TRIP_RANGE,2016-05-24,2016-05-31", shards.get(3));
+		//each shard starts the day after the previous one ends
+		for (int i = 1; i < shards.size(); i++) {
+			String previousEnd = shards.get(i - 1).split(",")[2];
+			String start = shards.get(i).split(",")[1];
+			assertEquals(LocalDate.parse(previousEnd).plusDays(1).toString(), start);
+		}
+		assertEquals(2, SQLTranslator.dateShards("TRIP_RANGE", "2016-05-01", "2016-05-02", 4).size());
+		try {
+			SQLTranslator.dateShards("TRIP_RANGE", "2016-05-02", "2016-05-01", 4);
+			fail("sharded an empty range");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Invalid date shards"));
+		}
+	}
+
+	/**
+	 * @return a report of the trips in two shards, with the gated command between them.
+	 */
+	private static List<String> reportWith(String gated){
+		List<String> commands = new ArrayList<String>();
+		commands.add("TRIP_RANGE,2016-05-01,2016-05-14");
+		commands.add(gated);
+		commands.add("TRIP_RANGE,2016-05-15,2016-05-28");
+		return commands;
+	}
+
+	private static void assertPartial(ReportResult report){
+		assertTrue(report.isPartial());
+		assertEquals(3, report.getCommandCount());
+		assertEquals(2, report.getCompleted());
+		//the rows of the others are all there
+		assertEquals(TestDatabase.TRIPS, report.getTrips().size());
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Tests of the QueryCache: GET_CARDS and AVAILABLE_DRIVERS are served from the
+ * cache, and a write through the translator drops the results it makes stale.
+ *
+ * Writes made behind the translator's back are not seen by the cache, which is
+ * how the tests tell a cached result from a fresh one.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryCacheTest{
+	//trip 1 is unassigned, on 2016-05-01 at 06:00
+	private final static String AVAILABLE = "AVAILABLE_DRIVERS,2016-05-01,06:00";
+
+	private TestDatabase database;
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("cache");
+		SQLTranslator.setConnectionPool(database.newPool());
+		SQLTranslator.setQueryCache(new QueryCache(100, 60000));
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void aRepeatedReadIsServedFromTheCache() throws Exception{
+		int free = SQLTranslator.execute(AVAILABLE).size();
+		database.update("UPDATE trip SET driver_id=3010 WHERE TRIP_ID=1");
+		assertEquals(free, SQLTranslator.execute(AVAILABLE).size());
+		assertEquals(1, SQLTranslator.getCacheStats().getHits());
+		assertEquals(1, SQLTranslator.getCacheStats().getSize());
+	}
+
+	@Test
+	public void aBookingDropsTheDriversOfItsSlotOnly() throws Exception{
+		int free = SQLTranslator.execute(AVAILABLE).size();
+		int freeLater = SQLTranslator.execute("AVAILABLE_DRIVERS,2016-05-02,07:00").size();
+		database.update("UPDATE trip SET driver_id=3010 WHERE TRIP_ID=1");
+		database.update("UPDATE trip SET driver_id=NULL WHERE trip_date='2016-05-02' AND trip_time='07:00'");
+		//another slot
+		SQLTranslator.execute(bookTrip("2016-06-01", "09:00"));
+		assertEquals(free, SQLTranslator.execute(AVAILABLE).size());
+		SQLTranslator.execute(bookTrip("2016-05-01", "06:00"));
+		assertEquals(free - 1, SQLTranslator.execute(AVAILABLE).size());
+		assertEquals(freeLater, SQLTranslator.execute("AVAILABLE_DRIVERS,2016-05-02,07:00").size());
+	}
+
+	@Test
+	public void anAssignmentDropsEveryDriverResult() throws Exception{
+		int free = SQLTranslator.execute(AVAILABLE).size();
+		SQLTranslator.execute("AVAILABLE_DRIVERS,2016-05-02,07:00");
+		SQLTranslator.execute("GET_CARDS,1001");
+		database.update("DELETE FROM card_info WHERE cust_id=1001");
+		SQLTranslator.execute("ASSIGN_DRIVER,1,3010");
+		assertEquals(2, SQLTranslator.getCacheStats().getInvalidations());
+		assertEquals(free - 1, SQLTranslator.execute(AVAILABLE).size());
+		//the cards are not touched
+		assertEquals(1, SQLTranslator.execute("GET_CARDS,1001").size());
+	}
+
+	@Test
+	public void aRegisteredWriteDropsEverything() throws Exception{
+		SQLTranslator.registerCommand("ADD_TEST_CARD", null, "INSERT INTO card_info (cust_no, CARD_NO, cust_id)"
+				+ " VALUES (?,?,?)", ArgType.INT, ArgType.STRING, ArgType.INT);
+		assertEquals(1, SQLTranslator.execute("GET_CARDS,1001").size());
+		SQLTranslator.execute("ADD_TEST_CARD,1001,4111111111111111,1001");
+		assertEquals(0, SQLTranslator.getCacheStats().getSize());
+		assertEquals(2, SQLTranslator.execute("GET_CARDS,1001").size());
+	}
+
+	@Test
+	public void aResultReadBeforeAWriteIsNotCached() throws Exception{
+		QueryCache cache = new QueryCache(100, 60000);
+		PreparedQuery read = SQLTranslator.translateCSV(AVAILABLE);
+		long generation = cache.generation();
+		//the write commits while the read runs
+		cache.invalidate(SQLTranslator.translateCSV("CANCEL_TRIP,1"));
+		cache.put(read, QueryCache.keyOf(read), new ArrayList<Object>(), generation);
+		assertNull(cache.get(QueryCache.keyOf(read)));
+		cache.put(read, QueryCache.keyOf(read), new ArrayList<Object>(), cache.generation());
+		assertNotNull(cache.get(QueryCache.keyOf(read)));
+	}
+
+	@Test
+	public void anExpiredResultIsReadAgain() throws Exception{
+		SQLTranslator.setQueryCache(new QueryCache(100, 0));
+		int free = SQLTranslator.execute(AVAILABLE).size();
+		database.update("UPDATE trip SET driver_id=3010 WHERE TRIP_ID=1");
+		assertEquals(free - 1, SQLTranslator.execute(AVAILABLE).size());
+	}
+
+	private static String bookTrip(String tripDate, String tripTime){
+		return "BOOK_TRIP,1001,1 Test Road,Leeds,West Yorkshire,LS1 4AP,"
+				+ "1 Station Road,York,North Yorkshire,YO1 6GA," + tripDate + "," + tripTime;
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Tests of the ReplicaRouter: writes to the primary, reads spread over the
+ * healthy replicas, and the read-your-writes window of a customer.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplicaRouterTest{
+	private final static String BOOK_TRIP = "BOOK_TRIP,1001,12 High Street,Leeds,West Yorkshire,LS1 4AP,"
+			+ "1 Station Road,York,North Yorkshire,YO1 6GA,2016-06-01,09:00";
+
+	private TestDatabase database;
+	private ConnectionPool primary;
+	private ConnectionPool[] replicas;
+	private ReplicaRouter router;
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("router");
+		primary = database.newPool();
+		//the routing does not read the replicas' rows, they may share the database
+		replicas = new ConnectionPool[] { database.newPool(), database.newPool() };
+		//no health check during a test, it would put a replica marked down back
+		router = new ReplicaRouter(primary, replicas, 60000, 60000);
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		router.close();
+		primary.close();
+		database.close();
+	}
+
+	@Test
+	public void writesGoToThePrimary() throws Exception{
+		assertSame(primary, router.route(SQLTranslator.translateCSV(BOOK_TRIP)));
+		assertSame(primary, router.route(SQLTranslator.translateCSV("CANCEL_TRIP,5")));
+		assertSame(primary, router.route(SQLTranslator.translateCSV("ASSIGN_DRIVER,5,3001")));
+		//reads the trips it then assigns
+		assertSame(primary, router.route(SQLTranslator.translateCSV("AUTO_DISPATCH,2016-05-01,2016-05-02")));
+	}
+
+	@Test
+	public void readsAreSpreadOverTheReplicas() throws Exception{
+		PreparedQuery read = SQLTranslator.translateCSV("VIEW_TRIP,1001");
+		Set<ConnectionPool> used = new HashSet<ConnectionPool>();
+		for (int i = 0; i < 4; i++) {
+			used.add(router.route(read));
+		}
+		assertEquals(2, used.size());
+		assertFalse(used.contains(primary));
+	}
+
+	@Test
+	public void aReplicaMarkedDownIsSkipped() throws Exception{
+		PreparedQuery read = SQLTranslator.translateCSV("GET_CARDS,1001");
+		router.markDown(replicas[0], new SQLException("test"));
+		assertFalse(router.isHealthy(0));
+		for (int i = 0; i < 4; i++) {
+			assertSame(replicas[1], router.route(read));
+		}
+	}
+
+	@Test
+	public void aReplicaIsBackAfterASuccessfulHealthCheck() throws Exception{
+		ConnectionPool replica = database.newPool();
+		ReplicaRouter checked = new ReplicaRouter(primary, new ConnectionPool[] { replica }, 50, 0);
+		try {
+			checked.markDown(replica, new SQLException("test"));
+			//the replica still answers, the next health check puts it back
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!checked.isHealthy(0) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertTrue(checked.isHealthy(0));
+			assertSame(replica, checked.route(SQLTranslator.translateCSV("VIEW_TRIP,1001")));
+		} finally {
+			checked.close();
+		}
+	}
+
+	@Test
+	public void aReplicaFailingItsHealthCheckIsTakenOut() throws Exception{
+		ConnectionPool replica = database.newPool();
+		ReplicaRouter checked = new ReplicaRouter(primary, new ConnectionPool[] { replica }, 50, 0);
+		try {
+			replica.close();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (checked.isHealthy(0) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertFalse(checked.isHealthy(0));
+			assertSame(primary, checked.route(SQLTranslator.translateCSV("VIEW_TRIP,1001")));
+		} finally {
+			checked.close();
+		}
+	}
+
+	@Test
+	public void aBusyReplicaStaysInTheRotation() throws Exception{
+		ConnectionPool replica = database.newPool(1, 20);
+		ReplicaRouter checked = new ReplicaRouter(primary, new ConnectionPool[] { replica }, 50, 0);
+		PooledConnection held = replica.borrow();
+		try {
+			//the health checks time out waiting for the one connection
+			Thread.sleep(300);
+			assertTrue(checked.isHealthy(0));
+			assertSame(replica, checked.route(SQLTranslator.translateCSV("VIEW_TRIP,1001")));
+		} finally {
+			replica.release(held);
+			checked.close();
+		}
+	}
+
+	@Test
+	public void aReadOnABusyReplicaDoesNotMarkItDown() throws Exception{
+		ConnectionPool replica = database.newPool(1, 20);
+		SQLTranslator.setDataSources(database.newPool(), new ConnectionPool[] { replica }, 0);
+		PooledConnection held = replica.borrow();
+		try {
+			assertTrue(SQLTranslator.execute("VIEW_TRIP,1001").isEmpty());
+			assertTrue(SQLTranslator.getRouter().isHealthy(0));
+		} finally {
+			replica.release(held);
+			SQLTranslator.setConnectionPool(null);
+		}
+	}
+
+	@Test
+	public void onlyConnectionFailuresMarkAReplicaDown(){
+		assertTrue(ReplicaRouter.isConnectionFailure(new SQLException("Communications link failure", "08S01")));
+		assertTrue(ReplicaRouter.isConnectionFailure(new SQLRecoverableException("Connection reset")));
+		assertFalse(ReplicaRouter.isConnectionFailure(new PoolTimeoutException("Timed out")));
+		assertFalse(ReplicaRouter.isConnectionFailure(new SQLException("Syntax error", "42000")));
+		assertFalse(ReplicaRouter.isConnectionFailure(new SQLException("Unknown")));
+	}
+
+	@Test
+	public void readsGoToThePrimaryWithoutHealthyReplicas() throws Exception{
+		router.markDown(replicas[0], new SQLException("test"));
+		router.markDown(replicas[1], new SQLException("test"));
+		assertSame(primary, router.route(SQLTranslator.translateCSV("VIEW_TRIP,1001")));
+	}
+
+	@Test
+	public void aCustomerReadsTheirWritesFromThePrimary() throws Exception{
+		router.afterWrite(SQLTranslator.translateCSV(BOOK_TRIP), 1001);
+		assertSame(primary, router.route(SQLTranslator.translateCSV("VIEW_TRIP,1001")));
+		assertSame(primary, router.route(SQLTranslator.translateCSV("GET_CARDS,1001")));
+		assertSame(primary, router.route(SQLTranslator.translateCSV("LOGIN,1001,secret")));
+		//other customers and drivers still read from the replicas
+		assertNotSame(primary, router.route(SQLTranslator.translateCSV("VIEW_TRIP,1002")));
+		assertNotSame(primary, router.route(SQLTranslator.translateCSV("VIEW_TRIP,3001")));
+	}
+
+	@Test
+	public void theReadYourWritesWindowEnds() throws Exception{
+		ReplicaRouter shortWindow = new ReplicaRouter(primary, new ConnectionPool[] { database.newPool() }, 60000, 50);
+		try {
+			shortWindow.afterWrite(SQLTranslator.translateCSV(BOOK_TRIP), 1001);
+			assertSame(primary, shortWindow.route(SQLTranslator.translateCSV("VIEW_TRIP,1001")));
+			Thread.sleep(100);
+			assertNotSame(primary, shortWindow.route(SQLTranslator.translateCSV("VIEW_TRIP,1001")));
+		} finally {
+			shortWindow.close();
+		}
+	}
+
+	@Test
+	public void everythingGoesToThePrimaryWithoutReplicas() throws Exception{
+		ReplicaRouter noReplicas = new ReplicaRouter(primary, new ConnectionPool[0], 60000, 60000);
+		try {
+			assertSame(primary, noReplicas.route(SQLTranslator.translateCSV("VIEW_TRIP,1001")));
+			assertSame(primary, noReplicas.route(SQLTranslator.translateCSV(BOOK_TRIP)));
+		} finally {
+			noReplicas.close();
+		}
+	}
+}
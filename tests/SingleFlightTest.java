@@ -0,0 +1,164 @@
+/**
+ * Tests of the coalescing of identical reads: the reads arriving while one is
+ * in flight share its query, fail with it, and a write stops them joining it.
+ *
+ * The reads are a registered command whose query waits in a database function
+ * until the test lets it go, and counts how many times it ran.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import common.*;
+
+public class SingleFlightTest{
+	private final static String READ = "SLOW_DRIVERS,3005";
+	private final static int FOLLOWERS = 4;
+
+	private final static AtomicInteger queries = new AtomicInteger();
+	private static volatile CountDownLatch entered;
+	private static volatile CountDownLatch released;
+	private static volatile boolean failing;
+
+	private TestDatabase database;
+
+	/**
+	 * The database function of the reads, called for every row: the first read waits to be
+	 * released at driver 3000, and fails there if the test says so.
+	 */
+	public static boolean await(int driverId) throws Exception{
+		if (driverId == 3000 && queries.incrementAndGet() == 1) {
+			entered.countDown();
+			released.await(10, TimeUnit.SECONDS);
+			if (failing) {
+				throw new SQLException("The read failed");
+			}
+		}
+		return true;
+	}
+
+	@Before
+	public void setUp() throws Exception{
+		queries.set(0);
+		entered = new CountDownLatch(1);
+		released = new CountDownLatch(1);
+		failing = false;
+		database = new TestDatabase("flight");
+		database.update("CREATE ALIAS TEST_AWAIT FOR \"" + SingleFlightTest.class.getName() + ".await\"");
+		SQLTranslator.setConnectionPool(database.newPool());
+		SQLTranslator.registerCommand("SLOW_DRIVERS", Driver.class, "SELECT * FROM driver WHERE DRIVER_ID < ?"
+				+ " AND TEST_AWAIT(DRIVER_ID)", ArgType.INT);
+		SQLTranslator.getMetrics().reset();
+		SQLTranslator.setCoalescing(true);
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		released.countDown();
+		SQLTranslator.setCoalescing(false);
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void theReadsInFlightShareOneQuery() throws Exception{
+		List<Read> reads = startReads();
+		released.countDown();
+		for (Read read : reads) {
+			read.join(10000);
+			assertEquals(5, read.result.size());
+		}
+		assertEquals(1, queries.get());
+		assertEquals(FOLLOWERS, SQLTranslator.getMetrics().getCoalesced("SLOW_DRIVERS"));
+		//each call has its own list
+		assertNotSame(reads.get(1).result, reads.get(2).result);
+		//landed: the next read runs its own query
+		assertEquals(5, SQLTranslator.execute(READ).size());
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void theReadsInFlightFailWithTheirLeader() throws Exception{
+		failing = true;
+		List<Read> reads = startReads();
+		released.countDown();
+		for (Read read : reads) {
+			read.join(10000);
+			assertTrue(read.result.isEmpty());
+		}
+		assertEquals(1, queries.get());
+		assertEquals(FOLLOWERS + 1, SQLTranslator.getMetrics().getErrors("SLOW_DRIVERS"));
+		assertEquals(0, SQLTranslator.getMetrics().getCoalesced("SLOW_DRIVERS"));
+	}
+
+	@Test
+	public void aWriteStopsTheReadsJoiningTheFlight() throws Exception{
+		Read leader = new Read();
+		leader.start();
+		assertTrue(entered.await(10, TimeUnit.SECONDS));
+		SQLTranslator.execute("CANCEL_TRIP,5");
+		//runs its own query, which may see the write
+		assertEquals(5, SQLTranslator.execute(READ).size());
+		assertEquals(2, queries.get());
+		released.countDown();
+		leader.join(10000);
+		assertEquals(5, leader.result.size());
+	}
+
+	@Test
+	public void differentReadsDoNotShare() throws Exception{
+		Read leader = new Read();
+		leader.start();
+		assertTrue(entered.await(10, TimeUnit.SECONDS));
+		assertEquals(6, SQLTranslator.execute("SLOW_DRIVERS,3006").size());
+		released.countDown();
+		leader.join(10000);
+		assertEquals(2, queries.get());
+	}
+
+	/**
+	 * Starts a read and, once its query runs, the identical reads joining its flight.
+	 * @return the reads, the leading one first.
+	 */
+	private List<Read> startReads() throws Exception{
+		List<Read> reads = new ArrayList<Read>();
+		Read leader = new Read();
+		leader.start();
+		reads.add(leader);
+		assertTrue(entered.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < FOLLOWERS; i++) {
+			Read follower = new Read();
+			follower.start();
+			reads.add(follower);
+		}
+		//the followers wait for the flight
+		long deadline = System.currentTimeMillis() + 10000;
+		for (Read follower : reads.subList(1, reads.size())) {
+			while (follower.getState() != Thread.State.WAITING) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(1);
+			}
+		}
+		return reads;
+	}
+
+	private static class Read extends Thread{
+		volatile ArrayList<?> result;
+
+		@Override
+		public void run(){
+			result = SQLTranslator.execute(READ);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * In-memory H2 database in MySQL mode with the schema of the translator and a
+ * small data set, standing in for the MySQL server in the tests:
+ *   - customers 1000-1099, password "secret", one card each
+ *   - drivers 3000-3019
+ *   - trips 1-TRIPS, dated 2016-05-01 to 2016-05-28 at 06:00 to 21:00; every
+ *     tenth one is unassigned
+ *   - the journal_applied table of the WriteJournal
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+class TestDatabase{
+	private final static String DRIVER = "org.h2.Driver";
+	final static int CUSTOMERS = 100;
+	final static int DRIVERS = 20;
+	final static int TRIPS = 1000;
+
+	private final String url;
+	//keeps the in-memory database alive between the pooled connections
+	private final Connection connection;
+
+	/**
+	 * Creates and fills a database.
+	 * @param name The name of the in-memory database, distinct per test class.
+	 */
+	TestDatabase(String name) throws Exception{
+		Class.forName(DRIVER);
+		url = "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+		connection = DriverManager.getConnection(url, "sa", "");
+		createSchema();
+	}
+
+	/**
+	 * @return a new pool of connections to the database.
+	 */
+	ConnectionPool newPool(){
+		return new ConnectionPool(url, DRIVER, "sa", "", 1, 8, 5000, 300000);
+	}
+
+	/**
+	 * @return a new pool of at most maxSize connections to the database.
+	 */
+	ConnectionPool newPool(int maxSize, long borrowTimeoutMillis){
+		return new ConnectionPool(url, DRIVER, "sa", "", 1, maxSize, borrowTimeoutMillis, 300000);
+	}
+
+	/**
+	 * @return the result of a query returning one int, 0 for a NULL.
+	 */
+	int queryInt(String sql) throws SQLException{
+		try (Statement statement = connection.createStatement(); ResultSet rSet = statement.executeQuery(sql)) {
+			rSet.next();
+			return rSet.getInt(1);
+		}
+	}
+
+	/**
+	 * Runs a statement behind the translator's back, e.g. a write of another server.
+	 */
+	void update(String sql) throws SQLException{
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(sql);
+		}
+	}
+
+	/**
+	 * Drops the database.
+	 */
+	void close() throws SQLException{
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("DROP ALL OBJECTS");
+		}
+		connection.close();
+	}
+
+	private void createSchema() throws SQLException{
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("DROP ALL OBJECTS");
+			statement.execute("CREATE TABLE customer (CUSTOMER_ID INT AUTO_INCREMENT PRIMARY KEY, first_name VARCHAR(40),"
+					+ " last_name VARCHAR(40), address VARCHAR(80), city VARCHAR(40), county VARCHAR(40),"
+					+ " postcode VARCHAR(10), email VARCHAR(80), phone_number VARCHAR(20))");
+			statement.execute("ALTER TABLE customer ALTER COLUMN CUSTOMER_ID RESTART WITH 1000");
+			statement.execute("CREATE TABLE driver (DRIVER_ID INT PRIMARY KEY, first_name VARCHAR(40),"
+					+ " last_name VARCHAR(40), licence_plate VARCHAR(10), phone_no VARCHAR(20))");
+			statement.execute("CREATE TABLE company_staff (STAFF_ID INT PRIMARY KEY, first_name VARCHAR(40),"
+					+ " last_name VARCHAR(40))");
+			statement.execute("CREATE TABLE password (ID INT PRIMARY KEY, pw VARCHAR(128))");
+			statement.execute("CREATE TABLE card_info (cust_no INT, CARD_NO VARCHAR(20), start_date VARCHAR(10),"
+					+ " exp_date VARCHAR(10), cust_id INT)");
+			statement.execute("CREATE TABLE trip (TRIP_ID INT AUTO_INCREMENT PRIMARY KEY, cust_id INT, driver_id INT,"
+					+ " from_address VARCHAR(80), from_city VARCHAR(40), from_county VARCHAR(40), from_postcode VARCHAR(10),"
+					+ " to_address VARCHAR(80), to_city VARCHAR(40), to_county VARCHAR(40), to_postcode VARCHAR(10),"
+					+ " trip_date VARCHAR(10), trip_time VARCHAR(8))");
+			statement.execute("CREATE TABLE journal_applied (write_key VARCHAR(40) PRIMARY KEY)");
+		}
+		try (PreparedStatement customer = connection.prepareStatement("INSERT INTO customer (first_name, last_name,"
+				+ " address, county, city, postcode, email, phone_number) VALUES (?,?,?,?,?,?,?,?)");
+				PreparedStatement password = connection.prepareStatement("INSERT INTO password (ID, pw) VALUES (?,?)");
+				PreparedStatement card = connection.prepareStatement("INSERT INTO card_info VALUES (?,?,?,?,?)")) {
+			for (int i = 0; i < CUSTOMERS; i++) {
+				int id = 1000 + i;
+				customer.setString(1, "First" + i);
+				customer.setString(2, "Last" + i);
+				customer.setString(3, i + " High Street");
+				customer.setString(4, "Yorkshire");
+				customer.setString(5, "Leeds");
+				customer.setString(6, "LS1 1AA");
+				customer.setString(7, "customer" + id + "@example.com");
+				customer.setString(8, "07700" + id);
+				customer.addBatch();
+				password.setInt(1, id);
+				password.setString(2, "secret");
+				password.addBatch();
+				card.setInt(1, id);
+				card.setString(2, "4000000000" + id);
+				card.setString(3, "01/16");
+				card.setString(4, "01/20");
+				card.setInt(5, id);
+				card.addBatch();
+			}
+			customer.executeBatch();
+			password.executeBatch();
+			card.executeBatch();
+		}
+		try (PreparedStatement driver = connection.prepareStatement("INSERT INTO driver VALUES (?,?,?,?,?)")) {
+			for (int i = 0; i < DRIVERS; i++) {
+				driver.setInt(1, 3000 + i);
+				driver.setString(2, "Driver" + i);
+				driver.setString(3, "Last" + i);
+				driver.setString(4, "YD16 " + i);
+				driver.setString(5, "07800" + i);
+				driver.addBatch();
+			}
+			driver.executeBatch();
+		}
+		try (PreparedStatement trip = connection.prepareStatement("INSERT INTO trip (cust_id, driver_id, from_address,"
+				+ " from_city, from_county, from_postcode, to_address, to_city, to_county, to_postcode, trip_date, trip_time)"
+				+ " VALUES (?,?,?,?,?,?,?,?,?,?,?,?)")) {
+			for (int i = 0; i < TRIPS; i++) {
+				trip.setInt(1, 1000 + i % CUSTOMERS);
+				if (i % 10 == 0) {
+					trip.setNull(2, java.sql.Types.INTEGER);
+				} else {
+					trip.setInt(2, 3000 + i % DRIVERS);
+				}
+				trip.setString(3, i + " High Street");
+				trip.setString(4, "Leeds");
+				trip.setString(5, "Yorkshire");
+				trip.setString(6, "LS1 4AP");
+				trip.setString(7, "1 Station Road");
+				trip.setString(8, "York");
+				trip.setString(9, "Yorkshire");
+				trip.setString(10, "YO1 6GA");
+				trip.setString(11, "2016-05-" + String.format("%02d", 1 + i % 28));
+				trip.setString(12, String.format("%02d:00", 6 + i % 16));
+				trip.addBatch();
+			}
+			trip.executeBatch();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Tests of the paging of VIEW_TRIP: a page size returns a TripPage with the
+ * continuation token of the next page, and following the tokens returns every
+ * trip once.
+ *
+ * The test database has 100 unassigned trips and 10 trips of customer 1001.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import common.*;
+
+public class TripPageTest{
+	private final static int UNASSIGNED = TestDatabase.TRIPS / 10;
+
+	private TestDatabase database;
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("paging");
+		SQLTranslator.setConnectionPool(database.newPool());
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void withoutAPageSizeEveryTripIsReturned() throws Exception{
+		ArrayList trips = SQLTranslator.execute("VIEW_TRIP,NULL");
+		assertEquals(ArrayList.class, trips.getClass());
+		assertEquals(UNASSIGNED, trips.size());
+	}
+
+	@Test
+	public void aPageHasTheTokenOfTheNextOne() throws Exception{
+		TripPage page = (TripPage) SQLTranslator.execute("VIEW_TRIP,NULL,30");
+		assertEquals(30, page.size());
+		assertTrue(page.hasMore());
+		assertNotNull(page.getContinuationToken());
+	}
+
+	@Test
+	public void followingTheTokensReturnsEveryTripOnce() throws Exception{
+		assertEquals(UNASSIGNED, followTokens("VIEW_TRIP,NULL,30"));
+		//the last page is full, an empty one follows it
+		assertEquals(UNASSIGNED, followTokens("VIEW_TRIP,NULL,25"));
+		assertEquals(10, followTokens("VIEW_TRIP,1001,3"));
+	}
+
+	@Test
+	public void theDateRangeIsKeptAcrossThePages() throws Exception{
+		int inRange = database.queryInt("SELECT COUNT(*) FROM trip WHERE driver_id IS NULL"
+				+ " AND trip_date >= '2016-05-05' AND trip_date <= '2016-05-10'");
+		assertTrue(inRange > 0);
+		assertEquals(inRange, followTokens("VIEW_TRIP,NULL,4,,2016-05-05,2016-05-10"));
+	}
+
+	@Test
+	public void anInvalidTokenIsRefused() throws Exception{
+		try {
+			SQLTranslator.translateCSV("VIEW_TRIP,NULL,30,nonsense");
+			fail("translated an invalid token");
+		} catch (TranslatorException e) {
+			assertTrue(e.getMessage().startsWith("Invalid continuation token"));
+		}
+	}
+
+	@Test
+	public void theTokenIsSerialized() throws Exception{
+		TripPage page = (TripPage) SQLTranslator.execute("VIEW_TRIP,NULL,30");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(page);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			TripPage copy = (TripPage) in.readObject();
+			assertEquals(page.size(), copy.size());
+			assertEquals(page.getContinuationToken(), copy.getContinuationToken());
+		}
+	}
+
+	@Test
+	public void theStreamAndColumnsIgnoreThePageSize() throws Exception{
+		try (Stream<Trip> trips = SQLTranslator.executeStream("VIEW_TRIP,NULL,30", Trip.class)) {
+			assertEquals(UNASSIGNED, trips.count());
+		}
+		assertEquals(UNASSIGNED, SQLTranslator.executeColumns("VIEW_TRIP,NULL,30").size());
+	}
+
+	/**
+	 * @return the number of trips of all the pages of the command, checking the tokens go forward.
+	 */
+	private static int followTokens(String CSV) throws Exception{
+		String[] fields = CSV.split(",", -1);
+		int count = 0;
+		String token = null;
+		TripPage page;
+		do {
+			if (fields.length > 3) {
+				fields[3] = token == null ? "" : token;
+			}
+			String command = fields.length > 3 ? String.join(",", fields)
+					: CSV + (token == null ? "" : "," + token);
+			page = (TripPage) SQLTranslator.execute(command);
+			count += page.size();
+			if (page.hasMore()) {
+				String next = page.getContinuationToken();
+				if (token != null) {
+					int byDate = TripPage.dateOf(next).compareTo(TripPage.dateOf(token));
+					assertTrue(byDate > 0 || byDate == 0 && TripPage.tripIdOf(next) > TripPage.tripIdOf(token));
+				}
+				token = next;
+			}
+		} while (page.hasMore());
+		return count;
+	}
+}
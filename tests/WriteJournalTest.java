@@ -0,0 +1,244 @@
+/**
+ * Tests of the WriteJournal: replay to the database, recovery of the commands
+ * not replayed yet, a torn tail, the dead-letter file and a full journal.
+ *
+ *  @author Laszlo Szoboszlai
+ *  @version 25/04/2016
+ */
+
+package server;
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import org.h2.api.Trigger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteJournalTest{
+	//size of the journal's header, and of a record's length, CRC and sequence number
+	private final static int HEADER = 32;
+	private final static int RECORD_OVERHEAD = 16;
+	private final static int CAPACITY = 1 << 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TestDatabase database;
+	private Path file;
+
+	/**
+	 * Refuses the trips from REFUSED with an error without a SQLState, as many drivers do.
+	 */
+	public static class Refuser implements Trigger{
+		final static String REFUSED = "Refused Road";
+
+		@Override
+		public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException{
+			if (REFUSED.equals(newRow[3])) {
+				throw new SQLException("Trip refused");
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception{
+		database = new TestDatabase("journal");
+		SQLTranslator.setConnectionPool(database.newPool());
+		file = folder.getRoot().toPath().resolve("writes.journal");
+	}
+
+	@After
+	public void tearDown() throws Exception{
+		SQLTranslator.setWriteJournal(null);
+		SQLTranslator.setConnectionPool(null);
+		database.close();
+	}
+
+	@Test
+	public void journaledCommandsAreReplayedToTheDatabase() throws Exception{
+		WriteJournal journal = new WriteJournal(file, CAPACITY);
+		SQLTranslator.setWriteJournal(journal);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(SQLTranslator.execute(bookTrip(i)).isEmpty());
+		}
+		SQLTranslator.execute("CANCEL_TRIP,5");
+		awaitReplay(journal);
+		assertEquals(TestDatabase.TRIPS + 3 - 1, database.queryInt("SELECT COUNT(*) FROM trip"));
+		assertEquals(4, database.queryInt("SELECT COUNT(*) FROM journal_applied"));
+	}
+
+	@Test
+	public void commandsNotReplayedSurviveAReopen() throws Exception{
+		WriteJournal journal = new WriteJournal(file, CAPACITY);
+		for (int i = 0; i < 3; i++) {
+			journal.append(bookTrip(i));
+		}
+		assertEquals(3, journal.getPending());
+		journal.close();
+
+		journal = new WriteJournal(file, CAPACITY);
+		assertEquals(3, journal.getPending());
+		SQLTranslator.setWriteJournal(journal);
+		awaitReplay(journal);
+		assertEquals(TestDatabase.TRIPS + 3, database.queryInt("SELECT COUNT(*) FROM trip"));
+	}
+
+	@Test
+	public void aTornRecordEndsTheLog() throws Exception{
+		WriteJournal journal = new WriteJournal(file, CAPACITY);
+		for (int i = 0; i < 3; i++) {
+			journal.append(bookTrip(i));
+		}
+		journal.close();
+		//a crash in the middle of the last record: its CSV never reached the disk
+		int last = HEADER + recordSize(bookTrip(0)) + recordSize(bookTrip(1));
+		overwrite(last + RECORD_OVERHEAD, new byte[bookTrip(2).length()]);
+
+		journal = new WriteJournal(file, CAPACITY);
+		assertEquals(2, journal.getPending());
+		//the next command takes the place of the torn one
+		journal.append(bookTrip(3));
+		assertEquals(3, journal.getPending());
+		SQLTranslator.setWriteJournal(journal);
+		awaitReplay(journal);
+		assertEquals(TestDatabase.TRIPS + 3, database.queryInt("SELECT COUNT(*) FROM trip"));
+		assertEquals(0, database.queryInt("SELECT COUNT(*) FROM trip WHERE from_address='2 Test Road'"));
+		assertEquals(1, database.queryInt("SELECT COUNT(*) FROM trip WHERE from_address='3 Test Road'"));
+	}
+
+	@Test
+	public void aTornLengthEndsTheLog() throws Exception{
+		WriteJournal journal = new WriteJournal(file, CAPACITY);
+		journal.append(bookTrip(0));
+		journal.append(bookTrip(1));
+		journal.close();
+		//a length running past the end of the file
+		overwrite(HEADER + recordSize(bookTrip(0)), ByteBuffer.allocate(4).putInt(0, CAPACITY).array());
+
+		journal = new WriteJournal(file, CAPACITY);
+		assertEquals(1, journal.getPending());
+		journal.close();
+	}
+
+	@Test
+	public void aFileThatIsNotAJournalIsRefused() throws Exception{
+		Files.write(file, new byte[CAPACITY]);
+		try {
+			new WriteJournal(file, CAPACITY);
+			fail("opened a file that is not a journal");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Not a write journal"));
+		}
+	}
+
+	@Test
+	public void aRefusedCommandIsDeadLettered() throws Exception{
+		WriteJournal journal = new WriteJournal(file, CAPACITY);
+		SQLTranslator.setWriteJournal(journal);
+		//from_address is a VARCHAR(80)
+		String tooLong = bookTrip(0).replace("0 Test Road", new String(new char[100]).replace('\0', 'x'));
+		SQLTranslator.execute(tooLong);
+		SQLTranslator.execute(bookTrip(1));
+		awaitReplay(journal);
+		assertEquals(1, journal.getDeadLetters());
+		List<String> deadLetters = Files.readAllLines(journal.getDeadLetterFile(), StandardCharsets.UTF_8);
+		assertEquals(1, deadLetters.size());
+		assertTrue(deadLetters.get(0).contains("\t" + tooLong + "\t"));
+		//the replay went on past it
+		assertEquals(TestDatabase.TRIPS + 1, database.queryInt("SELECT COUNT(*) FROM trip"));
+	}
+
+	@Test
+	public void aRefusalWithoutASqlStateIsDeadLettered() throws Exception{
+		database.update("CREATE TRIGGER refuser BEFORE INSERT ON trip FOR EACH ROW CALL \""
+				+ Refuser.class.getName() + "\"");
+		WriteJournal journal = new WriteJournal(file, CAPACITY);
+		SQLTranslator.setWriteJournal(journal);
+		SQLTranslator.execute(bookTrip(0).replace("0 Test Road", Refuser.REFUSED));
+		SQLTranslator.execute(bookTrip(1));
+		awaitReplay(journal);
+		assertEquals(1, journal.getDeadLetters());
+		assertEquals(TestDatabase.TRIPS + 1, database.queryInt("SELECT COUNT(*) FROM trip"));
+	}
+
+	@Test
+	public void aBusyPoolIsRetried() throws Exception{
+		ConnectionPool pool = database.newPool(1, 20);
+		SQLTranslator.setConnectionPool(pool);
+		WriteJournal journal = new WriteJournal(file, CAPACITY);
+		PooledConnection held = pool.borrow();
+		try {
+			SQLTranslator.setWriteJournal(journal);
+			journal.append(bookTrip(0));
+			//the replay times out waiting for the one connection, and keeps the command
+			Thread.sleep(300);
+			assertEquals(1, journal.getPending());
+			assertEquals(0, journal.getDeadLetters());
+		} finally {
+			pool.release(held);
+		}
+		awaitReplay(journal);
+		assertEquals(0, journal.getDeadLetters());
+		assertEquals(TestDatabase.TRIPS + 1, database.queryInt("SELECT COUNT(*) FROM trip"));
+	}
+
+	@Test
+	public void aFullJournalRefusesTheAppend() throws Exception{
+		WriteJournal journal = new WriteJournal(file, HEADER + recordSize(bookTrip(0)));
+		journal.append(bookTrip(0));
+		try {
+			journal.append(bookTrip(1));
+			fail("appended past the capacity");
+		} catch (IOException e) {
+			assertEquals("The write journal is full", e.getMessage());
+		}
+		journal.close();
+	}
+
+	@Test
+	public void executeWritesDirectlyWhenTheJournalIsFull() throws Exception{
+		//room for one command at a time
+		WriteJournal journal = new WriteJournal(file, HEADER + recordSize(bookTrip(0)));
+		SQLTranslator.setWriteJournal(journal);
+		for (int i = 0; i < 5; i++) {
+			SQLTranslator.execute(bookTrip(i));
+		}
+		awaitReplay(journal);
+		//none is lost, whether it was journaled or written directly
+		assertEquals(TestDatabase.TRIPS + 5, database.queryInt("SELECT COUNT(*) FROM trip"));
+	}
+
+	private static String bookTrip(int i){
+		return "BOOK_TRIP,1001," + i + " Test Road,Leeds,West Yorkshire,LS1 4AP,"
+				+ "1 Station Road,York,North Yorkshire,YO1 6GA,2016-06-01,09:00";
+	}
+
+	private static int recordSize(String CSV){
+		return RECORD_OVERHEAD + CSV.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	private void overwrite(int position, byte[] bytes) throws IOException{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(bytes), position);
+		}
+	}
+
+	private static void awaitReplay(WriteJournal journal) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + 10000;
+		while (journal.getPending() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, journal.getPending());
+	}
+}